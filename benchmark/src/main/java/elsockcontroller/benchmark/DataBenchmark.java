@@ -0,0 +1,100 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import elsockcontroller.api.Device;
+import elsockcontroller.api.ElsockData;
+import elsockcontroller.api.Status;
+import elsockcontroller.api.StatusSnapshot;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the status data structures: device lookup in
+ * {@link ElsockData} and {@link StatusSnapshot}, and
+ * {@link Device#getDevices()}.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataBenchmark
+{
+    @Param({"DEVICE_0", "DEVICE_9"})
+    public Device device;
+    private ElsockData data;
+    private StatusSnapshot snapshot;
+    
+    
+    @Setup
+    public void setup()
+    {
+        data = new ElsockData(Device.getDevices(), Status.OFF);
+        data.get(device).setStatus(Status.ON);
+        snapshot = StatusSnapshot.of(data);
+    }
+    
+    
+    
+    @Benchmark
+    public Status elsockDataGetStatus()
+    {
+        return data.getStatus(device);
+    }
+    
+    
+    @Benchmark
+    public Status snapshotGetStatus()
+    {
+        return snapshot.getStatus(device);
+    }
+    
+    
+    @Benchmark
+    public boolean elsockDataEquals()
+    {
+        return data.equals(data);
+    }
+    
+    
+    @Benchmark
+    public List<Device> getDevices()
+    {
+        return Device.getDevices();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import elsockcontroller.api.Device;
+import elsockcontroller.api.ElsockController;
+import elsockcontroller.api.ElsockData;
+import elsockcontroller.api.KeepAliveTransport;
+import elsockcontroller.api.NioTransport;
+import elsockcontroller.api.Protocol;
+import elsockcontroller.api.Status;
+import elsockcontroller.api.Transport;
+import elsockcontroller.api.UrlConnectionTransport;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmarks against a local {@link StubElsockServer stub server}
+ * with a configurable device latency.
+ *
+ * <p>The benchmarks run in throughput and sample mode; the latter reports
+ * latency percentiles (eg. p99) per transport.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark
+{
+    /** Transport: <code>keepalive</code>, <code>nio</code> or <code>urlconnection</code>. */
+    @Param({"keepalive", "nio", "urlconnection"})
+    public String transport;
+    /** Simulated device latency (µs). */
+    @Param({"0", "1000"})
+    public long latencyMicros;
+    private StubElsockServer server;
+    private ElsockController controller;
+    
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        server = new StubElsockServer(latencyMicros);
+        controller = new ElsockController(Protocol.HTTP, server.getAddress(),
+                createTransport(transport));
+    }
+    
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        controller.close();
+        server.close();
+    }
+    
+    
+    
+    @Benchmark
+    public void sendCommand() throws IOException
+    {
+        controller.sendCommand(Device.DEVICE_3, Status.ON);
+    }
+    
+    
+    @Benchmark
+    public ElsockData getStatus() throws IOException
+    {
+        return controller.getStatus();
+    }
+    
+    
+    static Transport createTransport(String name)
+    {
+        switch(name)
+        {
+            case "keepalive":
+                return new KeepAliveTransport();
+            case "nio":
+                return new NioTransport();
+            case "urlconnection":
+                return new UrlConnectionTransport(Protocol.HTTP);
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import elsockcontroller.api.CommandJournal;
+import elsockcontroller.api.Deadline;
+import elsockcontroller.api.Device;
+import elsockcontroller.api.ElsockController;
+import elsockcontroller.api.Protocol;
+import elsockcontroller.api.Status;
+import elsockcontroller.api.Transport;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@link CommandJournal command journal}: commands per
+ * second of a controller recording to a journal, per sync policy. The
+ * controller uses a transport answering from memory, so the journal is the
+ * only cost beside the query handling.
+ *
+ * <p>Several threads send commands, so concurrent records share the syncs
+ * of the <code>COMMIT</code> policy.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class JournalBenchmark
+{
+    /** Sync policy: <code>NONE</code>, <code>PERIODIC</code>, <code>COMMIT</code> or <code>off</code> without journal. */
+    @Param({"off", "NONE", "PERIODIC", "COMMIT"})
+    public String policy;
+    private File file;
+    private CommandJournal journal;
+    private ElsockController controller;
+    
+    
+    @Setup(Level.Iteration)
+    public void setup() throws IOException
+    {
+        controller = new ElsockController(Protocol.HTTP, "127.0.0.1", new MemoryTransport());
+        
+        if( policy.equals("off") == false )
+        {
+            file = File.createTempFile("journal", ".bin");
+            file.delete();
+            journal = new CommandJournal(file, CommandJournal.SyncPolicy.valueOf(policy),
+                    CommandJournal.DEFAULT_SYNC_INTERVAL);
+            controller.setJournal(journal);
+        }
+    }
+    
+    
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException
+    {
+        controller.close();
+        
+        if( journal != null )
+        {
+            journal.close();
+            file.delete();
+        }
+    }
+    
+    
+    
+    @Benchmark
+    public void sendCommand() throws IOException
+    {
+        controller.sendCommand(Device.DEVICE_3, Status.ON);
+    }
+    
+    
+    
+    /**
+     * Transport answering with a fixed status line; it's thread-safe.
+     */
+    private static class MemoryTransport implements Transport
+    {
+        private static final byte[] RESPONSE = StubElsockServer.RESPONSE
+                .getBytes(StandardCharsets.US_ASCII);
+        
+        
+        @Override
+        public void execute(String address, CharSequence query, int timeout,
+                Deadline deadline, ResponseHandler handler) throws IOException
+        {
+            handler.handle(new ByteArrayInputStream(RESPONSE));
+        }
+        
+        
+        @Override
+        public void close()
+        {
+            // Nothing to release
+        }
+    }
+}
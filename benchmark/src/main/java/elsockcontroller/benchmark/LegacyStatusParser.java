@@ -0,0 +1,81 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import elsockcontroller.api.Device;
+import elsockcontroller.api.ElsockData;
+import elsockcontroller.api.Status;
+import java.io.InputStream;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+/**
+ * The class <code>LegacyStatusParser</code> is the <code>Scanner</code> based
+ * status parsing of <code>ElsockController</code> up to 0.0.2, kept as
+ * baseline for the parser benchmarks.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class LegacyStatusParser
+{
+    private static final String STREAM_DELIMETER = ",";
+    private static final Pattern PATTERN_EMPTY = Pattern.compile("^(?is)\\s$");
+    
+    
+    private LegacyStatusParser()
+    {
+    }
+    
+    
+    
+    static ElsockData parse(InputStream in)
+    {
+        ElsockData result = new ElsockData(Device.getDevices(), Status.UNKNOWN);
+        Scanner s = new Scanner(in).useDelimiter(STREAM_DELIMETER);
+        int pos = 0;
+        
+        if( s.hasNext(PATTERN_EMPTY) == true )
+        {
+            return null;
+        }
+        
+        while( s.hasNext() == true )
+        {
+            final String next = s.next().trim();
+            
+            switch(next)
+            {
+                case "0":
+                    result.get(pos++).setStatus(Status.OFF);
+                    break;
+                case "1":
+                    result.get(pos++).setStatus(Status.ON);
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import elsockcontroller.api.ElsockData;
+import elsockcontroller.api.Status;
+import elsockcontroller.api.StatusParser;
+import elsockcontroller.api.StatusSink;
+import elsockcontroller.api.StatusSnapshot;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the status response parsing: the former <code>Scanner</code>
+ * based parsing compared to {@link StatusParser}.
+ *
+ * <p>Run with <code>-prof gc</code> to compare the bytes allocated per
+ * parse.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark
+{
+    private byte[] response;
+    private ByteArrayInputStream in;
+    private StatusParser parser;
+    private StatusSnapshot.Builder builder;
+    private CountingSink sink;
+    
+    
+    @Setup
+    public void setup()
+    {
+        response = StubElsockServer.RESPONSE.getBytes(StandardCharsets.US_ASCII);
+        in = new ByteArrayInputStream(response);
+        parser = new StatusParser();
+        builder = new StatusSnapshot.Builder();
+        sink = new CountingSink();
+    }
+    
+    
+    
+    @Benchmark
+    public ElsockData scanner()
+    {
+        in.reset();
+        return LegacyStatusParser.parse(in);
+    }
+    
+    
+    @Benchmark
+    public int statusParserStream(Blackhole bh) throws IOException
+    {
+        in.reset();
+        sink.bh = bh;
+        return parser.parse(in, sink);
+    }
+    
+    
+    @Benchmark
+    public int statusParserBytes(Blackhole bh)
+    {
+        sink.bh = bh;
+        return parser.parse(response, 0, response.length, sink);
+    }
+    
+    
+    @Benchmark
+    public StatusSnapshot statusParserSnapshot()
+    {
+        in.reset();
+        builder.clear();
+        
+        try
+        {
+            parser.parse(in, builder);
+        }
+        catch( IOException ex )
+        {
+            throw new IllegalStateException(ex);
+        }
+        
+        return builder.build();
+    }
+    
+    
+    
+    /**
+     * Sink passing all values to a blackhole.
+     */
+    private static class CountingSink implements StatusSink
+    {
+        private Blackhole bh;
+        
+        
+        @Override
+        public void status(int pos, Status status)
+        {
+            bh.consume(pos);
+            bh.consume(status);
+        }
+    }
+}
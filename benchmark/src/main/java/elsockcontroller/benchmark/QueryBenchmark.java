@@ -0,0 +1,152 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import elsockcontroller.api.Deadline;
+import elsockcontroller.api.Device;
+import elsockcontroller.api.ElsockController;
+import elsockcontroller.api.ElsockData;
+import elsockcontroller.api.Protocol;
+import elsockcontroller.api.Status;
+import elsockcontroller.api.StatusSnapshot;
+import elsockcontroller.api.Transport;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the controller without network: query construction and
+ * response handling, using a transport that answers from memory.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark
+{
+    private ElsockController controller;
+    private ElsockData scene;
+    private MemoryTransport transport;
+    private StatusSnapshot.Builder builder;
+    
+    
+    @Setup
+    public void setup()
+    {
+        transport = new MemoryTransport();
+        controller = new ElsockController(Protocol.HTTP, "127.0.0.1", transport);
+        scene = new ElsockData(Device.getDevices().subList(0, 8), Status.ON);
+        builder = new StatusSnapshot.Builder();
+    }
+    
+    
+    
+    @Benchmark
+    public CharSequence sendCommand() throws IOException
+    {
+        controller.sendCommand(Device.DEVICE_3, Status.ON);
+        return transport.query;
+    }
+    
+    
+    @Benchmark
+    public CharSequence sendToggleAll() throws IOException
+    {
+        controller.sendToggleAll();
+        return transport.query;
+    }
+    
+    
+    @Benchmark
+    public CharSequence sendCommands() throws IOException
+    {
+        controller.sendCommands(scene);
+        return transport.query;
+    }
+    
+    
+    @Benchmark
+    public ElsockData getStatus() throws IOException
+    {
+        return controller.getStatus();
+    }
+    
+    
+    @Benchmark
+    public StatusSnapshot getStatusSink() throws IOException
+    {
+        builder.clear();
+        controller.getStatus(builder);
+        return builder.build();
+    }
+    
+    
+    
+    /**
+     * Transport recording the query and answering with a fixed status line.
+     */
+    private static class MemoryTransport implements Transport
+    {
+        private final ByteArrayInputStream response;
+        private CharSequence query;
+        
+        
+        MemoryTransport()
+        {
+            this.response = new ByteArrayInputStream(StubElsockServer.RESPONSE
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+        
+        
+        @Override
+        public void execute(String address, CharSequence query, int timeout,
+                Deadline deadline, ResponseHandler handler) throws IOException
+        {
+            this.query = query;
+            response.reset();
+            handler.handle(response);
+        }
+        
+        
+        @Override
+        public void close()
+        {
+            // Nothing to release
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class <code>StubElsockServer</code> is a local HTTP server answering
+ * every <code>/q?</code> query with a fixed status line after a simulated
+ * device latency.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class StubElsockServer implements Closeable
+{
+    /** Status line returned for each query. */
+    public static final String RESPONSE = "0,1,0,1,0,1,0,1,0,1";
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMicros;
+    
+    static
+    {
+        // Avoids the delayed ACK stall on the separately written headers
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    
+    
+    /**
+     * Creates and starts a new server on a free local port.
+     * 
+     * @param latencyMicros     Simulated device latency (µs)
+     * @throws                  IOException If the server can't be started
+     */
+    public StubElsockServer(long latencyMicros) throws IOException
+    {
+        this.latencyMicros = latencyMicros;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(executor);
+        this.server.createContext("/q", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                respond(exchange);
+            }
+        });
+        this.server.start();
+    }
+    
+    
+    
+    /**
+     * Returns the address (<code>host:port</code>) of the server.
+     * 
+     * @return      Address
+     */
+    public String getAddress()
+    {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+    
+    
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    
+    private void respond(HttpExchange exchange) throws IOException
+    {
+        if( latencyMicros > 0 )
+        {
+            try
+            {
+                TimeUnit.MICROSECONDS.sleep(latencyMicros);
+            }
+            catch( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        final byte[] body = RESPONSE.getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(200, body.length);
+        
+        try( OutputStream out = exchange.getResponseBody() )
+        {
+            out.write(body);
+        }
+    }
+}
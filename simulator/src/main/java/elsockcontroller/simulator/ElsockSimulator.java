@@ -0,0 +1,735 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class <code>ElsockSimulator</code> hosts any number of
+ * {@link SimulatedBoard simulated boards}, each listening on it's own port.
+ *
+ * <p>All boards are served by a single selector thread, so thousands of
+ * boards can run in one JVM. Responses can be delayed by a
+ * {@link #setLatency(long) latency} with random
+ * {@link #setJitter(long) jitter}; a share of the requests can be answered
+ * with an error ({@link #setFailureRate(double) failure rate}) or dropped
+ * by closing the connection ({@link #setDropRate(double) drop rate}).</p>
+ *
+ * <p>Connections are kept alive (HTTP/1.1) unless the client requests
+ * otherwise; pipelined requests are answered in order.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class ElsockSimulator implements Closeable
+{
+    private static final int MAX_REQUEST_SIZE = 4096;
+    private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+    private final String host;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final ScheduledExecutorService scheduler;
+    private final Queue<Runnable> tasks;
+    private final List<SimulatedBoard> boards;
+    private volatile long latencyMicros;
+    private volatile long jitterMicros;
+    private volatile double failureRate;
+    private volatile double dropRate;
+    private volatile boolean running;
+    
+    
+    public ElsockSimulator() throws IOException
+    {
+        this("127.0.0.1");
+    }
+    
+    /**
+     * Creates and starts a simulator without boards.
+     * 
+     * @param host      Local address the boards are bound to
+     * @throws          IOException If the selector can't be opened
+     */
+    public ElsockSimulator(String host) throws IOException
+    {
+        this.host = host;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.boards = new CopyOnWriteArrayList<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                final Thread thread = new Thread(r, "elsock-simulator-scheduler");
+                thread.setDaemon(true);
+                
+                return thread;
+            }
+        });
+        this.running = true;
+        this.selectorThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loop();
+            }
+        }, "elsock-simulator");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+    
+    
+    
+    /**
+     * Adds a board listening on a free port.
+     * 
+     * @return      Board
+     * @throws      IOException If the port can't be bound
+     */
+    public SimulatedBoard addBoard() throws IOException
+    {
+        return addBoard(0);
+    }
+    
+    
+    /**
+     * Adds a board listening on <code>port</code>.
+     * 
+     * @param port      Port or <code>0</code> for a free port
+     * @return          Board
+     * @throws          IOException If the port can't be bound
+     */
+    public SimulatedBoard addBoard(int port) throws IOException
+    {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        
+        try
+        {
+            server.configureBlocking(false);
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(host, port), 1024);
+        }
+        catch( IOException ex )
+        {
+            server.close();
+            throw ex;
+        }
+        
+        final String address = host + ":" + ( (InetSocketAddress) server.getLocalAddress() ).getPort();
+        final SimulatedBoard board = new SimulatedBoard(address);
+        
+        final FutureTask<Void> registration = new FutureTask<>(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws IOException
+            {
+                server.register(selector, SelectionKey.OP_ACCEPT, board);
+                return null;
+            }
+        });
+        
+        submit(registration);
+        
+        try
+        {
+            registration.get();
+        }
+        catch( InterruptedException ex )
+        {
+            server.close();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while adding board", ex);
+        }
+        catch( ExecutionException ex )
+        {
+            server.close();
+            throw new IOException("Failed to add board", ex.getCause());
+        }
+        
+        boards.add(board);
+        
+        return board;
+    }
+    
+    
+    /**
+     * Adds <code>count</code> boards; the ports are assigned consecutively
+     * starting at <code>basePort</code>, or are chosen freely if
+     * <code>basePort</code> is <code>0</code>.
+     * 
+     * @param count         Number of boards
+     * @param basePort      First port or <code>0</code>
+     * @return              Boards
+     * @throws              IOException If a port can't be bound
+     */
+    public List<SimulatedBoard> addBoards(int count, int basePort) throws IOException
+    {
+        final List<SimulatedBoard> added = new ArrayList<>(count);
+        
+        for( int i = 0; i < count; i++ )
+        {
+            added.add(addBoard(basePort == 0 ? 0 : basePort + i));
+        }
+        
+        return added;
+    }
+    
+    
+    /**
+     * Returns all boards.
+     * 
+     * @return      Boards
+     */
+    public List<SimulatedBoard> getBoards()
+    {
+        return Collections.unmodifiableList(boards);
+    }
+    
+    
+    /**
+     * Returns the latency of each response.
+     * 
+     * @return      Latency (µs)
+     */
+    public long getLatency()
+    {
+        return latencyMicros;
+    }
+    
+    
+    /**
+     * Sets the latency of each response.
+     * 
+     * @param latencyMicros     Latency (µs)
+     */
+    public void setLatency(long latencyMicros)
+    {
+        this.latencyMicros = Math.max(0, latencyMicros);
+    }
+    
+    
+    /**
+     * Returns the jitter; the latency varies uniformly within
+     * <code>&plusmn; jitter</code>.
+     * 
+     * @return      Jitter (µs)
+     */
+    public long getJitter()
+    {
+        return jitterMicros;
+    }
+    
+    
+    /**
+     * Sets the jitter.
+     * 
+     * @param jitterMicros      Jitter (µs)
+     */
+    public void setJitter(long jitterMicros)
+    {
+        this.jitterMicros = Math.max(0, jitterMicros);
+    }
+    
+    
+    /**
+     * Returns the share of requests answered with
+     * <code>503 Service Unavailable</code>.
+     * 
+     * @return      Failure rate (<code>0.0 - 1.0</code>)
+     */
+    public double getFailureRate()
+    {
+        return failureRate;
+    }
+    
+    
+    /**
+     * Sets the share of requests answered with an error.
+     * 
+     * @param failureRate       Failure rate (<code>0.0 - 1.0</code>)
+     */
+    public void setFailureRate(double failureRate)
+    {
+        this.failureRate = failureRate;
+    }
+    
+    
+    /**
+     * Returns the share of requests dropped by closing the connection.
+     * 
+     * @return      Drop rate (<code>0.0 - 1.0</code>)
+     */
+    public double getDropRate()
+    {
+        return dropRate;
+    }
+    
+    
+    /**
+     * Sets the share of requests dropped by closing the connection.
+     * 
+     * @param dropRate      Drop rate (<code>0.0 - 1.0</code>)
+     */
+    public void setDropRate(double dropRate)
+    {
+        this.dropRate = dropRate;
+    }
+    
+    
+    /**
+     * Stops the simulator and closes all boards and connections.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        selector.wakeup();
+        scheduler.shutdownNow();
+        
+        try
+        {
+            selectorThread.join();
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "ElsockSimulator{" + "boards=" + boards.size()
+                + ", latency=" + latencyMicros + ", jitter=" + jitterMicros
+                + ", failureRate=" + failureRate + ", dropRate=" + dropRate + '}';
+    }
+    
+    
+    /**
+     * Runs the task on the selector thread.
+     * 
+     * @param task      Task
+     */
+    private void submit(Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+    
+    
+    private void loop()
+    {
+        try
+        {
+            while( running == true )
+            {
+                selector.select();
+                
+                Runnable task;
+                
+                while( ( task = tasks.poll() ) != null )
+                {
+                    task.run();
+                }
+                
+                final Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+                
+                while( itr.hasNext() == true )
+                {
+                    final SelectionKey key = itr.next();
+                    itr.remove();
+                    
+                    try
+                    {
+                        handle(key);
+                    }
+                    catch( IOException ex )
+                    {
+                        closeClient(key);
+                    }
+                }
+            }
+        }
+        catch( IOException ex )
+        {
+            // Selector failed, the simulator stops
+        }
+        finally
+        {
+            for( SelectionKey key : selector.keys() )
+            {
+                closeQuietly(key);
+            }
+            
+            try
+            {
+                selector.close();
+            }
+            catch( IOException ex )
+            {
+                // Nothing left to do
+            }
+        }
+    }
+    
+    
+    private void handle(SelectionKey key) throws IOException
+    {
+        if( key.isValid() == false )
+        {
+            return;
+        }
+        
+        if( key.isAcceptable() == true )
+        {
+            final SocketChannel channel = ( (ServerSocketChannel) key.channel() ).accept();
+            
+            if( channel != null )
+            {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.register(selector, SelectionKey.OP_READ,
+                        new Client((SimulatedBoard) key.attachment()));
+            }
+            
+            return;
+        }
+        
+        final Client client = (Client) key.attachment();
+        final SocketChannel channel = (SocketChannel) key.channel();
+        
+        if( key.isReadable() == true )
+        {
+            if( client.in.hasRemaining() == false || channel.read(client.in) < 0 )
+            {
+                closeClient(key);
+                return;
+            }
+            
+            processInput(key, client);
+        }
+        else if( key.isWritable() == true )
+        {
+            channel.write(client.out);
+            
+            if( client.out.hasRemaining() == false )
+            {
+                responseSent(key, client);
+            }
+        }
+    }
+    
+    
+    /**
+     * Processes the next complete request in the input buffer, if any.
+     */
+    private void processInput(final SelectionKey key, final Client client)
+    {
+        if( client.busy == true )
+        {
+            return;
+        }
+        
+        final int end = indexOf(client.in, HEADER_END);
+        
+        if( end < 0 )
+        {
+            return;
+        }
+        
+        final byte[] request = new byte[end];
+        client.in.flip();
+        client.in.get(request);
+        client.in.position(client.in.position() + HEADER_END.length);
+        client.in.compact();
+        
+        client.busy = true;
+        key.interestOps(0);
+        
+        final Response response = respond(client.board, new String(request, StandardCharsets.ISO_8859_1));
+        final long delay = delay();
+        
+        if( delay > 0 )
+        {
+            scheduler.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    submit(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            send(key, client, response);
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MICROSECONDS);
+        }
+        else
+        {
+            send(key, client, response);
+        }
+    }
+    
+    
+    private void send(SelectionKey key, Client client, Response response)
+    {
+        if( key.isValid() == false )
+        {
+            return;
+        }
+        
+        if( response == null )
+        {
+            closeClient(key);
+            return;
+        }
+        
+        client.out = ByteBuffer.wrap(response.data);
+        client.closeAfter = response.close;
+        
+        try
+        {
+            ( (SocketChannel) key.channel() ).write(client.out);
+            
+            if( client.out.hasRemaining() == true )
+            {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            else
+            {
+                responseSent(key, client);
+            }
+        }
+        catch( IOException ex )
+        {
+            closeClient(key);
+        }
+    }
+    
+    
+    private void responseSent(SelectionKey key, Client client)
+    {
+        client.busy = false;
+        
+        if( client.closeAfter == true )
+        {
+            closeClient(key);
+            return;
+        }
+        
+        key.interestOps(SelectionKey.OP_READ);
+        processInput(key, client);
+    }
+    
+    
+    /**
+     * Creates the response of the request.
+     * 
+     * @return      Response or <tt>null</tt> if the request is dropped
+     */
+    private Response respond(SimulatedBoard board, String request)
+    {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        
+        if( dropRate > 0 && random.nextDouble() < dropRate )
+        {
+            return null;
+        }
+        
+        final String[] lines = request.split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        boolean close = ( requestLine.length < 3 || requestLine[2].equals("HTTP/1.1") == false );
+        
+        for( int i = 1; i < lines.length; i++ )
+        {
+            final String line = lines[i].toLowerCase();
+            
+            if( line.startsWith("connection:") == true )
+            {
+                close = line.contains("close") || ( close && line.contains("keep-alive") == false );
+            }
+        }
+        
+        if( requestLine.length < 2 )
+        {
+            return new Response(400, "", true);
+        }
+        
+        if( failureRate > 0 && random.nextDouble() < failureRate )
+        {
+            return new Response(503, "", close);
+        }
+        
+        final String target = requestLine[1];
+        final int sep = target.indexOf('?');
+        final String path = ( sep < 0 ? target : target.substring(0, sep) );
+        
+        if( path.equals("/q") == false )
+        {
+            return new Response(404, "", close);
+        }
+        
+        return new Response(200, board.execute(sep < 0 ? "" : target.substring(sep + 1)), close);
+    }
+    
+    
+    private long delay()
+    {
+        final long latency = latencyMicros;
+        final long jitter = jitterMicros;
+        
+        if( jitter == 0 )
+        {
+            return latency;
+        }
+        
+        return Math.max(0, latency + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+    }
+    
+    
+    private void closeClient(SelectionKey key)
+    {
+        closeQuietly(key);
+    }
+    
+    
+    private static void closeQuietly(SelectionKey key)
+    {
+        key.cancel();
+        
+        try
+        {
+            key.channel().close();
+        }
+        catch( IOException ex )
+        {
+            // Nothing left to do
+        }
+    }
+    
+    
+    private static int indexOf(ByteBuffer buffer, byte[] pattern)
+    {
+        final int limit = buffer.position() - pattern.length;
+        
+        for( int i = 0; i <= limit; i++ )
+        {
+            int j = 0;
+            
+            while( j < pattern.length && buffer.get(i + j) == pattern[j] )
+            {
+                j++;
+            }
+            
+            if( j == pattern.length )
+            {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    
+    
+    /**
+     * Connection of a client.
+     */
+    private static class Client
+    {
+        private final SimulatedBoard board;
+        private final ByteBuffer in;
+        private ByteBuffer out;
+        private boolean busy;
+        private boolean closeAfter;
+        
+        
+        Client(SimulatedBoard board)
+        {
+            this.board = board;
+            this.in = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+            this.busy = false;
+            this.closeAfter = false;
+        }
+    }
+    
+    
+    
+    /**
+     * Encoded response.
+     */
+    private static class Response
+    {
+        private final byte[] data;
+        private final boolean close;
+        
+        
+        Response(int code, String body, boolean close)
+        {
+            final String reason = ( code == 200 ? "OK" : code == 404 ? "Not Found"
+                    : code == 400 ? "Bad Request" : "Service Unavailable" );
+            final String response = "HTTP/1.1 " + code + " " + reason + "\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Length: " + body.length() + "\r\n"
+                    + ( close == true ? "Connection: close\r\n" : "" )
+                    + "\r\n"
+                    + body;
+            
+            this.data = response.getBytes(StandardCharsets.ISO_8859_1);
+            this.close = close;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.simulator;
+
+import elsockcontroller.api.ElsockController;
+import elsockcontroller.api.KeepAliveTransport;
+import elsockcontroller.api.LatencyHistogram;
+import elsockcontroller.api.NioTransport;
+import elsockcontroller.api.Protocol;
+import elsockcontroller.api.Transport;
+import elsockcontroller.api.VirtualThreads;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Load test sending concurrent status requests to simulated boards.
+ *
+ * <pre>
+ * java -cp simulator.jar elsockcontroller.simulator.LoadTest
+ *              [--requests=N] [--boards=N] [--rounds=N] [--latency=µs]
+ *              [--protocol=HTTP|HTTP_RAW] [--threads=N]
+ * </pre>
+ *
+ * <p>On Java 21 all requests of a round run at once, each on it's own
+ * virtual thread; carrier threads pinned by the requests are recorded with
+ * JFR and reported. Older runtimes use a pool of <code>threads</code>
+ * platform threads.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class LoadTest
+{
+    private LoadTest()
+    {
+    }
+    
+    
+    
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int requests = 10000;
+        int boards = 100;
+        int rounds = 5;
+        long latency = 1000;
+        Protocol protocol = Protocol.HTTP;
+        int threads = 200;
+        
+        for( String arg : args )
+        {
+            final int sep = arg.indexOf('=');
+            
+            if( arg.startsWith("--") == false || sep < 0 )
+            {
+                usage(arg);
+                return;
+            }
+            
+            final String value = arg.substring(sep + 1);
+            
+            switch(arg.substring(2, sep))
+            {
+                case "requests":
+                    requests = Integer.parseInt(value);
+                    break;
+                case "boards":
+                    boards = Integer.parseInt(value);
+                    break;
+                case "rounds":
+                    rounds = Integer.parseInt(value);
+                    break;
+                case "latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "protocol":
+                    protocol = Protocol.valueOf(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    usage(arg);
+                    return;
+            }
+        }
+        
+        final ElsockSimulator simulator = new ElsockSimulator();
+        simulator.setLatency(latency);
+        
+        // Enough idle connections to reuse them in the next round
+        final Transport transport = createTransport(protocol, requests / boards + 1);
+        final List<ElsockController> controllers = new ArrayList<>(boards);
+        
+        for( SimulatedBoard board : simulator.addBoards(boards, 0) )
+        {
+            controllers.add(new ElsockController(protocol, board.getAddress(), transport));
+        }
+        
+        final boolean virtual = VirtualThreads.isSupported();
+        final ExecutorService executor = ( virtual == true
+                ? VirtualThreads.newExecutor("load")
+                : Executors.newFixedThreadPool(threads) );
+        final PinningRecorder pinning = ( virtual == true ? PinningRecorder.start() : null );
+        
+        System.out.println(requests + " requests on " + boards + " boards via " + protocol.name()
+                + ( virtual == true ? ", virtual threads" : ", " + threads + " platform threads" ));
+        
+        try
+        {
+            for( int i = 1; i <= rounds; i++ )
+            {
+                run(i, controllers, requests, executor);
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            transport.close();
+            simulator.close();
+        }
+        
+        if( pinning != null )
+        {
+            System.out.println("Pinned carrier threads: " + pinning.stop());
+        }
+    }
+    
+    
+    /**
+     * Runs a round of concurrent status requests and prints the results.
+     * 
+     * @param round         Number of the round
+     * @param controllers   Controllers of the boards
+     * @param requests      Number of requests
+     * @param executor      Executor running the requests
+     * @throws              InterruptedException If interrupted while
+     *                      waiting
+     */
+    private static void run(int round, List<ElsockController> controllers, int requests,
+            ExecutorService executor) throws InterruptedException
+    {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(requests);
+        final long start = System.nanoTime();
+        
+        for( int i = 0; i < requests; i++ )
+        {
+            final ElsockController controller = controllers.get(i % controllers.size());
+            
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final long begin = System.nanoTime();
+                    
+                    try
+                    {
+                        controller.getStatus();
+                        latencies.record(System.nanoTime() - begin);
+                    }
+                    catch( IOException ex )
+                    {
+                        failures.incrementAndGet();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        
+        done.await();
+        
+        final long elapsed = System.nanoTime() - start;
+        
+        System.out.println(String.format("Round %d: %d ms, %.0f req/s, "
+                + "p50=%d us, p99=%d us, max=%d us, failures=%d", round,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), requests * 1e9 / elapsed,
+                TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(50.0)),
+                TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(99.0)),
+                TimeUnit.NANOSECONDS.toMicros(latencies.getMax()), failures.get()));
+    }
+    
+    
+    private static Transport createTransport(Protocol protocol, int maxIdle)
+    {
+        switch(protocol)
+        {
+            case HTTP:
+                return new KeepAliveTransport(maxIdle, KeepAliveTransport.DEFAULT_IDLE_TIMEOUT);
+            case HTTP_RAW:
+                return new NioTransport(maxIdle, NioTransport.DEFAULT_IDLE_TIMEOUT);
+            default:
+                return protocol.createTransport();
+        }
+    }
+    
+    
+    private static void usage(String arg)
+    {
+        System.err.println("Unknown argument: " + arg);
+        System.err.println("Usage: [--requests=N] [--boards=N] [--rounds=N] [--latency=us] "
+                + "[--protocol=HTTP|HTTP_RAW] [--threads=N]");
+    }
+    
+    
+    
+    /**
+     * Records pinned virtual threads with JFR; only used on Java 21.
+     */
+    private static class PinningRecorder
+    {
+        private static final String EVENT = "jdk.VirtualThreadPinned";
+        private final Recording recording;
+        
+        
+        private PinningRecorder(Recording recording)
+        {
+            this.recording = recording;
+        }
+        
+        
+        static PinningRecorder start()
+        {
+            final Recording recording = new Recording();
+            recording.enable(EVENT).withoutThreshold().withStackTrace();
+            recording.start();
+            
+            return new PinningRecorder(recording);
+        }
+        
+        
+        /**
+         * Stops the recording.
+         * 
+         * @return      Number of pinned events
+         * @throws      IOException If the recording can't be read
+         */
+        int stop() throws IOException
+        {
+            recording.stop();
+            
+            final Path file = Files.createTempFile("elsock-pinning", ".jfr");
+            
+            try
+            {
+                recording.dump(file);
+                int count = 0;
+                
+                for( RecordedEvent event : RecordingFile.readAllEvents(file) )
+                {
+                    if( event.getEventType().getName().equals(EVENT) == true )
+                    {
+                        System.out.println(event);
+                        count++;
+                    }
+                }
+                
+                return count;
+            }
+            finally
+            {
+                recording.close();
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.simulator;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Command line entry of the simulator.
+ *
+ * <pre>
+ * java -jar simulator.jar [--boards=N] [--base-port=P] [--host=H]
+ *                         [--latency=µs] [--jitter=µs]
+ *                         [--failure-rate=R] [--drop-rate=R]
+ * </pre>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class Main
+{
+    private Main()
+    {
+    }
+    
+    
+    
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int boards = 1;
+        int basePort = 0;
+        String host = "127.0.0.1";
+        long latency = 0;
+        long jitter = 0;
+        double failureRate = 0.0;
+        double dropRate = 0.0;
+        
+        for( String arg : args )
+        {
+            final int sep = arg.indexOf('=');
+            
+            if( arg.startsWith("--") == false || sep < 0 )
+            {
+                usage(arg);
+                return;
+            }
+            
+            final String value = arg.substring(sep + 1);
+            
+            switch(arg.substring(2, sep))
+            {
+                case "boards":
+                    boards = Integer.parseInt(value);
+                    break;
+                case "base-port":
+                    basePort = Integer.parseInt(value);
+                    break;
+                case "host":
+                    host = value;
+                    break;
+                case "latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "jitter":
+                    jitter = Long.parseLong(value);
+                    break;
+                case "failure-rate":
+                    failureRate = Double.parseDouble(value);
+                    break;
+                case "drop-rate":
+                    dropRate = Double.parseDouble(value);
+                    break;
+                default:
+                    usage(arg);
+                    return;
+            }
+        }
+        
+        final ElsockSimulator simulator = new ElsockSimulator(host);
+        simulator.setLatency(latency);
+        simulator.setJitter(jitter);
+        simulator.setFailureRate(failureRate);
+        simulator.setDropRate(dropRate);
+        
+        final List<SimulatedBoard> added = simulator.addBoards(boards, basePort);
+        
+        for( SimulatedBoard board : added )
+        {
+            System.out.println(board.getAddress());
+        }
+        
+        System.err.println(simulator);
+        
+        // Serve until the JVM is terminated
+        Thread.sleep(Long.MAX_VALUE);
+    }
+    
+    
+    private static void usage(String arg)
+    {
+        System.err.println("Unknown argument: " + arg);
+        System.err.println("Usage: [--boards=N] [--base-port=P] [--host=H] "
+                + "[--latency=us] [--jitter=us] [--failure-rate=R] [--drop-rate=R]");
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.simulator;
+
+import elsockcontroller.api.Device;
+import java.util.List;
+
+/**
+ * The class <code>SimulatedBoard</code> holds the state of a simulated
+ * Elsock-device and executes queries (<code>L&lt;id&gt;=&lt;status&gt;</code>
+ * pairs) on it.
+ *
+ * <p>Devices are addressed by their {@link Device#getId() id};
+ * {@link Device#ALL A} addresses all devices. Status <code>0</code>,
+ * <code>1</code> and <code>t</code> switch off, on or toggle the device,
+ * <code>s</code> changes nothing. Each query is answered with the status
+ * of all devices, eg. <code>0,1,0,0,0,0,0,0,0,1</code>.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class SimulatedBoard
+{
+    private static final List<Device> DEVICES = Device.getDevices();
+    private final String address;
+    private long state;
+    private long queries;
+    
+    
+    SimulatedBoard(String address)
+    {
+        this.address = address;
+        this.state = 0L;
+        this.queries = 0;
+    }
+    
+    
+    
+    /**
+     * Executes the query string (the part after <code>?</code>) and returns
+     * the status line.
+     * 
+     * @param query     Query string, eg. <code>La=1&amp;Lb=t</code>
+     * @return          Status of all devices
+     */
+    public synchronized String execute(String query)
+    {
+        queries++;
+        int i = 0;
+        
+        while( i + 3 < query.length() )
+        {
+            if( query.charAt(i) == 'L' && query.charAt(i + 2) == '=' )
+            {
+                apply(query.charAt(i + 1), query.charAt(i + 3));
+                i += 4;
+            }
+            else
+            {
+                i++;
+            }
+        }
+        
+        return getStatusLine();
+    }
+    
+    
+    /**
+     * Returns the status of all devices.
+     * 
+     * @return      Status line
+     */
+    public synchronized String getStatusLine()
+    {
+        final StringBuilder line = new StringBuilder(DEVICES.size() * 2);
+        
+        for( int i = 0; i < DEVICES.size(); i++ )
+        {
+            if( i > 0 )
+            {
+                line.append(',');
+            }
+            
+            line.append(( state & ( 1L << i ) ) != 0 ? '1' : '0');
+        }
+        
+        return line.toString();
+    }
+    
+    
+    /**
+     * Returns whether device <code>dev</code> is on.
+     * 
+     * @param dev       Device
+     * @return          Returns <tt>true</tt> if on or <tt>false</tt> if off
+     */
+    public synchronized boolean isOn(Device dev)
+    {
+        final int index = DEVICES.indexOf(dev);
+        
+        return index >= 0 && ( state & ( 1L << index ) ) != 0;
+    }
+    
+    
+    /**
+     * Returns the address (<code>host:port</code>) of the board.
+     * 
+     * @return      Address
+     */
+    public String getAddress()
+    {
+        return address;
+    }
+    
+    
+    /**
+     * Returns the number of queries executed.
+     * 
+     * @return      Number of queries
+     */
+    public synchronized long getQueries()
+    {
+        return queries;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "SimulatedBoard{" + "address=" + address
+                + ", status=" + getStatusLine() + '}';
+    }
+    
+    
+    private void apply(char id, char status)
+    {
+        final long mask = mask(id);
+        
+        switch(status)
+        {
+            case '0':
+                state &= ~mask;
+                break;
+            case '1':
+                state |= mask;
+                break;
+            case 't':
+                state ^= mask;
+                break;
+            default:
+                break;
+        }
+    }
+    
+    
+    private static long mask(char id)
+    {
+        if( id == Device.ALL.getId().charAt(0) )
+        {
+            return ( 1L << DEVICES.size() ) - 1;
+        }
+        
+        for( int i = 0; i < DEVICES.size(); i++ )
+        {
+            if( DEVICES.get(i).getId().charAt(0) == id )
+            {
+                return 1L << i;
+            }
+        }
+        
+        return 0L;
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The class <code>AsyncElsockController</code> provides asynchronous access to
+ * Elsock-devices. Each operation returns immediately with a {@link Future}
+ * and optionally notifies a {@link Callback}.
+ *
+ * <p>Operations are executed by an {@link ElsockController}. By default each
+ * operation runs on it's own virtual thread if
+ * {@link VirtualThreads#isSupported() supported}, so thousands of operations
+ * can be in flight on a few carrier threads; otherwise a small pool of
+ * {@link #DEFAULT_THREADS worker threads} is used. Operations exceeding the
+ * {@link #setRequestTimeout(long) request timeout} fail with a
+ * {@link TimeoutException}; {@link Future#cancel(boolean) cancelling} an
+ * operation that has not yet been started prevents it from being sent.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class AsyncElsockController implements Closeable
+{
+    /** Default number of worker threads, if virtual threads are not supported. */
+    public static final int DEFAULT_THREADS = 4;
+    private final ElsockController controller;
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final boolean ownExecutor;
+    private volatile long requestTimeout;
+    
+    
+    public AsyncElsockController(Protocol protocol, String address)
+    {
+        this(new ElsockController(protocol, address));
+    }
+    
+    public AsyncElsockController(ElsockController controller)
+    {
+        this(controller, newDefaultExecutor(), true);
+    }
+    
+    /**
+     * Creates a new controller executing operations on <code>executor</code>.
+     * The executor is not shut down by {@link #close() close()}.
+     * 
+     * @param controller        Controller
+     * @param executor          Executor
+     */
+    public AsyncElsockController(ElsockController controller, ExecutorService executor)
+    {
+        this(controller, executor, false);
+    }
+    
+    private AsyncElsockController(ElsockController controller,
+            ExecutorService executor, boolean ownExecutor)
+    {
+        this.controller = controller;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("async-timer"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.requestTimeout = 0;
+    }
+    
+    
+    
+    /**
+     * Changes the status of the device to <code>status</code>.
+     * 
+     * @param device        Device
+     * @param status        New status
+     * @return              Future
+     * @see                 ElsockController#sendCommand(Device, Status)
+     */
+    public Future<Void> sendCommand(Device device, Status status)
+    {
+        return sendCommand(device, status, null);
+    }
+    
+    
+    /**
+     * Changes the status of the device to <code>status</code>.
+     * 
+     * @param device        Device
+     * @param status        New status
+     * @param callback      Callback or <tt>null</tt>
+     * @return              Future
+     * @see                 ElsockController#sendCommand(Device, Status)
+     */
+    public Future<Void> sendCommand(final Device device, final Status status,
+            Callback<Void> callback)
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws IOException
+            {
+                controller.sendCommand(device, status);
+                return null;
+            }
+        }, callback);
+    }
+    
+    
+    /**
+     * Changes the status of all devices contained in <code>data</code>.
+     * 
+     * @param data          Devices and their new status
+     * @return              Future
+     * @see                 ElsockController#sendCommands(ElsockData)
+     */
+    public Future<Void> sendCommands(ElsockData data)
+    {
+        return sendCommands(data, null);
+    }
+    
+    
+    /**
+     * Changes the status of all devices contained in <code>data</code>.
+     * 
+     * @param data          Devices and their new status
+     * @param callback      Callback or <tt>null</tt>
+     * @return              Future
+     * @see                 ElsockController#sendCommands(ElsockData)
+     */
+    public Future<Void> sendCommands(final ElsockData data, Callback<Void> callback)
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws IOException
+            {
+                controller.sendCommands(data);
+                return null;
+            }
+        }, callback);
+    }
+    
+    
+    /**
+     * Toggles the device.
+     * 
+     * @param device        Device
+     * @return              Future
+     */
+    public Future<Void> sendToggle(Device device)
+    {
+        return sendToggle(device, null);
+    }
+    
+    
+    /**
+     * Toggles the device.
+     * 
+     * @param device        Device
+     * @param callback      Callback or <tt>null</tt>
+     * @return              Future
+     */
+    public Future<Void> sendToggle(Device device, Callback<Void> callback)
+    {
+        return sendCommand(device, Status.TOGGLE, callback);
+    }
+    
+    
+    /**
+     * Toggles all devices.
+     * 
+     * @return      Future
+     */
+    public Future<Void> sendToggleAll()
+    {
+        return sendToggle(Device.ALL, null);
+    }
+    
+    
+    /**
+     * Returns the status information of all devices.
+     * 
+     * @return      Future of the status information
+     * @see         ElsockController#getStatus()
+     */
+    public Future<ElsockData> getStatus()
+    {
+        return getStatus(null);
+    }
+    
+    
+    /**
+     * Returns the status information of all devices.
+     * 
+     * @param callback      Callback or <tt>null</tt>
+     * @return              Future of the status information
+     * @see                 ElsockController#getStatus()
+     */
+    public Future<ElsockData> getStatus(Callback<ElsockData> callback)
+    {
+        return submit(new Callable<ElsockData>()
+        {
+            @Override
+            public ElsockData call() throws IOException
+            {
+                return controller.getStatus();
+            }
+        }, callback);
+    }
+    
+    
+    /**
+     * Returns the underlying (blocking) controller.
+     * 
+     * @return      Controller
+     */
+    public ElsockController getController()
+    {
+        return controller;
+    }
+    
+    
+    /**
+     * Returns the request timeout.
+     * 
+     * @return      Timeout (ms) or <code>0</code> if disabled
+     */
+    public long getRequestTimeout()
+    {
+        return requestTimeout;
+    }
+    
+    
+    /**
+     * Sets the request timeout. Operations not completed within the timeout
+     * fail with a {@link TimeoutException}. The timeout is also passed as
+     * {@link Deadline} to the controller, so a hung host does not block a
+     * worker thread any longer.
+     * 
+     * @param requestTimeout        Timeout (ms) or <code>0</code> to disable
+     * @exception                   IllegalArgumentException If
+     *                              <code>requestTimeout</code> is negative
+     */
+    public void setRequestTimeout(long requestTimeout)
+    {
+        if( requestTimeout < 0 )
+        {
+            throw new IllegalArgumentException("Negative timeout not allowed!");
+        }
+        
+        this.requestTimeout = requestTimeout;
+    }
+    
+    
+    /**
+     * Stops accepting operations and closes the controller. Operations
+     * already submitted are still executed if the executor is owned by this
+     * object.
+     * 
+     * @throws      IOException On a failure closing the controller
+     */
+    @Override
+    public void close() throws IOException
+    {
+        timer.shutdownNow();
+        
+        if( ownExecutor == true )
+        {
+            executor.shutdown();
+        }
+        
+        controller.close();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "AsyncElsockController{" + "controller=" + controller
+                + ", requestTimeout=" + requestTimeout + '}';
+    }
+    
+    
+    private static ExecutorService newDefaultExecutor()
+    {
+        if( VirtualThreads.isSupported() == true )
+        {
+            return VirtualThreads.newExecutor("async-worker");
+        }
+        
+        return Executors.newFixedThreadPool(DEFAULT_THREADS, new DaemonThreadFactory("async-worker"));
+    }
+    
+    
+    /**
+     * Submits the operation.
+     * 
+     * @param <T>           Type of the result
+     * @param operation     Operation
+     * @param callback      Callback or <tt>null</tt>
+     * @return              Future
+     */
+    private <T> Future<T> submit(Callable<T> operation, Callback<T> callback)
+    {
+        final Request<T> request = new Request<>(operation, callback);
+        final long timeout = requestTimeout;
+        
+        if( timeout > 0 )
+        {
+            request.deadline = Deadline.after(timeout, TimeUnit.MILLISECONDS);
+            request.timeoutTask = timer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    request.timeout();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        
+        executor.execute(request);
+        
+        return request;
+    }
+    
+    
+    
+    /**
+     * Pending operation.
+     * 
+     * @param <T>   Type of the result
+     */
+    private static class Request<T> extends FutureTask<T>
+    {
+        private final Callback<T> callback;
+        private volatile Future<?> timeoutTask;
+        private volatile Deadline deadline;
+        
+        
+        Request(Callable<T> operation, Callback<T> callback)
+        {
+            super(operation);
+            this.callback = callback;
+            this.deadline = Deadline.NONE;
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            final Deadline previous = Deadline.enter(deadline);
+            
+            try
+            {
+                super.run();
+            }
+            finally
+            {
+                Deadline.exit(previous);
+            }
+        }
+        
+        
+        void timeout()
+        {
+            setException(new TimeoutException("Request timed out"));
+        }
+        
+        
+        @Override
+        protected void done()
+        {
+            final Future<?> task = timeoutTask;
+            
+            if( task != null )
+            {
+                task.cancel(false);
+            }
+            
+            if( callback == null )
+            {
+                return;
+            }
+            
+            try
+            {
+                callback.completed(get());
+            }
+            catch( ExecutionException ex )
+            {
+                callback.failed(ex.getCause());
+            }
+            catch( CancellationException ex )
+            {
+                callback.failed(ex);
+            }
+            catch( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import elsockcontroller.api.ElsockData.ElsockElement;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>CachingElsockController</code> is a controller that caches
+ * the status information for a configurable time to live.
+ *
+ * <p>While the cached status is valid, {@link #getStatus() getStatus()} is
+ * answered without a request. Concurrent calls on an expired cache are
+ * coalesced into a single request. The status returned by the host with a
+ * command replaces the cached status; without it, successful device
+ * commands are applied to the cached status, while output, group and
+ * sequence commands discard it. A failed command discards the cached
+ * status, as the host may have executed it nevertheless.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class CachingElsockController extends ElsockController
+{
+    /** Default time to live (ms). */
+    public static final long DEFAULT_TTL = 1000;
+    private final Object lock;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong coalesced;
+    private volatile long ttl;
+    private StatusSnapshot cached;
+    private long cachedAt;
+    private long generation;
+    private FutureTask<StatusSnapshot> pending;
+    
+    
+    public CachingElsockController(Protocol protocol, String address)
+    {
+        this(protocol, address, protocol.createTransport(), DEFAULT_TTL);
+    }
+    
+    public CachingElsockController(Protocol protocol, String address,
+            Transport transport, long ttl)
+    {
+        super(protocol, address, transport);
+        
+        if( ttl < 0 )
+        {
+            throw new IllegalArgumentException("Negative ttl not allowed!");
+        }
+        
+        this.ttl = ttl;
+        this.lock = new Object();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.cached = null;
+        this.generation = 0;
+        this.pending = null;
+    }
+    
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>On success the status of the response, or the command, is applied
+     * to the cached status; on failure the cached status is discarded.</p>
+     */
+    @Override
+    public boolean sendCommand(Device device, Status status, StatusSink sink) throws IOException
+    {
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendCommand(device, status, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            invalidate();
+            throw ex;
+        }
+        
+        completed(received, response, new ElsockData(device, status));
+        
+        return received;
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>On success the status of the response, or the commands, are
+     * applied to the cached status; on failure the cached status is
+     * discarded.</p>
+     */
+    @Override
+    public boolean sendCommands(ElsockData data, StatusSink sink) throws IOException
+    {
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendCommands(data, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            invalidate();
+            throw ex;
+        }
+        
+        completed(received, response, data);
+        
+        return received;
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>On success the status of the response replaces the cached status;
+     * otherwise the cached status is discarded.</p>
+     */
+    @Override
+    public boolean sendOutput(int output, Status status, StatusSink sink) throws IOException
+    {
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendOutput(output, status, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            invalidate();
+            throw ex;
+        }
+        
+        completed(received, response, null);
+        
+        return received;
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>On success the status of the response replaces the cached status;
+     * otherwise the cached status is discarded.</p>
+     */
+    @Override
+    public boolean sendGroup(String group, Status status, StatusSink sink) throws IOException
+    {
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendGroup(group, status, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            invalidate();
+            throw ex;
+        }
+        
+        completed(received, response, null);
+        
+        return received;
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The cached status is discarded afterwards, whether the sequence
+     * succeeded or not.</p>
+     */
+    @Override
+    public void sendSequence(List<ElsockData> sequence) throws IOException
+    {
+        try
+        {
+            super.sendSequence(sequence);
+        }
+        finally
+        {
+            invalidate();
+        }
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The cached status is returned if it's still valid.</p>
+     */
+    @Override
+    public ElsockData getStatus() throws IOException
+    {
+        final StatusSnapshot snapshot = getSnapshot();
+        
+        return ( snapshot == null ? null : snapshot.toElsockData() );
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The cached status is returned if it's still valid.</p>
+     */
+    @Override
+    public boolean getStatus(StatusSink sink) throws IOException
+    {
+        final StatusSnapshot snapshot = getSnapshot();
+        
+        if( snapshot == null )
+        {
+            return false;
+        }
+        
+        snapshot.copyTo(sink);
+        
+        return true;
+    }
+    
+    
+    /**
+     * Returns the status information of all devices as snapshot. The cached
+     * status is returned if it's still valid.
+     * 
+     * @return      Status or <tt>null</tt> if there's no / empty response
+     *              data
+     * @throws      IOException On a network failure or timeout
+     */
+    public StatusSnapshot getSnapshot() throws IOException
+    {
+        final FutureTask<StatusSnapshot> task;
+        final long startGeneration;
+        boolean owner = false;
+        
+        synchronized( lock )
+        {
+            if( cached != null && System.nanoTime() - cachedAt < ttl * 1000000L )
+            {
+                hits.incrementAndGet();
+                return cached;
+            }
+            
+            if( pending != null )
+            {
+                coalesced.incrementAndGet();
+                task = pending;
+            }
+            else
+            {
+                misses.incrementAndGet();
+                task = new FutureTask<>(new Callable<StatusSnapshot>()
+                {
+                    @Override
+                    public StatusSnapshot call() throws IOException
+                    {
+                        return fetch();
+                    }
+                });
+                pending = task;
+                owner = true;
+            }
+            
+            startGeneration = generation;
+        }
+        
+        if( owner == true )
+        {
+            task.run();
+        }
+        
+        try
+        {
+            final StatusSnapshot result = task.get();
+            
+            if( owner == true )
+            {
+                update(result, startGeneration);
+            }
+            
+            return result;
+        }
+        catch( ExecutionException ex )
+        {
+            final Throwable cause = ex.getCause();
+            
+            if( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            
+            if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            
+            throw new IOException(cause);
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for status");
+        }
+        finally
+        {
+            if( owner == true )
+            {
+                synchronized( lock )
+                {
+                    pending = null;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Discards the cached status.
+     */
+    public void invalidate()
+    {
+        synchronized( lock )
+        {
+            cached = null;
+            generation++;
+        }
+    }
+    
+    
+    /**
+     * Returns the time to live of the cached status.
+     * 
+     * @return      Time to live (ms)
+     */
+    public long getTtl()
+    {
+        return ttl;
+    }
+    
+    
+    /**
+     * Sets the time to live of the cached status.
+     * 
+     * @param ttl       Time to live (ms); <code>0</code> disables caching but
+     *                  still coalesces concurrent requests
+     * @exception       IllegalArgumentException If <code>ttl</code> is
+     *                  negative
+     */
+    public void setTtl(long ttl)
+    {
+        if( ttl < 0 )
+        {
+            throw new IllegalArgumentException("Negative ttl not allowed!");
+        }
+        
+        this.ttl = ttl;
+    }
+    
+    
+    /**
+     * Returns the number of status requests answered from the cache.
+     * 
+     * @return      Number of hits
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+    
+    
+    /**
+     * Returns the number of status requests sent to the host.
+     * 
+     * @return      Number of misses
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+    
+    
+    /**
+     * Returns the number of status requests that waited for the response of
+     * another one.
+     * 
+     * @return      Number of coalesced requests
+     */
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "CachingElsockController{" + "controller=" + super.toString()
+                + ", ttl=" + ttl + ", hits=" + hits + ", misses=" + misses
+                + ", coalesced=" + coalesced + '}';
+    }
+    
+    
+    /**
+     * Requests the status from the host.
+     * 
+     * @return      Status or <tt>null</tt> on an empty response
+     * @throws      IOException On a network failure or timeout
+     */
+    private StatusSnapshot fetch() throws IOException
+    {
+        final StatusSnapshot.Builder builder = new StatusSnapshot.Builder();
+        
+        return ( super.getStatus(builder) == true ? builder.build() : null );
+    }
+    
+    
+    /**
+     * Caches the fetched status unless a command or invalidation happened
+     * in the meantime.
+     * 
+     * @param snapshot          Status
+     * @param startGeneration   Generation at the start of the request
+     */
+    private void update(StatusSnapshot snapshot, long startGeneration)
+    {
+        synchronized( lock )
+        {
+            if( snapshot != null && generation == startGeneration )
+            {
+                cached = snapshot;
+                cachedAt = System.nanoTime();
+            }
+        }
+    }
+    
+    
+    /**
+     * Caches the status returned by the host for a command, or applies the
+     * commands if the host didn't return the status of all devices.
+     * 
+     * @param received      Whether the host returned status information
+     * @param response      Status information returned
+     * @param data          Commands or <tt>null</tt> if they can't be
+     *                      applied; the cached status is discarded then
+     */
+    private void completed(boolean received, SnapshotSink response, ElsockData data)
+    {
+        final StatusSnapshot snapshot = ( received == true ? response.getSnapshot() : null );
+        
+        if( snapshot == null || snapshot.isComplete() == false )
+        {
+            if( data != null )
+            {
+                apply(data);
+            }
+            else
+            {
+                invalidate();
+            }
+            
+            return;
+        }
+        
+        synchronized( lock )
+        {
+            generation++;
+            cached = snapshot;
+            cachedAt = System.nanoTime();
+        }
+    }
+    
+    
+    /**
+     * Applies the commands to the cached status.
+     * 
+     * @param data      Commands
+     */
+    private void apply(ElsockData data)
+    {
+        synchronized( lock )
+        {
+            generation++;
+            
+            if( cached == null )
+            {
+                return;
+            }
+            
+            StatusSnapshot snapshot = cached;
+            
+            for( ElsockElement element : data.getElements() )
+            {
+                snapshot = snapshot.with(element.getDevice(), element.getStatus());
+            }
+            
+            cached = snapshot;
+        }
+    }
+}
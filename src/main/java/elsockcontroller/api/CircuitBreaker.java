@@ -0,0 +1,384 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>CircuitBreaker</code> protects callers from a failing host.
+ *
+ * <p>After {@link #getFailureThreshold() failure threshold} consecutive
+ * failures the circuit opens and all requests fail immediately with a
+ * {@link CircuitOpenException}. After the {@link #getOpenTime() open time}
+ * the circuit becomes half-open and the host is probed in the background;
+ * a successful probe closes the circuit, a failed one opens it again. No
+ * caller ever waits for a probe. Each probe runs on it's own thread (a
+ * virtual thread if {@link VirtualThreads#isSupported() supported}), so
+ * probes of many failing hosts don't delay each other.</p>
+ *
+ * <p>A circuit breaker is {@link ElsockController#setCircuitBreaker(CircuitBreaker) set}
+ * on a single controller and must not be shared.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class CircuitBreaker
+{
+    /** Default number of consecutive failures opening the circuit. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /** Default time (ms) the circuit stays open before probing. */
+    public static final long DEFAULT_OPEN_TIME = 5000;
+    private static final ScheduledThreadPoolExecutor PROBES;
+    private static final ExecutorService PROBE_RUNNER;
+    private final int failureThreshold;
+    private final long openTime;
+    private final AtomicInteger failures;
+    private final AtomicLong rejected;
+    private volatile State state;
+    private volatile Probe probe;
+    private Future<?> probeTask;
+    
+    static
+    {
+        PROBES = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("breaker-timer"));
+        PROBES.setRemoveOnCancelPolicy(true);
+        PROBE_RUNNER = ( VirtualThreads.isSupported() == true
+                ? VirtualThreads.newExecutor("breaker-probe")
+                : Executors.newCachedThreadPool(new DaemonThreadFactory("breaker-probe")) );
+    }
+    
+    
+    public CircuitBreaker()
+    {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+    }
+    
+    /**
+     * Creates a new circuit breaker.
+     * 
+     * @param failureThreshold      Number of consecutive failures opening
+     *                              the circuit
+     * @param openTime              Time (ms) the circuit stays open before
+     *                              the host is probed; also the deadline of
+     *                              a probe
+     * @exception                   IllegalArgumentException If
+     *                              <code>failureThreshold</code> or
+     *                              <code>openTime</code> is not positive
+     */
+    public CircuitBreaker(int failureThreshold, long openTime)
+    {
+        if( failureThreshold < 1 || openTime < 1 )
+        {
+            throw new IllegalArgumentException("Value must be positive!");
+        }
+        
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.failures = new AtomicInteger();
+        this.rejected = new AtomicLong();
+        this.state = State.CLOSED;
+        this.probe = null;
+        this.probeTask = null;
+    }
+    
+    
+    
+    /**
+     * Returns the state of the circuit.
+     * 
+     * @return      State
+     */
+    public State getState()
+    {
+        return state;
+    }
+    
+    
+    /**
+     * Returns the number of consecutive failures.
+     * 
+     * @return      Number of failures
+     */
+    public int getFailures()
+    {
+        return failures.get();
+    }
+    
+    
+    /**
+     * Returns the number of requests rejected while the circuit was not
+     * closed.
+     * 
+     * @return      Number of rejected requests
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+    
+    
+    /**
+     * Returns the number of consecutive failures opening the circuit.
+     * 
+     * @return      Failure threshold
+     */
+    public int getFailureThreshold()
+    {
+        return failureThreshold;
+    }
+    
+    
+    /**
+     * Returns the time the circuit stays open before the host is probed.
+     * 
+     * @return      Open time (ms)
+     */
+    public long getOpenTime()
+    {
+        return openTime;
+    }
+    
+    
+    /**
+     * Closes the circuit and cancels a scheduled probe.
+     */
+    public synchronized void reset()
+    {
+        cancelProbe();
+        failures.set(0);
+        state = State.CLOSED;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "CircuitBreaker{" + "state=" + state + ", failures=" + failures
+                + ", rejected=" + rejected + '}';
+    }
+    
+    
+    /**
+     * Tests whether a request may be sent; a rejected request is counted.
+     * 
+     * @return      Returns <tt>true</tt> if the circuit is closed or
+     *              <tt>false</tt> otherwise
+     */
+    boolean allowRequest()
+    {
+        if( state == State.CLOSED )
+        {
+            return true;
+        }
+        
+        rejected.incrementAndGet();
+        
+        return false;
+    }
+    
+    
+    /**
+     * Records a successful request.
+     */
+    void recordSuccess()
+    {
+        if( failures.get() != 0 )
+        {
+            failures.set(0);
+        }
+    }
+    
+    
+    /**
+     * Records a failed request; opens the circuit if the threshold is
+     * reached.
+     */
+    void recordFailure()
+    {
+        if( failures.incrementAndGet() >= failureThreshold )
+        {
+            open();
+        }
+    }
+    
+    
+    /**
+     * Binds the probe sent while the circuit is half-open.
+     * 
+     * @param probe     Probe or <tt>null</tt> to unbind
+     */
+    synchronized void bind(Probe probe)
+    {
+        this.probe = probe;
+        
+        if( probe == null )
+        {
+            cancelProbe();
+        }
+    }
+    
+    
+    private synchronized void open()
+    {
+        if( state != State.CLOSED )
+        {
+            return;
+        }
+        
+        state = State.OPEN;
+        scheduleProbe();
+    }
+    
+    
+    private synchronized void scheduleProbe()
+    {
+        if( probe == null )
+        {
+            // Without a probe the circuit closes after the open time
+            probeTask = PROBES.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    reset();
+                }
+            }, openTime, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            probeTask = PROBES.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    PROBE_RUNNER.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            runProbe();
+                        }
+                    });
+                }
+            }, openTime, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    
+    private void cancelProbe()
+    {
+        if( probeTask != null )
+        {
+            probeTask.cancel(false);
+            probeTask = null;
+        }
+    }
+    
+    
+    private void runProbe()
+    {
+        final Probe current = probe;
+        
+        synchronized( this )
+        {
+            if( state != State.OPEN || current == null )
+            {
+                return;
+            }
+            
+            state = State.HALF_OPEN;
+        }
+        
+        final Deadline previous = Deadline.enter(Deadline.after(openTime, TimeUnit.MILLISECONDS));
+        boolean success = false;
+        
+        try
+        {
+            current.probe();
+            success = true;
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            // Host still failing
+        }
+        finally
+        {
+            Deadline.exit(previous);
+        }
+        
+        synchronized( this )
+        {
+            if( state != State.HALF_OPEN )
+            {
+                return;
+            }
+            
+            if( success == true )
+            {
+                failures.set(0);
+                state = State.CLOSED;
+            }
+            else
+            {
+                state = State.OPEN;
+                scheduleProbe();
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * The enum <code>State</code> enumerates the states of a circuit.
+     */
+    public static enum State
+    {
+        /** Requests are sent. */
+        CLOSED,
+        /** Requests fail immediately. */
+        OPEN,
+        /** Requests fail immediately while the host is probed. */
+        HALF_OPEN;
+    }
+    
+    
+    
+    /**
+     * Request probing the host.
+     */
+    static interface Probe
+    {
+        void probe() throws IOException;
+    }
+}
@@ -0,0 +1,932 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import elsockcontroller.api.ElsockData.ElsockElement;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The class <code>CommandJournal</code> is an append-only, memory-mapped
+ * journal of the commands sent by {@link ElsockController controllers}.
+ *
+ * <p>Each command is recorded twice: once before it's sent (intent) and
+ * once with it's outcome; if the host answered with it's status, that is
+ * recorded too. After a restart, the last known status of each host is
+ * {@link #replay() rebuilt} from the journal instead of polling the
+ * hosts. The devices of a command that was in flight during a crash are
+ * unknown then.</p>
+ *
+ * <p>Records are written in a compact binary format. Each is protected by a
+ * checksum chained to the previous one; a record torn by a crash ends the
+ * journal. How records are
+ * forced to disk is set by the {@link SyncPolicy sync policy}. With
+ * {@link SyncPolicy#COMMIT COMMIT}, concurrent commands share a single
+ * sync (group commit).</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class CommandJournal implements Closeable
+{
+    /** Default sync interval (ms) of {@link SyncPolicy#PERIODIC PERIODIC}. */
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+    private static final int MAGIC = 0x454c534a;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final int MAX_RECORD = 1 << 16;
+    private static final byte HOST = 1;
+    private static final byte COMMAND = 2;
+    private static final byte SENT = 0;
+    private static final byte CONFIRMED = 1;
+    private static final byte FAILED = 2;
+    private static final byte INTENT = 3;
+    private static final byte DISCARDED = 4;
+    private static final Map<Character, Device> DEVICES;
+    private static final Map<Character, Status> STATUS;
+    private final File file;
+    private final SyncPolicy policy;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ReentrantLock lock;
+    private final ReentrantLock syncLock;
+    private final Map<String, Integer> hostIds;
+    private final CRC32 crc;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicLong records;
+    private final AtomicLong syncs;
+    private MappedByteBuffer buffer;
+    private ByteBuffer record;
+    private int checksum;
+    private volatile long synced;
+    private boolean closed;
+    
+    static
+    {
+        DEVICES = new HashMap<>();
+        STATUS = new HashMap<>();
+        
+        for( Device dev : Device.values() )
+        {
+            DEVICES.put(dev.getId().charAt(0), dev);
+        }
+        
+        for( Status status : Status.values() )
+        {
+            STATUS.put(status.getId(), status);
+        }
+    }
+    
+    
+    public CommandJournal(File file) throws IOException
+    {
+        this(file, SyncPolicy.PERIODIC, DEFAULT_SYNC_INTERVAL);
+    }
+    
+    /**
+     * Opens the journal; a new one is created if the file doesn't exist.
+     * 
+     * @param file              File
+     * @param policy            Sync policy
+     * @param syncInterval      Sync interval (ms) of
+     *                          {@link SyncPolicy#PERIODIC PERIODIC}
+     * @throws                  IOException If the file can't be opened or
+     *                          is not a journal
+     * @exception               IllegalArgumentException If
+     *                          <code>syncInterval</code> is not positive
+     */
+    public CommandJournal(File file, SyncPolicy policy, long syncInterval) throws IOException
+    {
+        if( syncInterval < 1 )
+        {
+            throw new IllegalArgumentException("Sync interval must be positive!");
+        }
+        
+        this.file = file;
+        this.policy = policy;
+        this.lock = new ReentrantLock();
+        this.syncLock = new ReentrantLock();
+        this.hostIds = new HashMap<>();
+        this.crc = new CRC32();
+        this.record = ByteBuffer.allocate(64);
+        this.checksum = 0;
+        this.records = new AtomicLong();
+        this.syncs = new AtomicLong();
+        this.closed = false;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        
+        try
+        {
+            open();
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+        
+        if( policy == SyncPolicy.PERIODIC )
+        {
+            this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("journal-sync"));
+            this.timer.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        sync(Long.MAX_VALUE);
+                    }
+                    catch( IOException ex )
+                    {
+                        // Retried with the next interval
+                    }
+                }
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            this.timer = null;
+        }
+    }
+    
+    
+    
+    /**
+     * Rebuilds the last known status of each host from the journal.
+     * Commands without a response apply their status; failed commands, and
+     * commands without an outcome, set their devices unknown.
+     * 
+     * @return      Status by host address, in order of first appearance
+     * @throws      IOException If the journal is closed
+     */
+    public Map<String, StatusSnapshot> replay() throws IOException
+    {
+        final ByteBuffer view;
+        
+        lock.lock();
+        
+        try
+        {
+            ensureOpen();
+            view = ((ByteBuffer) buffer).duplicate();
+            ((Buffer) view).limit(buffer.position());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        final Map<String, StatusSnapshot> states = new LinkedHashMap<>();
+        scan(view, new ArrayList<String>(), states, new HashMap<Integer, Intent>(), new int[1]);
+        
+        return states;
+    }
+    
+    
+    /**
+     * Forces all records to disk.
+     * 
+     * @throws      IOException On a failure writing the file
+     */
+    public void sync() throws IOException
+    {
+        sync(Long.MAX_VALUE);
+    }
+    
+    
+    /**
+     * Returns the file.
+     * 
+     * @return      File
+     */
+    public File getFile()
+    {
+        return file;
+    }
+    
+    
+    /**
+     * Returns the sync policy.
+     * 
+     * @return      Sync policy
+     */
+    public SyncPolicy getSyncPolicy()
+    {
+        return policy;
+    }
+    
+    
+    /**
+     * Returns the number of command records, intents and outcomes, written
+     * since the journal was opened.
+     * 
+     * @return      Number of records
+     */
+    public long getRecords()
+    {
+        return records.get();
+    }
+    
+    
+    /**
+     * Returns the number of syncs since the journal was opened.
+     * 
+     * @return      Number of syncs
+     */
+    public long getSyncs()
+    {
+        return syncs.get();
+    }
+    
+    
+    /**
+     * Forces all records to disk and closes the journal.
+     * 
+     * @throws      IOException On a failure writing the file
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if( timer != null )
+        {
+            timer.shutdownNow();
+        }
+        
+        syncLock.lock();
+        lock.lock();
+        
+        try
+        {
+            if( closed == true )
+            {
+                return;
+            }
+            
+            closed = true;
+            buffer.force();
+            raf.close();
+        }
+        finally
+        {
+            lock.unlock();
+            syncLock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "CommandJournal{" + "file=" + file + ", policy=" + policy
+                + ", records=" + records + ", syncs=" + syncs + '}';
+    }
+    
+    
+    /**
+     * Records the commands before they are sent to the host.
+     * 
+     * @param host          Host address
+     * @param commands      Commands; empty for a status request
+     * @return              Id of the intent, passed to
+     *                      {@link #record(String, int, ElsockData, StatusSnapshot, boolean) record()}
+     *                      with the outcome; <code>-1</code> if nothing was
+     *                      recorded
+     * @throws              IOException If the journal is closed or can't
+     *                      be extended
+     */
+    int intent(String host, ElsockData commands) throws IOException
+    {
+        if( commands.isEmpty() == true )
+        {
+            return -1;
+        }
+        
+        return write(host, INTENT, -1, commands, null);
+    }
+    
+    
+    /**
+     * Records the outcome of the commands sent to the host.
+     * 
+     * @param host          Host address
+     * @param intent        Id of the intent or <code>-1</code> if none
+     * @param commands      Commands; empty for a status request
+     * @param status        Status of the response or <tt>null</tt> if none
+     * @param failed        Whether the request failed
+     * @throws              IOException If the journal is closed or can't
+     *                      be extended
+     */
+    void record(String host, int intent, ElsockData commands, StatusSnapshot status, boolean failed)
+            throws IOException
+    {
+        if( commands.isEmpty() == true && status == null )
+        {
+            return;
+        }
+        
+        final byte outcome;
+        
+        if( failed == true )
+        {
+            outcome = FAILED;
+        }
+        else if( status != null )
+        {
+            outcome = CONFIRMED;
+        }
+        else
+        {
+            outcome = SENT;
+        }
+        
+        write(host, outcome, intent, commands, status);
+    }
+    
+    
+    /**
+     * Records that the commands of an intent were not sent to the host.
+     * 
+     * @param host          Host address
+     * @param intent        Id of the intent or <code>-1</code> if none
+     * @throws              IOException If the journal is closed or can't
+     *                      be extended
+     */
+    void discard(String host, int intent) throws IOException
+    {
+        if( intent >= 0 )
+        {
+            write(host, DISCARDED, intent, ImmutableElsockData.EMPTY, null);
+        }
+    }
+    
+    
+    /**
+     * Appends a command record and forces it to disk if required by the
+     * sync policy.
+     * 
+     * @param host          Host address
+     * @param outcome       Outcome
+     * @param intent        Id of the intent or <code>-1</code> if none
+     * @param commands      Commands
+     * @param status        Status of the response or <tt>null</tt> if none
+     * @return              Start of the record
+     * @throws              IOException If the journal is closed or can't
+     *                      be extended
+     */
+    private int write(String host, byte outcome, int intent, ElsockData commands,
+            StatusSnapshot status) throws IOException
+    {
+        final List<ElsockElement> elements = commands.getElements();
+        final int start;
+        final long end;
+        
+        lock.lock();
+        
+        try
+        {
+            ensureOpen();
+            
+            final int hostId = hostId(host);
+            begin(COMMAND, 36 + 2 * elements.size());
+            record.putInt(hostId);
+            record.putLong(System.currentTimeMillis());
+            record.put(outcome);
+            record.putInt(intent);
+            
+            if( outcome == CONFIRMED )
+            {
+                record.putLong(status.getOnMask());
+                record.putLong(status.getKnownMask());
+            }
+            
+            record.putShort((short) elements.size());
+            
+            for( ElsockElement element : elements )
+            {
+                record.put((byte) element.getDevice().getId().charAt(0));
+                record.put((byte) element.getStatus().getId());
+            }
+            
+            start = buffer.position();
+            end = append();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        records.incrementAndGet();
+        
+        if( policy == SyncPolicy.COMMIT )
+        {
+            sync(end);
+        }
+        
+        return start;
+    }
+    
+    
+    /**
+     * Reads the journal, or creates it.
+     * 
+     * @throws      IOException If the file is not a journal
+     */
+    private void open() throws IOException
+    {
+        final boolean created = ( raf.length() == 0 );
+        
+        if( raf.length() < INITIAL_SIZE )
+        {
+            raf.setLength(INITIAL_SIZE);
+        }
+        
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        
+        if( created == true )
+        {
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.force();
+        }
+        else if( buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION )
+        {
+            throw new IOException("Not a command journal: " + file);
+        }
+        
+        final List<String> hosts = new ArrayList<>();
+        final int[] last = new int[1];
+        final int end = scan(((ByteBuffer) buffer).duplicate(), hosts, null, null, last);
+        
+        for( int i = 0; i < hosts.size(); i++ )
+        {
+            hostIds.put(hosts.get(i), i);
+        }
+        
+        ((Buffer) buffer).position(end);
+        checksum = last[0];
+        synced = end;
+    }
+    
+    
+    /**
+     * Reads all valid records.
+     * 
+     * @param view      View of the journal
+     * @param hosts     Hosts by id, filled from the records
+     * @param states    Status by host, filled from the records; may be
+     *                  <tt>null</tt>
+     * @param intents   Intents without an outcome by id; may be
+     *                  <tt>null</tt> if <code>states</code> is
+     * @param last      Receives the checksum of the last valid record
+     * @return          End of the last valid record
+     */
+    private static int scan(ByteBuffer view, List<String> hosts,
+            Map<String, StatusSnapshot> states, Map<Integer, Intent> intents, int[] last)
+    {
+        final CRC32 crc = new CRC32();
+        byte[] data = new byte[256];
+        int previous = 0;
+        int pos = HEADER_SIZE;
+        
+        while( pos + 4 <= view.limit() )
+        {
+            final int length = view.getInt(pos);
+            
+            if( length <= 0 || length > MAX_RECORD || pos + 8 + length > view.limit() )
+            {
+                break;
+            }
+            
+            if( length > data.length )
+            {
+                data = new byte[length];
+            }
+            
+            ((Buffer) view).position(pos + 4);
+            view.get(data, 0, length);
+            final int expected = checksum(crc, previous, data, length);
+            
+            if( expected != view.getInt(pos + 4 + length) )
+            {
+                break;
+            }
+            
+            previous = expected;
+            
+            final ByteBuffer in = ByteBuffer.wrap(data, 0, length);
+            final byte type = in.get();
+            
+            if( type == HOST )
+            {
+                final int id = in.getInt();
+                final String name = new String(data, in.position(), in.remaining(), StandardCharsets.UTF_8);
+                
+                if( id == hosts.size() )
+                {
+                    hosts.add(name);
+                }
+            }
+            else if( type == COMMAND && states != null )
+            {
+                replay(in, pos, hosts, states, intents);
+            }
+            
+            pos += 8 + length;
+        }
+        
+        if( states != null )
+        {
+            // Commands in flight when the journal ended
+            for( Intent pending : intents.values() )
+            {
+                states.put(pending.host, pending.apply(states.get(pending.host)));
+            }
+        }
+        
+        last[0] = previous;
+        
+        return pos;
+    }
+    
+    
+    /**
+     * Applies a command record to the status of it's host. Intents are
+     * applied by their outcome; the devices of an intent without one are
+     * unknown.
+     * 
+     * @param in            Record, after the type
+     * @param pos           Start of the record
+     * @param hosts         Hosts by id
+     * @param states        Status by host
+     * @param intents       Intents without an outcome by id
+     */
+    private static void replay(ByteBuffer in, int pos, List<String> hosts,
+            Map<String, StatusSnapshot> states, Map<Integer, Intent> intents)
+    {
+        final int hostId = in.getInt();
+        
+        if( hostId < 0 || hostId >= hosts.size() )
+        {
+            return;
+        }
+        
+        final String host = hosts.get(hostId);
+        in.getLong();
+        final byte outcome = in.get();
+        final int intent = in.getInt();
+        StatusSnapshot state = states.get(host);
+        
+        if( state == null )
+        {
+            state = StatusSnapshot.UNKNOWN;
+        }
+        
+        if( intent >= 0 )
+        {
+            intents.remove(intent);
+        }
+        
+        if( outcome == DISCARDED )
+        {
+            return;
+        }
+        
+        if( outcome == CONFIRMED )
+        {
+            final long on = in.getLong();
+            final long known = in.getLong();
+            state = StatusSnapshot.of(on, known);
+            
+            // Commands still in flight may have changed the status since
+            for( Intent pending : intents.values() )
+            {
+                if( pending.host.equals(host) == true )
+                {
+                    state = pending.apply(state);
+                }
+            }
+            
+            states.put(host, state);
+            return;
+        }
+        
+        final int count = in.getShort();
+        final List<Device> devices = new ArrayList<>();
+        
+        for( int i = 0; i < count; i++ )
+        {
+            final Device dev = DEVICES.get((char) in.get());
+            final Status status = STATUS.get((char) in.get());
+            
+            if( dev == null || status == null )
+            {
+                continue;
+            }
+            
+            if( outcome == INTENT )
+            {
+                devices.add(dev);
+            }
+            else
+            {
+                state = state.with(dev, ( outcome == FAILED ? Status.UNKNOWN : status ));
+            }
+        }
+        
+        if( outcome == INTENT )
+        {
+            intents.put(pos, new Intent(host, devices));
+        }
+        
+        states.put(host, state);
+    }
+    
+    
+    /**
+     * Returns the id of the host; a new host is recorded first. Must be
+     * called with the lock held.
+     * 
+     * @param host      Host address
+     * @return          Id
+     * @throws          IOException If the journal can't be extended
+     */
+    private int hostId(String host) throws IOException
+    {
+        final Integer id = hostIds.get(host);
+        
+        if( id != null )
+        {
+            return id;
+        }
+        
+        final byte[] name = host.getBytes(StandardCharsets.UTF_8);
+        final int newId = hostIds.size();
+        begin(HOST, 8 + name.length);
+        record.putInt(newId);
+        record.put(name);
+        append();
+        hostIds.put(host, newId);
+        
+        return newId;
+    }
+    
+    
+    /**
+     * Starts a new record.
+     * 
+     * @param type      Type of the record
+     * @param size      Maximum size of the record
+     * @exception       IllegalArgumentException If the record is too large
+     */
+    private void begin(byte type, int size)
+    {
+        if( size > MAX_RECORD )
+        {
+            throw new IllegalArgumentException("Record too large: " + size);
+        }
+        
+        if( record.capacity() < size )
+        {
+            record = ByteBuffer.allocate(size);
+        }
+        
+        ((Buffer) record).clear();
+        record.put(type);
+    }
+    
+    
+    /**
+     * Returns the checksum of a record, chained to the previous one.
+     * 
+     * @param crc           Checksum calculator
+     * @param previous      Checksum of the previous record
+     * @param data          Record
+     * @param length        Length of the record
+     * @return              Checksum
+     */
+    private static int checksum(CRC32 crc, int previous, byte[] data, int length)
+    {
+        crc.reset();
+        crc.update(previous >>> 24);
+        crc.update(previous >>> 16);
+        crc.update(previous >>> 8);
+        crc.update(previous);
+        crc.update(data, 0, length);
+        
+        return (int) crc.getValue();
+    }
+    
+    
+    /**
+     * Appends the record to the journal; must be called with the lock held.
+     * 
+     * @return      End of the record
+     * @throws      IOException If the journal can't be extended
+     */
+    private long append() throws IOException
+    {
+        final int length = record.position();
+        
+        // Keeps room for the terminating zero length
+        if( buffer.remaining() < length + 12 )
+        {
+            grow();
+        }
+        
+        checksum = checksum(crc, checksum, record.array(), length);
+        final int start = buffer.position();
+        ((Buffer) buffer).position(start + 4);
+        buffer.put(record.array(), 0, length);
+        buffer.putInt(checksum);
+        // The length is written last, so a partial record is never valid
+        buffer.putInt(start, length);
+        ((Buffer) buffer).position(start + 4 + length + 4);
+        
+        return buffer.position();
+    }
+    
+    
+    /**
+     * Doubles the size of the journal; must be called with the lock held.
+     * 
+     * @throws      IOException If the file can't be extended
+     */
+    private void grow() throws IOException
+    {
+        final int position = buffer.position();
+        final long size = (long) buffer.capacity() * 2;
+        
+        if( size > Integer.MAX_VALUE )
+        {
+            throw new IOException("Journal full: " + file);
+        }
+        
+        buffer.force();
+        synced = position;
+        raf.setLength(size);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        ((Buffer) buffer).position(position);
+    }
+    
+    
+    /**
+     * Forces the records up to <code>end</code> to disk. Records appended
+     * until the sync starts are forced too, so concurrent callers share a
+     * single sync.
+     * 
+     * @param end       End of the last record to force
+     * @throws          IOException If the journal is closed
+     */
+    private void sync(long end) throws IOException
+    {
+        if( synced >= end )
+        {
+            return;
+        }
+        
+        syncLock.lock();
+        
+        try
+        {
+            if( synced >= end )
+            {
+                return;
+            }
+            
+            final MappedByteBuffer current;
+            final int position;
+            
+            lock.lock();
+            
+            try
+            {
+                ensureOpen();
+                current = buffer;
+                position = buffer.position();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            
+            if( position > synced )
+            {
+                current.force();
+                syncs.incrementAndGet();
+                synced = position;
+            }
+        }
+        finally
+        {
+            syncLock.unlock();
+        }
+    }
+    
+    
+    private void ensureOpen() throws IOException
+    {
+        if( closed == true )
+        {
+            throw new IOException("Journal closed: " + file);
+        }
+    }
+    
+    
+    
+    /**
+     * The class <code>Intent</code> is a command without an outcome read
+     * while replaying.
+     */
+    private static class Intent
+    {
+        private final String host;
+        private final List<Device> devices;
+        
+        
+        Intent(String host, List<Device> devices)
+        {
+            this.host = host;
+            this.devices = devices;
+        }
+        
+        
+        
+        /**
+         * Sets the devices of the command unknown.
+         * 
+         * @param state     Status
+         * @return          Status with the devices unknown
+         */
+        StatusSnapshot apply(StatusSnapshot state)
+        {
+            StatusSnapshot result = state;
+            
+            for( Device dev : devices )
+            {
+                result = result.with(dev, Status.UNKNOWN);
+            }
+            
+            return result;
+        }
+    }
+    
+    
+    
+    /**
+     * The enum <code>SyncPolicy</code> enumerates when records are forced to
+     * disk.
+     */
+    public static enum SyncPolicy
+    {
+        /** Records are written by the operating system; lost on a system crash. */
+        NONE,
+        /** Records are forced periodically by a background thread. */
+        PERIODIC,
+        /** Each command waits until it's record is forced; concurrent commands are forced together. */
+        COMMIT;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+/**
+ * The class <code>CommandMasks</code> collapses commands into bitmasks, so
+ * any number of commands results in at most one element per device and
+ * status.
+ *
+ * <p>The last {@link Status#ON ON} / {@link Status#OFF OFF} of a device
+ * wins and a {@link Status#TOGGLE TOGGLE} inverts the pending status (two
+ * toggles cancel each other out). The class is not thread-safe.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class CommandMasks
+{
+    private long setMask;
+    private long onMask;
+    private long toggleMask;
+    
+    
+    CommandMasks()
+    {
+        clear();
+    }
+    
+    
+    
+    /**
+     * Adds the command changing the status of the device to
+     * <code>status</code>.
+     * 
+     * @param device        Device
+     * @param status        New status (<code>ON</code>, <code>OFF</code> or
+     *                      <code>TOGGLE</code>)
+     * @exception           IllegalArgumentException If <code>status</code>
+     *                      is not supported
+     */
+    void add(Device device, Status status)
+    {
+        final long bits = StatusSnapshot.mask(device);
+        
+        switch(status)
+        {
+            case ON:
+                setMask |= bits;
+                onMask |= bits;
+                toggleMask &= ~bits;
+                break;
+            case OFF:
+                setMask |= bits;
+                onMask &= ~bits;
+                toggleMask &= ~bits;
+                break;
+            case TOGGLE:
+                // Invert a pending status, otherwise toggle the toggle
+                onMask ^= ( bits & setMask );
+                toggleMask ^= ( bits & ~setMask );
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported status: " + status);
+        }
+    }
+    
+    
+    /**
+     * Adds all commands of <code>data</code>, in order.
+     * 
+     * @param data          Commands
+     * @exception           IllegalArgumentException If a status is not
+     *                      supported
+     */
+    void addAll(ElsockData data)
+    {
+        for( ElsockData.ElsockElement element : data.getElements() )
+        {
+            add(element.getDevice(), element.getStatus());
+        }
+    }
+    
+    
+    /**
+     * Returns whether there are no commands or all cancelled each other out.
+     * 
+     * @return      Returns <tt>true</tt> if empty or <tt>false</tt>
+     *              otherwise
+     */
+    boolean isEmpty()
+    {
+        return ( setMask | toggleMask ) == 0L;
+    }
+    
+    
+    /**
+     * Removes all commands.
+     */
+    void clear()
+    {
+        setMask = 0L;
+        onMask = 0L;
+        toggleMask = 0L;
+    }
+    
+    
+    /**
+     * Converts the commands to data; commands for all devices are sent as
+     * group.
+     * 
+     * @return      Data
+     */
+    ElsockData toElsockData()
+    {
+        final ElsockData data = new ElsockData();
+        insert(data, setMask & onMask, Status.ON);
+        insert(data, setMask & ~onMask, Status.OFF);
+        insert(data, toggleMask, Status.TOGGLE);
+        
+        return data;
+    }
+    
+    
+    private static void insert(ElsockData data, long mask, Status status)
+    {
+        if( mask == 0L )
+        {
+            return;
+        }
+        
+        if( mask == StatusSnapshot.mask(Device.ALL) )
+        {
+            data.insert(Device.ALL, status);
+            return;
+        }
+        
+        for( Device dev : StatusSnapshot.devices(mask) )
+        {
+            data.insert(dev, status);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>CommandQueue</code> combines commands to a host into as few
+ * requests as possible.
+ *
+ * <p>Submitted commands are kept for the {@link #getLinger() linger time}
+ * and sent together with a single request; the queue is flushed earlier
+ * once {@link #getMaxBatch() max. batch} commands are pending. Pending
+ * commands of the same device are collapsed: the last
+ * {@link Status#ON ON} / {@link Status#OFF OFF} wins and a
+ * {@link Status#TOGGLE TOGGLE} inverts the pending status (two toggles
+ * cancel each other out).</p>
+ *
+ * <p>Requests are sent one after the other by a single thread, so the host
+ * receives the commands in order. Each command has it's own {@link Future};
+ * all commands of a request share the outcome.
+ * {@link Future#cancel(boolean) Cancelling} a command before it's request is
+ * sent leaves it out of the request, without affecting other commands.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class CommandQueue implements Closeable
+{
+    /** Default linger time (ms). */
+    public static final long DEFAULT_LINGER = 5;
+    /** Default number of commands flushed at once. */
+    public static final int DEFAULT_MAX_BATCH = 32;
+    private static final Runnable NOTHING = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            // Completed by the queue
+        }
+    };
+    private final ElsockController controller;
+    private final ScheduledThreadPoolExecutor timer;
+    private final long linger;
+    private final int maxBatch;
+    private final AtomicLong submitted;
+    private final AtomicLong requests;
+    private final Runnable flushTask;
+    private final CommandMasks commands;
+    private List<Command> pending;
+    private Future<?> lingerTask;
+    private boolean closed;
+    
+    
+    public CommandQueue(ElsockController controller)
+    {
+        this(controller, DEFAULT_LINGER, DEFAULT_MAX_BATCH);
+    }
+    
+    /**
+     * Creates a new queue.
+     * 
+     * @param controller        Controller of the host
+     * @param linger            Time (ms) commands are kept before they're
+     *                          sent
+     * @param maxBatch          Number of submitted commands flushing the
+     *                          queue immediately
+     * @exception               IllegalArgumentException If
+     *                          <code>linger</code> is negative or
+     *                          <code>maxBatch</code> is not positive
+     */
+    public CommandQueue(ElsockController controller, long linger, int maxBatch)
+    {
+        if( linger < 0 )
+        {
+            throw new IllegalArgumentException("Negative linger not allowed!");
+        }
+        
+        if( maxBatch < 1 )
+        {
+            throw new IllegalArgumentException("Batch size must be positive!");
+        }
+        
+        this.controller = controller;
+        this.linger = linger;
+        this.maxBatch = maxBatch;
+        this.commands = new CommandMasks();
+        this.submitted = new AtomicLong();
+        this.requests = new AtomicLong();
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("command-queue"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.flushTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        };
+        this.pending = null;
+        this.lingerTask = null;
+        this.closed = false;
+    }
+    
+    
+    
+    /**
+     * Submits the command changing the status of the device to
+     * <code>status</code>.
+     * 
+     * @param device        Device
+     * @param status        New status (<code>ON</code>, <code>OFF</code> or
+     *                      <code>TOGGLE</code>)
+     * @return              Future of the request containing the command
+     * @see                 ElsockController#sendCommand(Device, Status)
+     */
+    public Future<Void> submit(Device device, Status status)
+    {
+        return submit(device, status, null);
+    }
+    
+    
+    /**
+     * Submits the command changing the status of the device to
+     * <code>status</code>.
+     * 
+     * @param device        Device
+     * @param status        New status (<code>ON</code>, <code>OFF</code> or
+     *                      <code>TOGGLE</code>)
+     * @param callback      Callback or <tt>null</tt>
+     * @return              Future of the request containing the command
+     * @exception           IllegalArgumentException If <code>status</code>
+     *                      is not supported
+     * @exception           IllegalStateException If the queue is closed
+     */
+    public synchronized Future<Void> submit(Device device, Status status,
+            Callback<Void> callback)
+    {
+        if( closed == true )
+        {
+            throw new IllegalStateException("Queue closed!");
+        }
+        
+        if( status != Status.ON && status != Status.OFF && status != Status.TOGGLE )
+        {
+            throw new IllegalArgumentException("Unsupported status: " + status);
+        }
+        
+        final Command command = new Command(device, status, callback);
+        submitted.incrementAndGet();
+        
+        if( pending == null )
+        {
+            pending = new ArrayList<>();
+            lingerTask = timer.schedule(flushTask, linger, TimeUnit.MILLISECONDS);
+        }
+        
+        pending.add(command);
+        
+        if( pending.size() >= maxBatch && lingerTask != null )
+        {
+            lingerTask.cancel(false);
+            lingerTask = null;
+            timer.execute(flushTask);
+        }
+        
+        return command;
+    }
+    
+    
+    /**
+     * Returns the controller of the host.
+     * 
+     * @return      Controller
+     */
+    public ElsockController getController()
+    {
+        return controller;
+    }
+    
+    
+    /**
+     * Returns the time commands are kept before they're sent.
+     * 
+     * @return      Linger time (ms)
+     */
+    public long getLinger()
+    {
+        return linger;
+    }
+    
+    
+    /**
+     * Returns the number of submitted commands flushing the queue
+     * immediately.
+     * 
+     * @return      Batch size
+     */
+    public int getMaxBatch()
+    {
+        return maxBatch;
+    }
+    
+    
+    /**
+     * Returns the number of submitted commands.
+     * 
+     * @return      Number of commands
+     */
+    public long getSubmitted()
+    {
+        return submitted.get();
+    }
+    
+    
+    /**
+     * Returns the number of requests sent.
+     * 
+     * @return      Number of requests
+     */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+    
+    
+    /**
+     * Sends all pending commands and stops the queue. The controller is not
+     * closed.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if( closed == true )
+        {
+            return;
+        }
+        
+        closed = true;
+        
+        if( lingerTask != null )
+        {
+            lingerTask.cancel(false);
+            lingerTask = null;
+            timer.execute(flushTask);
+        }
+        
+        timer.shutdown();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "CommandQueue{" + "address=" + controller.getAddress()
+                + ", linger=" + linger + ", maxBatch=" + maxBatch
+                + ", submitted=" + submitted + ", requests=" + requests + '}';
+    }
+    
+    
+    /**
+     * Takes the pending commands, except cancelled ones, and sends them;
+     * nothing is sent if all commands cancelled each other out.
+     */
+    private void flush()
+    {
+        final List<Command> batch;
+        final ElsockData data;
+        
+        synchronized( this )
+        {
+            if( pending == null )
+            {
+                return;
+            }
+            
+            batch = pending;
+            pending = null;
+            lingerTask = null;
+            commands.clear();
+            
+            for( Command command : batch )
+            {
+                command.taken = true;
+                
+                if( command.isCancelled() == false )
+                {
+                    commands.add(command.device, command.status);
+                }
+            }
+            
+            data = commands.toElsockData();
+        }
+        
+        Exception failure = null;
+        
+        try
+        {
+            if( data.isEmpty() == false )
+            {
+                requests.incrementAndGet();
+                controller.sendCommands(data);
+            }
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            failure = ex;
+        }
+        
+        for( Command command : batch )
+        {
+            command.finish(failure);
+        }
+    }
+    
+    
+    
+    /**
+     * Submitted command, completed with the outcome of it's request.
+     */
+    private class Command extends FutureTask<Void>
+    {
+        private final Device device;
+        private final Status status;
+        private final Callback<Void> callback;
+        private boolean taken;
+        
+        
+        Command(Device device, Status status, Callback<Void> callback)
+        {
+            super(NOTHING, null);
+            this.device = device;
+            this.status = status;
+            this.callback = callback;
+            this.taken = false;
+        }
+        
+        
+        /**
+         * Does nothing; the command is sent by the queue.
+         */
+        @Override
+        public void run()
+        {
+            // Completed by the queue
+        }
+        
+        
+        /**
+         * Cancels the command unless it's request is already sent.
+         * 
+         * @param mayInterruptIfRunning     Ignored
+         * @return                          Returns <tt>true</tt> if
+         *                                  cancelled or <tt>false</tt> if
+         *                                  already sent
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            synchronized( CommandQueue.this )
+            {
+                if( taken == true )
+                {
+                    return false;
+                }
+                
+                return super.cancel(false);
+            }
+        }
+        
+        
+        void finish(Exception failure)
+        {
+            if( failure == null )
+            {
+                set(null);
+            }
+            else
+            {
+                setException(failure);
+            }
+        }
+        
+        
+        @Override
+        protected void done()
+        {
+            if( callback == null )
+            {
+                return;
+            }
+            
+            try
+            {
+                callback.completed(get());
+            }
+            catch( ExecutionException ex )
+            {
+                callback.failed(ex.getCause());
+            }
+            catch( CancellationException ex )
+            {
+                callback.failed(ex);
+            }
+            catch( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
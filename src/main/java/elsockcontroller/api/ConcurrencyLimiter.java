@@ -0,0 +1,430 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class <code>ConcurrencyLimiter</code> limits the concurrent requests
+ * and the request rate of a single host.
+ *
+ * <p>The concurrency limit adapts to the capacity of the host (AIMD): it
+ * grows by one per limit's worth of fast, successful requests while the
+ * limit is used, is reduced by 10% if the latency exceeds twice the
+ * {@link #getBaseline() baseline latency} and is halved on a failure. It
+ * starts at one and stays between one and the
+ * {@link #getMaxLimit() max. limit}. The baseline follows the lowest
+ * latency observed and drifts slowly towards higher ones.</p>
+ *
+ * <p>Requests beyond the limit or {@link #getMaxRate() max. rate} wait in
+ * a queue of {@link #getMaxQueue() max. queue} requests for at most the
+ * {@link #getMaxWait() max. wait} time, further limited by the
+ * {@link Deadline#current() deadline} of the calling thread. Rejected
+ * requests fail with a {@link LimitExceededException}.</p>
+ *
+ * <p>A limiter is {@link ElsockController#setLimiter(ConcurrencyLimiter) set}
+ * on the controllers of a host; controllers of the same host may share
+ * it.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class ConcurrencyLimiter
+{
+    /** Default maximum concurrency limit. */
+    public static final int DEFAULT_MAX_LIMIT = 8;
+    /** Default maximum number of waiting requests. */
+    public static final int DEFAULT_MAX_QUEUE = 64;
+    /** Default maximum wait time (ms). */
+    public static final long DEFAULT_MAX_WAIT = 5000;
+    private static final double TOLERANCE = 2.0;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double FAILURE_BACKOFF = 0.5;
+    private static final int DRIFT = 256;
+    private final int maxLimit;
+    private final double maxRate;
+    private final int maxQueue;
+    private final long maxWait;
+    private final ReentrantLock lock;
+    private final Condition available;
+    private final AtomicLong rejected;
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long baseline;
+    private double tokens;
+    private long refilled;
+    
+    
+    public ConcurrencyLimiter()
+    {
+        this(DEFAULT_MAX_LIMIT, 0.0, DEFAULT_MAX_QUEUE, DEFAULT_MAX_WAIT);
+    }
+    
+    /**
+     * Creates a new limiter.
+     * 
+     * @param maxLimit      Maximum concurrency limit
+     * @param maxRate       Maximum requests per second or <code>0</code> for
+     *                      no rate limit; up to one second's worth of
+     *                      requests may be sent in a burst
+     * @param maxQueue      Maximum number of waiting requests or
+     *                      <code>0</code> to reject instead of waiting
+     * @param maxWait       Maximum wait time (ms)
+     * @exception           IllegalArgumentException If
+     *                      <code>maxLimit</code> is not positive or another
+     *                      value is negative
+     */
+    public ConcurrencyLimiter(int maxLimit, double maxRate, int maxQueue, long maxWait)
+    {
+        if( maxLimit < 1 )
+        {
+            throw new IllegalArgumentException("Limit must be positive!");
+        }
+        
+        if( maxRate < 0.0 || maxQueue < 0 || maxWait < 0 )
+        {
+            throw new IllegalArgumentException("Negative value not allowed!");
+        }
+        
+        this.maxLimit = maxLimit;
+        this.maxRate = maxRate;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.lock = new ReentrantLock();
+        this.available = lock.newCondition();
+        this.rejected = new AtomicLong();
+        this.limit = 1.0;
+        this.inFlight = 0;
+        this.queued = 0;
+        this.baseline = Long.MAX_VALUE;
+        this.tokens = Math.max(1.0, maxRate);
+        this.refilled = System.nanoTime();
+    }
+    
+    
+    
+    /**
+     * Returns the current concurrency limit.
+     * 
+     * @return      Limit
+     */
+    public int getLimit()
+    {
+        lock.lock();
+        
+        try
+        {
+            return (int) limit;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the number of requests in flight.
+     * 
+     * @return      Number of requests
+     */
+    public int getInFlight()
+    {
+        lock.lock();
+        
+        try
+        {
+            return inFlight;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the number of waiting requests.
+     * 
+     * @return      Number of requests
+     */
+    public int getQueued()
+    {
+        lock.lock();
+        
+        try
+        {
+            return queued;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the baseline latency the latency of requests is compared to.
+     * 
+     * @return      Latency (ns) or <code>-1</code> if there was no
+     *              successful request yet
+     */
+    public long getBaseline()
+    {
+        lock.lock();
+        
+        try
+        {
+            return ( baseline == Long.MAX_VALUE ? -1L : baseline );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the number of rejected requests.
+     * 
+     * @return      Number of rejected requests
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+    
+    
+    /**
+     * Returns the maximum concurrency limit.
+     * 
+     * @return      Maximum limit
+     */
+    public int getMaxLimit()
+    {
+        return maxLimit;
+    }
+    
+    
+    /**
+     * Returns the maximum request rate.
+     * 
+     * @return      Requests per second or <code>0</code> if not limited
+     */
+    public double getMaxRate()
+    {
+        return maxRate;
+    }
+    
+    
+    /**
+     * Returns the maximum number of waiting requests.
+     * 
+     * @return      Maximum queue size
+     */
+    public int getMaxQueue()
+    {
+        return maxQueue;
+    }
+    
+    
+    /**
+     * Returns the maximum time a request waits.
+     * 
+     * @return      Maximum wait time (ms)
+     */
+    public long getMaxWait()
+    {
+        return maxWait;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "ConcurrencyLimiter{" + "limit=" + getLimit() + ", inFlight=" + getInFlight()
+                + ", queued=" + getQueued() + ", rejected=" + rejected + '}';
+    }
+    
+    
+    /**
+     * Waits until a request may be sent; a rejected request is counted.
+     * Each acquired request must be {@link #release(long, boolean) released}.
+     * 
+     * @return      Returns <tt>true</tt> if acquired or <tt>false</tt> if
+     *              rejected
+     * @throws      InterruptedIOException If interrupted while waiting
+     */
+    boolean acquire() throws InterruptedIOException
+    {
+        lock.lock();
+        
+        try
+        {
+            if( queued == 0 && tryAcquire(System.nanoTime()) == 0L )
+            {
+                return true;
+            }
+            
+            if( queued >= maxQueue )
+            {
+                rejected.incrementAndGet();
+                return false;
+            }
+            
+            final long wait = Math.min(TimeUnit.MILLISECONDS.toNanos(maxWait),
+                    Deadline.current().remaining(TimeUnit.NANOSECONDS));
+            final long end = System.nanoTime() + wait;
+            queued++;
+            
+            try
+            {
+                while( true )
+                {
+                    final long now = System.nanoTime();
+                    final long delay = tryAcquire(now);
+                    
+                    if( delay == 0L )
+                    {
+                        return true;
+                    }
+                    
+                    final long remaining = end - now;
+                    
+                    if( remaining <= 0L )
+                    {
+                        rejected.incrementAndGet();
+                        return false;
+                    }
+                    
+                    available.awaitNanos(Math.min(delay, remaining));
+                }
+            }
+            catch( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for limiter");
+            }
+            finally
+            {
+                queued--;
+                
+                if( inFlight < (int) limit )
+                {
+                    available.signal();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Releases an acquired request and adapts the limit to it's outcome.
+     * 
+     * @param nanos         Latency (ns)
+     * @param success       Whether the request succeeded
+     */
+    void release(long nanos, boolean success)
+    {
+        lock.lock();
+        
+        try
+        {
+            final boolean used = ( inFlight >= (int) limit );
+            inFlight--;
+            
+            if( success == false )
+            {
+                limit = Math.max(1.0, limit * FAILURE_BACKOFF);
+            }
+            else if( baseline != Long.MAX_VALUE && nanos > baseline * TOLERANCE )
+            {
+                limit = Math.max(1.0, limit * LATENCY_BACKOFF);
+                baseline += ( nanos - baseline ) / DRIFT;
+            }
+            else
+            {
+                if( used == true )
+                {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+                
+                baseline = ( nanos < baseline ? nanos : baseline + ( nanos - baseline ) / DRIFT );
+            }
+            
+            available.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Takes a slot and a token if both are available; must be called with
+     * the lock held.
+     * 
+     * @param now       Current time (ns)
+     * @return          <code>0</code> if taken or the time (ns) to wait for
+     *                  a token, <code>Long.MAX_VALUE</code> to wait for a
+     *                  slot
+     */
+    private long tryAcquire(long now)
+    {
+        if( inFlight >= (int) limit )
+        {
+            return Long.MAX_VALUE;
+        }
+        
+        if( maxRate > 0.0 )
+        {
+            tokens = Math.min(Math.max(1.0, maxRate), tokens + ( now - refilled ) * maxRate / 1e9);
+            refilled = now;
+            
+            if( tokens < 1.0 )
+            {
+                return Math.max(1L, (long) ( ( 1.0 - tokens ) * 1e9 / maxRate ));
+            }
+            
+            tokens -= 1.0;
+        }
+        
+        inFlight++;
+        
+        return 0L;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class <code>DaemonThreadFactory</code> creates named daemon threads, so
+ * internal thread pools never keep the application alive.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class DaemonThreadFactory implements ThreadFactory
+{
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    private final String prefix;
+    private final AtomicInteger count;
+    
+    
+    DaemonThreadFactory(String name)
+    {
+        this.prefix = "elsock-" + name + "-" + INSTANCES.incrementAndGet() + "-";
+        this.count = new AtomicInteger();
+    }
+    
+    
+    
+    @Override
+    public Thread newThread(Runnable r)
+    {
+        final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        
+        return thread;
+    }
+}
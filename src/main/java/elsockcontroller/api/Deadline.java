@@ -0,0 +1,274 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class <code>Deadline</code> is a point in time by which a request has
+ * to be completed, covering connect, write and read.
+ *
+ * <p>A deadline can be {@link #enter(Deadline) entered} for the current
+ * thread; all requests of the thread are limited by it until it's
+ * {@link #exit(Deadline) exited}. Nested deadlines never extend an outer
+ * one.</p>
+ *
+ * <pre>
+ * final Deadline previous = Deadline.enter(Deadline.after(200, TimeUnit.MILLISECONDS));
+ * 
+ * try
+ * {
+ *     controller.getStatus();
+ * }
+ * finally
+ * {
+ *     Deadline.exit(previous);
+ * }
+ * </pre>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class Deadline
+{
+    /** Deadline that never expires. */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE, false);
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>()
+    {
+        @Override
+        protected Deadline initialValue()
+        {
+            return NONE;
+        }
+    };
+    private final long nanoTime;
+    private final boolean bounded;
+    
+    
+    private Deadline(long nanoTime, boolean bounded)
+    {
+        this.nanoTime = nanoTime;
+        this.bounded = bounded;
+    }
+    
+    
+    
+    /**
+     * Returns a deadline expiring after <code>timeout</code>.
+     * 
+     * @param timeout       Timeout
+     * @param unit          Unit of the timeout
+     * @return              Deadline
+     * @exception           IllegalArgumentException If <code>timeout</code>
+     *                      is negative
+     */
+    public static Deadline after(long timeout, TimeUnit unit)
+    {
+        if( timeout < 0 )
+        {
+            throw new IllegalArgumentException("Negative timeout not allowed!");
+        }
+        
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+    
+    
+    /**
+     * Returns the deadline of the current thread.
+     * 
+     * @return      Deadline or {@link #NONE} if there's none
+     */
+    public static Deadline current()
+    {
+        return CURRENT.get();
+    }
+    
+    
+    /**
+     * Enters the <code>deadline</code> for the current thread. If the thread
+     * already has an earlier deadline, it's kept.
+     * 
+     * @param deadline      Deadline
+     * @return              Previous deadline, to be passed to
+     *                      {@link #exit(Deadline) exit()}
+     */
+    public static Deadline enter(Deadline deadline)
+    {
+        final Deadline previous = CURRENT.get();
+        CURRENT.set(previous.min(deadline));
+        
+        return previous;
+    }
+    
+    
+    /**
+     * Restores the <code>previous</code> deadline of the current thread.
+     * 
+     * @param previous      Deadline returned by
+     *                      {@link #enter(Deadline) enter()}
+     */
+    public static void exit(Deadline previous)
+    {
+        if( previous == NONE )
+        {
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(previous);
+        }
+    }
+    
+    
+    /**
+     * Returns the earlier of this and <code>other</code>.
+     * 
+     * @param other     Other deadline
+     * @return          Earlier deadline
+     */
+    public Deadline min(Deadline other)
+    {
+        if( bounded == false )
+        {
+            return other;
+        }
+        
+        if( other.bounded == false )
+        {
+            return this;
+        }
+        
+        return ( other.nanoTime - nanoTime < 0 ? other : this );
+    }
+    
+    
+    /**
+     * Returns the earlier of this and a deadline expiring after
+     * <code>timeout</code>.
+     * 
+     * @param timeout       Timeout (ms) or <code>0</code> for none
+     * @return              Earlier deadline
+     */
+    public Deadline min(long timeout)
+    {
+        return ( timeout > 0 ? min(after(timeout, TimeUnit.MILLISECONDS)) : this );
+    }
+    
+    
+    /**
+     * Returns whether the deadline has passed.
+     * 
+     * @return      Returns <tt>true</tt> if expired or <tt>false</tt>
+     *              otherwise
+     */
+    public boolean isExpired()
+    {
+        return bounded == true && nanoTime - System.nanoTime() <= 0;
+    }
+    
+    
+    /**
+     * Returns the time remaining.
+     * 
+     * @param unit      Unit
+     * @return          Remaining time (<code>0</code> if expired) or
+     *                  <code>Long.MAX_VALUE</code> if unbounded
+     */
+    public long remaining(TimeUnit unit)
+    {
+        if( bounded == false )
+        {
+            return Long.MAX_VALUE;
+        }
+        
+        return unit.convert(Math.max(0L, nanoTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    
+    
+    /**
+     * Returns whether the deadline is bounded.
+     * 
+     * @return      Returns <tt>false</tt> for {@link #NONE} or <tt>true</tt>
+     *              otherwise
+     */
+    public boolean isBounded()
+    {
+        return bounded;
+    }
+    
+    
+    /**
+     * Returns the point in time of the deadline.
+     * 
+     * @return      Time (ns, as of {@link System#nanoTime()}); only
+     *              meaningful if {@link #isBounded() bounded}
+     */
+    long getNanoTime()
+    {
+        return nanoTime;
+    }
+    
+    
+    /**
+     * Returns the remaining time as socket timeout, limited by
+     * <code>timeout</code>.
+     * 
+     * @param timeout       Timeout (ms) or <code>0</code> for none
+     * @return              Timeout (ms) or <code>0</code> if neither the
+     *                      deadline nor <code>timeout</code> is bounded
+     * @throws              SocketTimeoutException If the deadline has passed
+     */
+    public int toTimeout(int timeout) throws SocketTimeoutException
+    {
+        if( bounded == false )
+        {
+            return timeout;
+        }
+        
+        final long remaining = nanoTime - System.nanoTime();
+        
+        if( remaining <= 0 )
+        {
+            throw new SocketTimeoutException("Deadline exceeded");
+        }
+        
+        // Round up, a socket timeout of 0 would be infinite
+        final long millis = Math.min(Integer.MAX_VALUE, ( remaining + 999999L ) / 1000000L);
+        
+        return ( timeout > 0 ? Math.min(timeout, (int) millis) : (int) millis );
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return ( bounded == true
+                ? "Deadline{" + "remaining=" + remaining(TimeUnit.MILLISECONDS) + "ms}"
+                : "Deadline{none}" );
+    }
+}
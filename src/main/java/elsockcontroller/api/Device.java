@@ -21,6 +21,7 @@
 package elsockcontroller.api;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,6 +32,9 @@ import java.util.List;
  * groups, {@link #getDevices() getDevices()} can be used to get only those,
  * which represent real devices (no groups).</p>
  * 
+ * <p>Boards with more outputs or user-defined groups are described by a
+ * {@link DeviceModel}.</p>
+ * 
  * @version     0.1
  * @since       0.0.1
  * @author      offa
@@ -60,8 +64,35 @@ public enum Device
     /** Device #9. */
     DEVICE_9("j", false);
     
+    private static final List<Device> DEVICES;
+    private static final List<Device> GROUPS;
+    private static final int[] INDEX;
     private final String id;
     private final boolean group;
+    
+    static
+    {
+        final List<Device> devices = new ArrayList<>();
+        final List<Device> groups = new ArrayList<>();
+        INDEX = new int[values().length];
+        
+        for( Device dev : values() )
+        {
+            if( dev.isGroup() == false )
+            {
+                INDEX[dev.ordinal()] = devices.size();
+                devices.add(dev);
+            }
+            else
+            {
+                INDEX[dev.ordinal()] = -1;
+                groups.add(dev);
+            }
+        }
+        
+        DEVICES = Collections.unmodifiableList(devices);
+        GROUPS = Collections.unmodifiableList(groups);
+    }
 
     
     private Device(String id, boolean group)
@@ -106,24 +137,38 @@ public enum Device
     }
 
     
+    /**
+     * Returns the position of the device within the
+     * {@link #getDevices() real devices}, which is also it's position in a
+     * status response.
+     * 
+     * @return      Position or <code>-1</code> for a group
+     */
+    public int getIndex()
+    {
+        return INDEX[ordinal()];
+    }
+    
+    
     /**
      * Returns all (real) devices - this does not include generalised
      * devices like {@link Device#ALL <code>ALL</code>}.
      *
-     * @return      Devices
+     * @return      Devices (unmodifiable)
      */
     public static List<Device> getDevices()
     {
-        List<Device> devices = new ArrayList<>();
-        
-        for( Device dev : values() )
-        {
-            if( dev.isGroup() == false )
-            {
-                devices.add(dev);
-            }
-        }
-        
-        return devices;
+        return DEVICES;
+    }
+    
+    
+    /**
+     * Returns all groups of devices.
+     * 
+     * @return      Groups (unmodifiable)
+     */
+    public static List<Device> getGroups()
+    {
+        return GROUPS;
     }
 }
@@ -0,0 +1,532 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class <code>DeviceModel</code> describes the outputs of a board and
+ * user-defined groups of them; it's used for boards not covered by
+ * {@link Device}.
+ *
+ * <p>Outputs are addressed by their dense index, which is also their
+ * position in a status response (see {@link StatusSink}), and sent with their
+ * id. By default the ids are the letters <code>a</code> to <code>z</code>, so
+ * the first ten outputs match {@link Device#getDevices() the devices}.
+ * Commands for a {@link Group group} are expanded into a single request
+ * containing all it's outputs.</p>
+ *
+ * <p>Models are immutable; all queries are built once, so sending a command
+ * doesn't depend on the size of the model.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class DeviceModel
+{
+    /** Model of the boards covered by {@link Device}. */
+    public static final DeviceModel DEFAULT = of(Device.getDevices().size());
+    private static final int MAX_DEFAULT_IDS = 'z' - 'a' + 1;
+    private final List<String> ids;
+    private final Map<String, Integer> indexes;
+    private final Map<String, Group> groups;
+    private final List<Group> groupList;
+    private final String[][] queries;
+    
+    
+    private DeviceModel(List<String> ids, Map<String, int[]> groups)
+    {
+        this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+        this.indexes = new HashMap<>();
+        this.queries = new String[ids.size()][];
+        
+        for( int i = 0; i < ids.size(); i++ )
+        {
+            indexes.put(ids.get(i), i);
+            queries[i] = queries(new int[] { i });
+        }
+        
+        final Map<String, Group> map = new LinkedHashMap<>();
+        
+        for( Map.Entry<String, int[]> entry : groups.entrySet() )
+        {
+            map.put(entry.getKey(), new Group(entry.getKey(), entry.getValue(),
+                    queries(entry.getValue())));
+        }
+        
+        this.groups = Collections.unmodifiableMap(map);
+        this.groupList = Collections.unmodifiableList(new ArrayList<>(map.values()));
+    }
+    
+    
+    
+    /**
+     * Returns the model of a board with <code>outputs</code> outputs and
+     * default ids.
+     * 
+     * @param outputs       Number of outputs
+     * @return              Model
+     */
+    public static DeviceModel of(int outputs)
+    {
+        return builder(outputs).build();
+    }
+    
+    
+    /**
+     * Returns a builder of a board with <code>outputs</code> outputs and
+     * default ids.
+     * 
+     * @param outputs       Number of outputs
+     * @return              Builder
+     * @exception           IllegalArgumentException If <code>outputs</code>
+     *                      is not positive or exceeds the default ids
+     */
+    public static Builder builder(int outputs)
+    {
+        if( outputs < 1 || outputs > MAX_DEFAULT_IDS )
+        {
+            throw new IllegalArgumentException("Invalid number of outputs: " + outputs);
+        }
+        
+        final List<String> ids = new ArrayList<>(outputs);
+        
+        for( int i = 0; i < outputs; i++ )
+        {
+            ids.add(String.valueOf((char) ( 'a' + i )));
+        }
+        
+        return new Builder(ids);
+    }
+    
+    
+    /**
+     * Returns a builder of a board with the given output ids.
+     * 
+     * @param ids       Ids of the outputs, in order of their position;
+     *                  each consisting of ASCII letters and digits only
+     * @return          Builder
+     * @exception       IllegalArgumentException If <code>ids</code> is
+     *                  empty, contains duplicates, an invalid id or the id
+     *                  of {@link Device#ALL <code>ALL</code>}
+     */
+    public static Builder builder(List<String> ids)
+    {
+        if( ids.isEmpty() == true )
+        {
+            throw new IllegalArgumentException("Model without outputs not allowed!");
+        }
+        
+        for( String id : ids )
+        {
+            if( isValidId(id) == false || id.equals(Device.ALL.getId()) == true )
+            {
+                throw new IllegalArgumentException("Invalid output id: " + id);
+            }
+        }
+        
+        if( new HashSet<>(ids).size() != ids.size() )
+        {
+            throw new IllegalArgumentException("Duplicate output ids: " + ids);
+        }
+        
+        return new Builder(ids);
+    }
+    
+    
+    /**
+     * Returns a builder initialized with this model.
+     * 
+     * @return      Builder
+     */
+    public Builder toBuilder()
+    {
+        final Builder builder = new Builder(ids);
+        
+        for( Group group : groupList )
+        {
+            builder.groups.put(group.name, group.outputs);
+        }
+        
+        return builder;
+    }
+    
+    
+    /**
+     * Returns the number of outputs.
+     * 
+     * @return      Number of outputs
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+    
+    
+    /**
+     * Returns the ids of all outputs, in order of their position.
+     * 
+     * @return      Ids (unmodifiable)
+     */
+    public List<String> getIds()
+    {
+        return ids;
+    }
+    
+    
+    /**
+     * Returns the position of the output with the given id.
+     * 
+     * @param id        Id
+     * @return          Position or <code>-1</code> if not found
+     */
+    public int indexOf(String id)
+    {
+        final Integer index = indexes.get(id);
+        
+        return ( index == null ? -1 : index );
+    }
+    
+    
+    /**
+     * Returns the group <code>name</code>.
+     * 
+     * @param name      Name
+     * @return          Group or <tt>null</tt> if not found
+     */
+    public Group getGroup(String name)
+    {
+        return groups.get(name);
+    }
+    
+    
+    /**
+     * Returns all groups, in order of their definition.
+     * 
+     * @return      Groups (unmodifiable)
+     */
+    public List<Group> getGroups()
+    {
+        return groupList;
+    }
+    
+    
+    /**
+     * Returns the query changing the status of an output.
+     * 
+     * @param output        Position of the output
+     * @param status        New status
+     * @return              Query
+     * @exception           IllegalArgumentException If there's no such
+     *                      output
+     */
+    String getQuery(int output, Status status)
+    {
+        if( output < 0 || output >= queries.length )
+        {
+            throw new IllegalArgumentException("Unknown output: " + output);
+        }
+        
+        return queries[output][status.ordinal()];
+    }
+    
+    
+    /**
+     * Converts the outputs to the commands of the corresponding devices;
+     * outputs beyond the devices are skipped.
+     * 
+     * @param outputs       Positions of the outputs
+     * @param status        New status
+     * @return              Commands
+     */
+    static ElsockData toElsockData(List<Integer> outputs, Status status)
+    {
+        final List<Device> devices = Device.getDevices();
+        final ElsockData data = new ElsockData();
+        
+        for( int output : outputs )
+        {
+            if( output >= 0 && output < devices.size() )
+            {
+                data.insert(devices.get(output), status);
+            }
+        }
+        
+        return data;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "DeviceModel{" + "ids=" + ids + ", groups=" + groupList + '}';
+    }
+    
+    
+    /**
+     * Tests whether the id may be sent in a query as is.
+     * 
+     * @param id        Id
+     * @return          Returns <tt>true</tt> if it's not empty and consists
+     *                  of ASCII letters and digits only or <tt>false</tt>
+     *                  otherwise
+     */
+    private static boolean isValidId(String id)
+    {
+        if( id == null || id.isEmpty() == true )
+        {
+            return false;
+        }
+        
+        for( int i = 0; i < id.length(); i++ )
+        {
+            final char c = id.charAt(i);
+            
+            if( ( c >= 'a' && c <= 'z' ) == false && ( c >= 'A' && c <= 'Z' ) == false
+                    && ( c >= '0' && c <= '9' ) == false )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * Builds the queries of the outputs for each status.
+     * 
+     * @param outputs       Positions of the outputs
+     * @return              Queries by status
+     */
+    private String[] queries(int[] outputs)
+    {
+        final Status[] statuses = Status.values();
+        final String[] result = new String[statuses.length];
+        final StringBuilder query = new StringBuilder(16 * outputs.length);
+        
+        for( Status status : statuses )
+        {
+            query.setLength(0);
+            query.append("/q?");
+            
+            for( int i = 0; i < outputs.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    query.append('&');
+                }
+                
+                query.append('L').append(ids.get(outputs[i])).append('=').append(status.getId());
+            }
+            
+            result[status.ordinal()] = query.toString();
+        }
+        
+        return result;
+    }
+    
+    
+    
+    /**
+     * The class <code>Group</code> is a named set of outputs.
+     */
+    public static final class Group
+    {
+        private final String name;
+        private final int[] outputs;
+        private final List<Integer> outputList;
+        private final String[] queries;
+        
+        
+        private Group(String name, int[] outputs, String[] queries)
+        {
+            this.name = name;
+            this.outputs = outputs;
+            this.queries = queries;
+            
+            final List<Integer> list = new ArrayList<>(outputs.length);
+            
+            for( int output : outputs )
+            {
+                list.add(output);
+            }
+            
+            this.outputList = Collections.unmodifiableList(list);
+        }
+        
+        
+        /**
+         * Returns the name.
+         * 
+         * @return      Name
+         */
+        public String getName()
+        {
+            return name;
+        }
+        
+        
+        /**
+         * Returns the positions of all outputs, in ascending order.
+         * 
+         * @return      Positions (unmodifiable)
+         */
+        public List<Integer> getOutputs()
+        {
+            return outputList;
+        }
+        
+        
+        /**
+         * Returns whether the output is part of the group.
+         * 
+         * @param output        Position of the output
+         * @return              Returns <tt>true</tt> if contained or
+         *                      <tt>false</tt> otherwise
+         */
+        public boolean contains(int output)
+        {
+            return Arrays.binarySearch(outputs, output) >= 0;
+        }
+        
+        
+        /**
+         * Returns the query changing the status of all outputs.
+         * 
+         * @param status        New status
+         * @return              Query
+         */
+        String getQuery(Status status)
+        {
+            return queries[status.ordinal()];
+        }
+        
+        
+        /**
+         * Returns the string representation.
+         * 
+         * @return      String representation
+         */
+        @Override
+        public String toString()
+        {
+            return "Group{" + "name=" + name + ", outputs=" + outputList + '}';
+        }
+    }
+    
+    
+    
+    /**
+     * The class <code>Builder</code> defines the groups of a model.
+     */
+    public static final class Builder
+    {
+        private final List<String> ids;
+        private final Map<String, int[]> groups;
+        
+        
+        private Builder(List<String> ids)
+        {
+            this.ids = new ArrayList<>(ids);
+            this.groups = new LinkedHashMap<>();
+        }
+        
+        
+        /**
+         * Defines the group <code>name</code>; an existing group of the same
+         * name is replaced.
+         * 
+         * @param name          Name
+         * @param outputs       Positions of the outputs
+         * @return              Builder
+         * @exception           IllegalArgumentException If
+         *                      <code>outputs</code> is empty or contains an
+         *                      unknown output
+         */
+        public Builder group(String name, int... outputs)
+        {
+            if( outputs.length == 0 )
+            {
+                throw new IllegalArgumentException("Group without outputs not allowed!");
+            }
+            
+            final int[] sorted = outputs.clone();
+            Arrays.sort(sorted);
+            int count = 0;
+            
+            for( int output : sorted )
+            {
+                if( output < 0 || output >= ids.size() )
+                {
+                    throw new IllegalArgumentException("Unknown output: " + output);
+                }
+                
+                if( count == 0 || sorted[count - 1] != output )
+                {
+                    sorted[count++] = output;
+                }
+            }
+            
+            groups.put(name, Arrays.copyOf(sorted, count));
+            
+            return this;
+        }
+        
+        
+        /**
+         * Removes the group <code>name</code>.
+         * 
+         * @param name          Name
+         * @return              Builder
+         */
+        public Builder remove(String name)
+        {
+            groups.remove(name);
+            
+            return this;
+        }
+        
+        
+        /**
+         * Builds the model.
+         * 
+         * @return      Model
+         */
+        public DeviceModel build()
+        {
+            return new DeviceModel(ids, groups);
+        }
+    }
+}
@@ -21,37 +21,123 @@
 package elsockcontroller.api;
 
 import elsockcontroller.api.ElsockData.ElsockElement;
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * The class <code>ElsockController</code> provides access to Elsock-devices.
  * 
+ * <p>Queries are sent through a {@link Transport Transport}; by default the
+ * one {@link Protocol#createTransport() created} by the protocol is used.
+ * The controller should be {@link #close() closed} if no longer used.</p>
+ * 
+ * <p>Controllers are thread-safe; a single controller can serve all
+ * threads. Data passed to the controller is not retained after a call
+ * returns, so it doesn't need to be copied. Settings changed by one thread
+ * apply to all requests started afterwards.</p>
+ * 
  * @version     0.1
  * @since       0.0.1
  * @author      offa
  */
-public class ElsockController
+public class ElsockController implements Closeable
 {
     private static final int DEFAULT_TIMEOUT = 5000;
-    private static final String STREAM_DELIMETER = ",";
-    private static final Pattern PATTERN_EMPTY = Pattern.compile("^(?is)\\s$");
+    private static final int DEFAULT_REQUEST_TIMEOUT = 10000;
+    private static final int HEDGE_SAMPLES = 20;
+    private static final int HEDGE_WINDOW = 1024;
+    private static final String[][] QUERIES;
+    private static final ThreadLocal<Exchange> EXCHANGE = new ThreadLocal<Exchange>()
+    {
+        @Override
+        protected Exchange initialValue()
+        {
+            return new Exchange();
+        }
+    };
+    private static final ElsockListener[] NO_LISTENERS = new ElsockListener[0];
+    private static final String STATUS_QUERY = "/q?L" + Device.ALL.getId() + "=" + Status.GET_STATUS.getId();
+    private static final StatusSink IGNORE = new StatusSink()
+    {
+        @Override
+        public void status(int pos, Status status)
+        {
+            // Discard
+        }
+    };
     private final Protocol protocol;
     private final String address;
-    private int connectionTimeout;
-
+    private final Transport transport;
+    private volatile int connectionTimeout;
+    private volatile int requestTimeout;
+    private volatile boolean pipelining;
+    private volatile ElsockListener[] listeners;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile ConcurrencyLimiter limiter;
+    private volatile RetryPolicy retryPolicy;
+    private volatile boolean hedging;
+    private volatile long hedgeDelay;
+    private volatile DeviceModel deviceModel;
+    private volatile CommandJournal journal;
+    private final LatencyHistogram statusLatency;
+    private final AtomicLong retries;
+    private final AtomicLong hedges;
+    
+    static
+    {
+        QUERIES = new String[Device.values().length][Status.values().length];
+        
+        for( Device dev : Device.values() )
+        {
+            for( Status status : Status.values() )
+            {
+                QUERIES[dev.ordinal()][status.ordinal()] = "/q?L" + dev.getId() + "=" + status.getId();
+            }
+        }
+    }
+    
     
     public ElsockController(Protocol protocol, String address)
+    {
+        this(protocol, address, protocol.createTransport());
+    }
+    
+    public ElsockController(Protocol protocol, String address, Transport transport)
     {
         this.protocol = protocol;
         this.address = address;
+        this.transport = transport;
         this.connectionTimeout = DEFAULT_TIMEOUT;
+        this.requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        this.pipelining = false;
+        this.listeners = NO_LISTENERS;
+        this.circuitBreaker = null;
+        this.limiter = null;
+        this.retryPolicy = null;
+        this.hedging = false;
+        this.hedgeDelay = -1L;
+        this.statusLatency = new LatencyHistogram();
+        this.retries = new AtomicLong();
+        this.hedges = new AtomicLong();
+        this.deviceModel = DeviceModel.DEFAULT;
+        this.journal = null;
     }
     
     
@@ -60,7 +146,9 @@ public class ElsockController
      * Changes the status of the device to <code>status</code>.
      * 
      * <p><b>Note:</b> This method does not return a response; to receive status
-     * information use {@link #getStatus() getStatus()} instead.</p>
+     * information use {@link #getStatus() getStatus()} or
+     * {@link #sendCommand(Device, Status, StatusSink) the variant with sink}
+     * instead.</p>
      * 
      * @param device        Device
      * @param status        New status
@@ -68,7 +156,335 @@ public class ElsockController
      */
     public void sendCommand(Device device, Status status) throws IOException
     {
-        execute(new ElsockData(device, status));
+        sendCommand(device, status, IGNORE);
+    }
+    
+    
+    /**
+     * Changes the status of the device to <code>status</code> and receives
+     * the status information of the response, the status of all devices
+     * after the command, into <code>sink</code>.
+     * 
+     * @param device        Device
+     * @param status        New status
+     * @param sink          Sink of the status information
+     * @return              Returns <tt>true</tt> if status information was
+     *                      received or <tt>false</tt> on an empty response
+     * @throws              IOException On a network failure or timeout
+     */
+    public boolean sendCommand(Device device, Status status, StatusSink sink) throws IOException
+    {
+        final CommandJournal current = journal;
+        final Exchange exchange = Exchange.acquire();
+        
+        try
+        {
+            if( current != null )
+            {
+                return execute(exchange, Operation.of(device, status),
+                        QUERIES[device.ordinal()][status.ordinal()], sink,
+                        current, ImmutableElsockData.of(device, status));
+            }
+            
+            return execute(exchange, Operation.of(device, status),
+                    QUERIES[device.ordinal()][status.ordinal()], sink);
+        }
+        finally
+        {
+            exchange.release();
+        }
+    }
+    
+    
+    /**
+     * Changes the status of all devices contained in <code>data</code>. All
+     * commands are sent with a single request.
+     * 
+     * <p><b>Note:</b> This method does not return a response; to receive status
+     * information use {@link #getStatus() getStatus()} or
+     * {@link #sendCommands(ElsockData, StatusSink) the variant with sink}
+     * instead.</p>
+     * 
+     * @param data          Devices and their new status
+     * @throws              IOException On a network failure or timeout
+     * @exception           IllegalArgumentException If <code>data</code> is
+     *                      empty
+     */
+    public void sendCommands(ElsockData data) throws IOException
+    {
+        sendCommands(data, IGNORE);
+    }
+    
+    
+    /**
+     * Changes the status of all devices contained in <code>data</code> and
+     * receives the status information of the response, the status of all
+     * devices after the commands, into <code>sink</code>. All commands are
+     * sent with a single request.
+     * 
+     * @param data          Devices and their new status
+     * @param sink          Sink of the status information
+     * @return              Returns <tt>true</tt> if status information was
+     *                      received or <tt>false</tt> on an empty response
+     * @throws              IOException On a network failure or timeout
+     * @exception           IllegalArgumentException If <code>data</code> is
+     *                      empty
+     */
+    public boolean sendCommands(ElsockData data, StatusSink sink) throws IOException
+    {
+        if( data.isEmpty() == true )
+        {
+            throw new IllegalArgumentException("No commands to send!");
+        }
+        
+        final CommandJournal current = journal;
+        final Exchange exchange = Exchange.acquire();
+        
+        try
+        {
+            if( current != null )
+            {
+                return execute(exchange, Operation.of(data), query(exchange.query, data), sink,
+                        current, data);
+            }
+            
+            return execute(exchange, Operation.of(data), query(exchange.query, data), sink);
+        }
+        finally
+        {
+            exchange.release();
+        }
+    }
+    
+    
+    /**
+     * Changes the status of an output of the {@link #getDeviceModel() device
+     * model} to <code>status</code>.
+     * 
+     * @param output        Position of the output
+     * @param status        New status
+     * @throws              IOException On a network failure or timeout
+     * @exception           IllegalArgumentException If there's no such
+     *                      output
+     */
+    public void sendOutput(int output, Status status) throws IOException
+    {
+        sendOutput(output, status, IGNORE);
+    }
+    
+    
+    /**
+     * Changes the status of an output of the {@link #getDeviceModel() device
+     * model} to <code>status</code> and receives the status information of
+     * the response into <code>sink</code>.
+     * 
+     * @param output        Position of the output
+     * @param status        New status
+     * @param sink          Sink of the status information
+     * @return              Returns <tt>true</tt> if status information was
+     *                      received or <tt>false</tt> on an empty response
+     * @throws              IOException On a network failure or timeout
+     * @exception           IllegalArgumentException If there's no such
+     *                      output
+     */
+    public boolean sendOutput(int output, Status status, StatusSink sink) throws IOException
+    {
+        final String query = deviceModel.getQuery(output, status);
+        final CommandJournal current = journal;
+        final Exchange exchange = Exchange.acquire();
+        
+        try
+        {
+            if( current != null )
+            {
+                return execute(exchange, Operation.of(status, 1), query, sink, current,
+                        DeviceModel.toElsockData(Collections.singletonList(output), status));
+            }
+            
+            return execute(exchange, Operation.of(status, 1), query, sink);
+        }
+        finally
+        {
+            exchange.release();
+        }
+    }
+    
+    
+    /**
+     * Changes the status of all outputs of a group of the
+     * {@link #getDeviceModel() device model} to <code>status</code>. All
+     * outputs are sent with a single request.
+     * 
+     * @param group         Name of the group
+     * @param status        New status
+     * @throws              IOException On a network failure or timeout
+     * @exception           IllegalArgumentException If there's no such
+     *                      group
+     */
+    public void sendGroup(String group, Status status) throws IOException
+    {
+        sendGroup(group, status, IGNORE);
+    }
+    
+    
+    /**
+     * Changes the status of all outputs of a group of the
+     * {@link #getDeviceModel() device model} to <code>status</code> and
+     * receives the status information of the response into
+     * <code>sink</code>. All outputs are sent with a single request.
+     * 
+     * @param group         Name of the group
+     * @param status        New status
+     * @param sink          Sink of the status information
+     * @return              Returns <tt>true</tt> if status information was
+     *                      received or <tt>false</tt> on an empty response
+     * @throws              IOException On a network failure or timeout
+     * @exception           IllegalArgumentException If there's no such
+     *                      group
+     */
+    public boolean sendGroup(String group, Status status, StatusSink sink) throws IOException
+    {
+        final DeviceModel.Group outputs = deviceModel.getGroup(group);
+        
+        if( outputs == null )
+        {
+            throw new IllegalArgumentException("Unknown group: " + group);
+        }
+        
+        final CommandJournal current = journal;
+        final Exchange exchange = Exchange.acquire();
+        
+        try
+        {
+            if( current != null )
+            {
+                return execute(exchange, Operation.of(status, outputs.getOutputs().size()),
+                        outputs.getQuery(status), sink, current,
+                        DeviceModel.toElsockData(outputs.getOutputs(), status));
+            }
+            
+            return execute(exchange, Operation.of(status, outputs.getOutputs().size()),
+                    outputs.getQuery(status), sink);
+        }
+        finally
+        {
+            exchange.release();
+        }
+    }
+    
+    
+    /**
+     * Sends the commands of each element of <code>sequence</code> with one
+     * request, in order. If {@link #isPipelining() pipelining} is enabled
+     * and supported by the transport, all requests are sent on one
+     * connection without waiting for the responses in between.
+     * 
+     * <p>Without pipelining, the commands following a failed request are
+     * not sent. With pipelining, all requests are on the wire before the
+     * first response arrives, so the host may have executed any of them
+     * when the call fails. Unanswered requests are only sent once more if
+     * the host closed the connection cleanly, or if none of them contains a
+     * {@link Status#TOGGLE TOGGLE}.</p>
+     * 
+     * @param sequence      Commands; the elements are sent in order, each
+     *                      with a single request
+     * @throws              IOException On a network failure or timeout; the
+     *                      state of the devices is unknown then
+     * @exception           IllegalArgumentException If the sequence or one
+     *                      of it's elements is empty
+     */
+    public void sendSequence(List<ElsockData> sequence) throws IOException
+    {
+        if( sequence.isEmpty() == true )
+        {
+            throw new IllegalArgumentException("No commands to send!");
+        }
+        
+        for( ElsockData data : sequence )
+        {
+            if( data.isEmpty() == true )
+            {
+                throw new IllegalArgumentException("No commands to send!");
+            }
+        }
+        
+        if( isPipelined(sequence.size()) == false )
+        {
+            for( ElsockData data : sequence )
+            {
+                sendCommands(data);
+            }
+            
+            return;
+        }
+        
+        final Operation[] operations = new Operation[sequence.size()];
+        final List<String> queries = new ArrayList<>(sequence.size());
+        final StringBuilder query = new StringBuilder(64);
+        
+        for( int i = 0; i < operations.length; i++ )
+        {
+            operations[i] = Operation.of(sequence.get(i));
+            queries.add(query(query, sequence.get(i)).toString());
+        }
+        
+        final CommandJournal current = journal;
+        
+        if( current == null )
+        {
+            executeAll(operations, queries);
+            return;
+        }
+        
+        final int[] intents = new int[sequence.size()];
+        
+        for( int i = 0; i < intents.length; i++ )
+        {
+            intents[i] = current.intent(address, sequence.get(i));
+        }
+        
+        try
+        {
+            executeAll(operations, queries);
+        }
+        catch( CircuitOpenException | LimitExceededException ex )
+        {
+            for( int intent : intents )
+            {
+                discard(current, intent, ex);
+            }
+            
+            throw ex;
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            // Unknown which of the commands were executed
+            for( int i = 0; i < intents.length; i++ )
+            {
+                recordFailure(current, intents[i], sequence.get(i), ex);
+            }
+            
+            throw ex;
+        }
+        
+        for( int i = 0; i < intents.length; i++ )
+        {
+            current.record(address, intents[i], sequence.get(i), null, false);
+        }
+    }
+    
+    
+    /**
+     * Returns whether a sequence of <code>size</code> elements is sent
+     * pipelined.
+     * 
+     * @param size      Number of elements
+     * @return          Returns <tt>true</tt> if pipelined or <tt>false</tt>
+     *                  if sent one by one
+     */
+    boolean isPipelined(int size)
+    {
+        return pipelining == true && size > 1 && transport instanceof PipeliningTransport;
     }
     
     
@@ -104,7 +520,53 @@ public class ElsockController
      */
     public ElsockData getStatus() throws IOException
     {
-        return execute(new ElsockData(Device.ALL, Status.GET_STATUS));
+        final ElsockData result = new ElsockData(Device.getDevices(), Status.UNKNOWN);
+        
+        final boolean received = getStatus(new StatusSink()
+        {
+            @Override
+            public void status(int pos, Status status)
+            {
+                if( pos < result.size() )
+                {
+                    result.get(pos).setStatus(status);
+                }
+            }
+        });
+        
+        return ( received == true ? result : null );
+    }
+    
+    
+    /**
+     * Receives the status information of all devices into <code>sink</code>.
+     * Unlike {@link #getStatus() getStatus()} no status object is created,
+     * which allows frequent polling without allocations.
+     * 
+     * @param sink  Sink of the status information
+     * @return      Returns <tt>true</tt> if status information was received
+     *              or <tt>false</tt> on an empty response
+     * @throws      IOException On a network failure or timeout
+     */
+    public boolean getStatus(StatusSink sink) throws IOException
+    {
+        final CommandJournal current = journal;
+        final Exchange exchange = Exchange.acquire();
+        
+        try
+        {
+            if( current != null )
+            {
+                return execute(exchange, Operation.GET_STATUS, STATUS_QUERY, sink, current,
+                        ImmutableElsockData.EMPTY);
+            }
+            
+            return execute(exchange, Operation.GET_STATUS, STATUS_QUERY, sink);
+        }
+        finally
+        {
+            exchange.release();
+        }
     }
     
     
@@ -117,7 +579,7 @@ public class ElsockController
     {
         return protocol;
     }
-
+    
     
     /**
      * Returns the host address used for the connection.
@@ -128,7 +590,18 @@ public class ElsockController
     {
         return address;
     }
-
+    
+    
+    /**
+     * Returns the transport used for the connection.
+     * 
+     * @return      Transport
+     */
+    public Transport getTransport()
+    {
+        return transport;
+    }
+    
     
     /**
      * Returns the timeout used for the connection.
@@ -139,7 +612,7 @@ public class ElsockController
     {
         return connectionTimeout;
     }
-
+    
     
     /**
      * Sets the timeout used for the connection.
@@ -161,138 +634,1287 @@ public class ElsockController
     
     
     /**
-     * Returns the string representation.
+     * Returns the timeout of a whole call, covering connect, write, read and
+     * all retries.
      * 
-     * @return      String representation
+     * @return      Timeout (ms) or <code>0</code> if disabled
      */
-    @Override
-    public String toString()
+    public int getRequestTimeout()
     {
-        return "ElsockController{" + "protocol=" + protocol 
-                + ", address=" + address 
-                + ", connectionTimeout=" + connectionTimeout + '}';
+        return requestTimeout;
     }
     
     
     /**
-     * Returns the hash code.
+     * Sets the timeout of a whole call, covering connect, write, read and
+     * all retries and hedged requests. A shorter
+     * {@link Deadline#current() deadline} of the calling thread takes
+     * precedence.
      * 
-     * @return      Hash code
+     * @param requestTimeout        Timeout (ms) or <code>0</code> to disable
+     * @exception                   IllegalArgumentException If
+     *                              <code>requestTimeout</code> is negative
      */
-    @Override
-    public int hashCode()
+    public void setRequestTimeout(int requestTimeout)
     {
-        int hash = 7;
-        hash = 89 * hash + Objects.hashCode(this.protocol);
-        hash = 89 * hash + Objects.hashCode(this.address);
-        hash = 89 * hash + this.connectionTimeout;
-        return hash;
+        if( requestTimeout < 0 )
+        {
+            throw new IllegalArgumentException("Negative timeout not allowed!");
+        }
+        
+        this.requestTimeout = requestTimeout;
     }
     
     
     /**
-     * Tests whether this and <code>obj</code> are equal.
+     * Returns whether {@link #sendSequence(List) sequences} are pipelined.
      * 
-     * @param obj       Other object
-     * @return          Returns <tt>true</tt> if equal or <tt>false</tt> if not
+     * @return      Returns <tt>true</tt> if enabled or <tt>false</tt>
+     *              otherwise
      */
-    @Override
-    public boolean equals(Object obj)
+    public boolean isPipelining()
     {
-        if( obj == null )
-        {
-            return false;
-        }
-        
-        if( getClass() != obj.getClass() )
-        {
-            return false;
-        }
-        
-        final ElsockController other = (ElsockController) obj;
-        
-        if( this.protocol != other.protocol )
-        {
-            return false;
-        }
-        
-        if( !Objects.equals(this.address, other.address) )
+        return pipelining;
+    }
+    
+    
+    /**
+     * Enables pipelining of {@link #sendSequence(List) sequences}: all
+     * requests are sent on one connection at once, saving a round trip per
+     * request on high latency links. This requires a
+     * {@link PipeliningTransport} and a host supporting HTTP/1.1; hosts
+     * closing the connection or answering out of spec are served one
+     * request at a time. Disabled by default.
+     * 
+     * @param pipelining        <tt>true</tt> to enable or <tt>false</tt> to
+     *                          disable
+     */
+    public void setPipelining(boolean pipelining)
+    {
+        this.pipelining = pipelining;
+    }
+    
+    
+    /**
+     * Returns the journal recording the commands of this controller.
+     * 
+     * @return      Journal or <tt>null</tt> if disabled
+     */
+    public CommandJournal getJournal()
+    {
+        return journal;
+    }
+    
+    
+    /**
+     * Sets the journal recording the commands and status responses of this
+     * controller. A failure recording a command is thrown as
+     * <code>IOException</code> of the command; the journal is not closed by
+     * the controller.
+     * 
+     * @param journal       Journal or <tt>null</tt> to disable
+     */
+    public void setJournal(CommandJournal journal)
+    {
+        this.journal = journal;
+    }
+    
+    
+    /**
+     * Returns the device model of the host.
+     * 
+     * @return      Device model
+     */
+    public DeviceModel getDeviceModel()
+    {
+        return deviceModel;
+    }
+    
+    
+    /**
+     * Sets the device model of the host, used by
+     * {@link #sendOutput(int, Status) sendOutput()} and
+     * {@link #sendGroup(String, Status) sendGroup()}.
+     * 
+     * @param deviceModel       Device model
+     */
+    public void setDeviceModel(DeviceModel deviceModel)
+    {
+        this.deviceModel = Objects.requireNonNull(deviceModel);
+    }
+    
+    
+    /**
+     * Returns the circuit breaker of the host.
+     * 
+     * @return      Circuit breaker or <tt>null</tt> if none is set
+     */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+    
+    
+    /**
+     * Sets the circuit breaker of the host. While the circuit is open, all
+     * requests fail immediately with a {@link CircuitOpenException}; the
+     * host is probed with status requests in the background.
+     * 
+     * @param circuitBreaker        Circuit breaker or <tt>null</tt> to
+     *                              disable
+     */
+    public synchronized void setCircuitBreaker(CircuitBreaker circuitBreaker)
+    {
+        final CircuitBreaker previous = this.circuitBreaker;
+        
+        if( previous != null )
+        {
+            previous.bind(null);
+        }
+        
+        if( circuitBreaker != null )
+        {
+            circuitBreaker.bind(new CircuitBreaker.Probe()
+            {
+                @Override
+                public void probe() throws IOException
+                {
+                    final Exchange exchange = Exchange.acquire();
+                    
+                    try
+                    {
+                        send(exchange, Operation.GET_STATUS, STATUS_QUERY, IGNORE);
+                    }
+                    finally
+                    {
+                        exchange.release();
+                    }
+                }
+            });
+        }
+        
+        this.circuitBreaker = circuitBreaker;
+    }
+    
+    
+    /**
+     * Returns the concurrency limiter of the host.
+     * 
+     * @return      Limiter or <tt>null</tt> if none is set
+     */
+    public ConcurrencyLimiter getLimiter()
+    {
+        return limiter;
+    }
+    
+    
+    /**
+     * Sets the concurrency limiter of the host. Requests beyond it's limits
+     * wait or fail with a {@link LimitExceededException}; probes of the
+     * {@link #setCircuitBreaker(CircuitBreaker) circuit breaker} are not
+     * limited.
+     * 
+     * @param limiter       Limiter or <tt>null</tt> to disable
+     */
+    public void setLimiter(ConcurrencyLimiter limiter)
+    {
+        this.limiter = limiter;
+    }
+    
+    
+    /**
+     * Returns the policy retrying failed idempotent requests.
+     * 
+     * @return      Retry policy or <tt>null</tt> if disabled
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+    
+    
+    /**
+     * Sets the policy retrying failed idempotent requests; requests
+     * containing a {@link Status#TOGGLE TOGGLE} are never retried. The sink
+     * of a retried request may receive the status of a failed attempt
+     * before the one of the successful attempt.
+     * 
+     * @param retryPolicy       Retry policy or <tt>null</tt> to disable
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+    
+    
+    /**
+     * Returns whether status requests are hedged.
+     * 
+     * @return      Returns <tt>true</tt> if enabled or <tt>false</tt>
+     *              otherwise
+     */
+    public boolean isHedging()
+    {
+        return hedging;
+    }
+    
+    
+    /**
+     * Enables hedging of status requests: if a status request takes longer
+     * than the 95th percentile of the recent ones, a second one is sent and
+     * the first response is used. This cuts the tail latency of hosts
+     * losing requests at the cost of a few percent more requests. The
+     * requests are sent by background threads; hedging starts once enough
+     * latencies are known. Disabled by default.
+     * 
+     * @param hedging       <tt>true</tt> to enable or <tt>false</tt> to
+     *                      disable
+     */
+    public void setHedging(boolean hedging)
+    {
+        this.hedging = hedging;
+    }
+    
+    
+    /**
+     * Returns the number of failed requests retried.
+     * 
+     * @return      Number of retries
+     */
+    public long getRetries()
+    {
+        return retries.get();
+    }
+    
+    
+    /**
+     * Returns the number of hedged status requests sent.
+     * 
+     * @return      Number of hedged requests
+     */
+    public long getHedges()
+    {
+        return hedges.get();
+    }
+    
+    
+    /**
+     * Adds a listener notified about requests, eg. {@link ElsockMetrics}.
+     * Without listeners no timing information is collected.
+     * 
+     * @param listener      Listener
+     */
+    public synchronized void addListener(ElsockListener listener)
+    {
+        final ElsockListener[] current = listeners;
+        final ElsockListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = Objects.requireNonNull(listener);
+        listeners = updated;
+    }
+    
+    
+    /**
+     * Removes the listener.
+     * 
+     * @param listener      Listener
+     * @return              Returns <tt>true</tt> if removed or <tt>false</tt>
+     *                      if not found
+     */
+    public synchronized boolean removeListener(ElsockListener listener)
+    {
+        final List<ElsockListener> current = new ArrayList<>(Arrays.asList(listeners));
+        
+        if( current.remove(listener) == false )
+        {
+            return false;
+        }
+        
+        listeners = current.toArray(new ElsockListener[current.size()]);
+        
+        return true;
+    }
+    
+    
+    /**
+     * Returns all listeners notified about requests.
+     * 
+     * @return      Listeners
+     */
+    public List<ElsockListener> getListeners()
+    {
+        return Collections.unmodifiableList(Arrays.asList(listeners));
+    }
+    
+    
+    /**
+     * Closes the transport and all of it's connections.
+     * 
+     * @throws      IOException On a failure closing the transport
+     */
+    @Override
+    public void close() throws IOException
+    {
+        setCircuitBreaker(null);
+        transport.close();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "ElsockController{" + "protocol=" + protocol 
+                + ", address=" + address 
+                + ", connectionTimeout=" + connectionTimeout + '}';
+    }
+    
+    
+    /**
+     * Returns the hash code.
+     * 
+     * @return      Hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        int hash = 7;
+        hash = 89 * hash + Objects.hashCode(this.protocol);
+        hash = 89 * hash + Objects.hashCode(this.address);
+        hash = 89 * hash + this.connectionTimeout;
+        return hash;
+    }
+    
+    
+    /**
+     * Tests whether this and <code>obj</code> are equal. Controllers are
+     * equal if protocol, address and connection timeout are; other
+     * settings, like the request timeout, and attached objects, like circuit
+     * breaker, limiter or journal, are neither compared nor part of the
+     * {@link #hashCode() hash code} or {@link #toString() string
+     * representation}.
+     * 
+     * @param obj       Other object
+     * @return          Returns <tt>true</tt> if equal or <tt>false</tt> if not
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if( obj == null )
+        {
+            return false;
+        }
+        
+        if( getClass() != obj.getClass() )
+        {
+            return false;
+        }
+        
+        final ElsockController other = (ElsockController) obj;
+        
+        if( this.protocol != other.protocol )
+        {
+            return false;
+        }
+        
+        if( !Objects.equals(this.address, other.address) )
+        {
+            return false;
+        }
+        
+        return this.connectionTimeout == other.connectionTimeout;
+    }
+    
+    
+    /**
+     * Executes the query and passes the result to <code>sink</code>.
+     * Idempotent queries are retried by the retry policy; status requests
+     * are hedged if enabled. All attempts share the request timeout.
+     * 
+     * @param exchange      Exchange of the current thread
+     * @param operation     Operation
+     * @param query         Query
+     * @param sink          Sink of the result
+     * @return              Returns <tt>true</tt> if there was response data
+     *                      or <tt>false</tt> if the response was empty
+     * @throws              IOException On a network failure or timeout
+     */
+    private boolean execute(Exchange exchange, Operation operation, CharSequence query,
+            StatusSink sink) throws IOException
+    {
+        final boolean hedged = ( hedging == true && operation == Operation.GET_STATUS );
+        final RetryPolicy policy = retryPolicy;
+        final Deadline previous = Deadline.enter(Deadline.current().min(requestTimeout));
+        
+        try
+        {
+            if( policy == null || RetryPolicy.isIdempotent(query) == false )
+            {
+                return ( hedged == true ? hedge(exchange, operation, query.toString(), sink)
+                        : attempt(exchange, operation, query, sink) );
+            }
+            
+            for( int i = 1; ; i++ )
+            {
+                try
+                {
+                    return ( hedged == true ? hedge(exchange, operation, query.toString(), sink)
+                            : attempt(exchange, operation, query, sink) );
+                }
+                catch( IOException ex )
+                {
+                    backOff(policy, i, ex);
+                }
+            }
+        }
+        finally
+        {
+            Deadline.exit(previous);
+        }
+    }
+    
+    
+    /**
+     * Executes the query and passes the result to <code>sink</code>, unless
+     * the circuit of the host is open or the limiter rejects it.
+     * 
+     * @param exchange      Exchange of the current thread
+     * @param operation     Operation
+     * @param query         Query
+     * @param sink          Sink of the result
+     * @return              Returns <tt>true</tt> if there was response data
+     *                      or <tt>false</tt> if the response was empty
+     * @throws              IOException On a network failure or timeout
+     */
+    private boolean attempt(Exchange exchange, Operation operation, CharSequence query,
+            StatusSink sink) throws IOException
+    {
+        final CircuitBreaker breaker = circuitBreaker;
+        final ConcurrencyLimiter current = limiter;
+        
+        if( breaker == null && current == null )
+        {
+            return send(exchange, operation, query, sink);
+        }
+        
+        admit(breaker, current, operation);
+        
+        final long start = System.nanoTime();
+        boolean success = false;
+        
+        try
+        {
+            final boolean received = send(exchange, operation, query, sink);
+            success = true;
+            
+            return received;
+        }
+        finally
+        {
+            complete(breaker, current, start, success);
+        }
+    }
+    
+    
+    /**
+     * Rejects a request if the circuit of the host is open or the limiter
+     * rejects it; otherwise the limiter is acquired.
+     * 
+     * @param breaker       Circuit breaker or <tt>null</tt>
+     * @param current       Limiter or <tt>null</tt>
+     * @param operation     Operation
+     * @throws              IOException If rejected
+     */
+    private void admit(CircuitBreaker breaker, ConcurrencyLimiter current, Operation operation)
+            throws IOException
+    {
+        IOException ex = null;
+        
+        if( breaker != null && breaker.allowRequest() == false )
+        {
+            ex = new CircuitOpenException("Circuit open: " + address);
+        }
+        else if( current != null && current.acquire() == false )
+        {
+            ex = new LimitExceededException("Limit exceeded: " + address);
+        }
+        
+        if( ex != null )
+        {
+            for( ElsockListener l : listeners )
+            {
+                l.requestFailed(address, operation, 0L, ex);
+            }
+            
+            throw ex;
+        }
+    }
+    
+    
+    /**
+     * Passes the outcome of an admitted request to the circuit breaker and
+     * releases the limiter. A request failing because it was cancelled,
+     * like a hedged request that lost, only counts by it's latency.
+     * 
+     * @param breaker       Circuit breaker or <tt>null</tt>
+     * @param current       Limiter or <tt>null</tt>
+     * @param start         Start of the request (ns)
+     * @param success       Whether the request succeeded
+     */
+    private static void complete(CircuitBreaker breaker, ConcurrencyLimiter current,
+            long start, boolean success)
+    {
+        final boolean cancelled = ( success == false && Thread.currentThread().isInterrupted() == true );
+        
+        if( current != null )
+        {
+            current.release(System.nanoTime() - start, success == true || cancelled == true);
+        }
+        
+        if( breaker != null && cancelled == false )
+        {
+            if( success == true )
+            {
+                breaker.recordSuccess();
+            }
+            else
+            {
+                breaker.recordFailure();
+            }
+        }
+    }
+    
+    
+    /**
+     * Executes the query and records the commands and the status of the
+     * response in the journal. The commands are recorded before the query
+     * is sent, so they are known after a crash while in flight.
+     * 
+     * @param exchange      Exchange of the current thread
+     * @param operation     Operation
+     * @param query         Query
+     * @param sink          Sink of the result
+     * @param journal       Journal
+     * @param commands      Commands of the query
+     * @return              Returns <tt>true</tt> if there was response data
+     *                      or <tt>false</tt> if the response was empty
+     * @throws              IOException On a network failure or timeout, or
+     *                      a failure recording the commands
+     */
+    private boolean execute(Exchange exchange, Operation operation, CharSequence query,
+            StatusSink sink, CommandJournal journal, ElsockData commands) throws IOException
+    {
+        final int intent = journal.intent(address, commands);
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = execute(exchange, operation, query, response);
+        }
+        catch( CircuitOpenException | LimitExceededException ex )
+        {
+            discard(journal, intent, ex);
+            throw ex;
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            recordFailure(journal, intent, commands, ex);
+            throw ex;
+        }
+        
+        journal.record(address, intent, commands, ( received == true ? response.getSnapshot() : null ), false);
+        
+        return received;
+    }
+    
+    
+    /**
+     * Records the commands of a failed request; a failure recording them is
+     * added to the failure of the request.
+     * 
+     * @param journal       Journal
+     * @param intent        Id of the intent
+     * @param commands      Commands
+     * @param cause         Failure of the request
+     */
+    private void recordFailure(CommandJournal journal, int intent, ElsockData commands,
+            Exception cause)
+    {
+        try
+        {
+            journal.record(address, intent, commands, null, true);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            cause.addSuppressed(ex);
+        }
+    }
+    
+    
+    /**
+     * Records that the commands of a rejected request were not sent; a
+     * failure recording it is added to the rejection.
+     * 
+     * @param journal       Journal
+     * @param intent        Id of the intent
+     * @param cause         Rejection of the request
+     */
+    private void discard(CommandJournal journal, int intent, Exception cause)
+    {
+        try
+        {
+            journal.discard(address, intent);
+        }
+        catch( IOException | RuntimeException ex )
         {
-            return false;
+            cause.addSuppressed(ex);
         }
+    }
+    
+    
+    /**
+     * Pipelines the queries. The whole sequence is retried by the retry
+     * policy if all queries are idempotent; all attempts share the request
+     * timeout.
+     * 
+     * @param operations    Operations
+     * @param queries       Queries
+     * @throws              IOException On a network failure or timeout
+     */
+    private void executeAll(Operation[] operations, List<String> queries) throws IOException
+    {
+        final RetryPolicy policy = retryPolicy;
+        final Deadline previous = Deadline.enter(Deadline.current().min(requestTimeout));
         
-        return this.connectionTimeout == other.connectionTimeout;
+        try
+        {
+            if( policy == null || RetryPolicy.isIdempotent(queries) == false )
+            {
+                attemptAll(operations, queries);
+                return;
+            }
+            
+            for( int i = 1; ; i++ )
+            {
+                try
+                {
+                    attemptAll(operations, queries);
+                    return;
+                }
+                catch( IOException ex )
+                {
+                    backOff(policy, i, ex);
+                }
+            }
+        }
+        finally
+        {
+            Deadline.exit(previous);
+        }
     }
     
-
+    
     /**
-     * Executes the command with the given data and returns the result.
+     * Pipelines the queries, unless the circuit of the host is open or the
+     * limiter rejects them. The whole sequence counts as a single request.
      * 
-     * @param data      Data
-     * @return          Result or <tt>null</tt> if there's no / empty response
-     *                  data
-     * @throws          IOException On a network failure or timeout
+     * @param operations    Operations
+     * @param queries       Queries
+     * @throws              IOException On a network failure or timeout
      */
-    private ElsockData execute(ElsockData data) throws IOException
+    private void attemptAll(Operation[] operations, List<String> queries) throws IOException
     {
-        ElsockData result = new ElsockData(Device.getDevices(), Status.UNKNOWN);
-        URL url = constructQuery(data);
+        final CircuitBreaker breaker = circuitBreaker;
+        final ConcurrencyLimiter current = limiter;
+        
+        if( breaker == null && current == null )
+        {
+            sendAll(operations, queries);
+            return;
+        }
         
-        URLConnection conn = url.openConnection();
-        conn.setConnectTimeout(connectionTimeout);
+        admit(breaker, current, operations[0]);
         
-        Scanner s = new Scanner(conn.getInputStream()).useDelimiter(STREAM_DELIMETER);
-        int pos = 0;
+        final long start = System.nanoTime();
+        boolean success = false;
         
-        if( s.hasNext(PATTERN_EMPTY) == true )
+        try
         {
-            return null;
+            sendAll(operations, queries);
+            success = true;
         }
-
-        while( s.hasNext() == true )
+        finally
+        {
+            complete(breaker, current, start, success);
+        }
+    }
+    
+    
+    /**
+     * Waits before the next attempt, or rethrows the failure if it's not
+     * retried.
+     * 
+     * @param policy        Retry policy
+     * @param attempt       Number of the failed attempt
+     * @param ex            Failure of the attempt
+     * @throws              IOException If not retried
+     */
+    private void backOff(RetryPolicy policy, int attempt, IOException ex) throws IOException
+    {
+        if( attempt >= policy.getMaxAttempts() || RetryPolicy.isRetryable(ex) == false )
+        {
+            throw ex;
+        }
+        
+        final long delay = policy.getDelay(attempt);
+        
+        if( Deadline.current().remaining(TimeUnit.MILLISECONDS) <= delay )
+        {
+            throw ex;
+        }
+        
+        try
+        {
+            Thread.sleep(delay);
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            ex.addSuppressed(ie);
+            throw ex;
+        }
+        
+        retries.incrementAndGet();
+    }
+    
+    
+    /**
+     * Sends the status request by a background thread. If it's not answered
+     * within the hedge delay, a second one is sent; the first successful
+     * response is passed to <code>sink</code> and the other request is
+     * cancelled. As long as the hedge delay is unknown, the request is sent
+     * by the calling thread.
+     * 
+     * @param exchange      Exchange of the current thread
+     * @param operation     Operation
+     * @param query         Query
+     * @param sink          Sink of the result
+     * @return              Returns <tt>true</tt> if there was response data
+     *                      or <tt>false</tt> if the response was empty
+     * @throws              IOException If all requests failed
+     */
+    private boolean hedge(Exchange exchange, Operation operation, String query, StatusSink sink)
+            throws IOException
+    {
+        final long delay = getHedgeDelay();
+        
+        if( delay < 0 )
+        {
+            final long start = System.nanoTime();
+            final boolean received = attempt(exchange, operation, query, sink);
+            statusLatency.record(System.nanoTime() - start);
+            
+            return received;
+        }
+        
+        final CompletionService<Recording> requests = new ExecutorCompletionService<>(Hedging.EXECUTOR);
+        final List<Future<Recording>> futures = new ArrayList<>(2);
+        final Deadline deadline = Deadline.current();
+        int pending = 1;
+        IOException failure = null;
+        
+        futures.add(requests.submit(new HedgedRequest(operation, query, deadline)));
+        
+        try
+        {
+            Future<Recording> done = requests.poll(delay, TimeUnit.NANOSECONDS);
+            
+            if( done == null )
+            {
+                hedges.incrementAndGet();
+                futures.add(requests.submit(new HedgedRequest(operation, query, deadline)));
+                pending++;
+            }
+            
+            while( pending > 0 )
+            {
+                if( done == null )
+                {
+                    done = requests.take();
+                }
+                
+                pending--;
+                
+                try
+                {
+                    return done.get().replay(sink);
+                }
+                catch( ExecutionException ex )
+                {
+                    if( ex.getCause() instanceof RuntimeException )
+                    {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    
+                    final IOException cause = ( ex.getCause() instanceof IOException
+                            ? (IOException) ex.getCause() : new IOException(ex.getCause()) );
+                    
+                    if( failure == null )
+                    {
+                        failure = cause;
+                    }
+                    else
+                    {
+                        failure.addSuppressed(cause);
+                    }
+                }
+                
+                done = null;
+            }
+            
+            throw failure;
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for status");
+        }
+        finally
+        {
+            // Releases the connection and permit held by the slower request
+            for( Future<Recording> future : futures )
+            {
+                future.cancel(true);
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns the 95th percentile of the recent status request latencies.
+     * 
+     * @return      Delay (ns) or <code>-1</code> if not enough latencies are
+     *              known
+     */
+    private long getHedgeDelay()
+    {
+        final long count = statusLatency.getCount();
+        
+        if( count >= HEDGE_SAMPLES )
+        {
+            hedgeDelay = statusLatency.getPercentile(95.0);
+            
+            if( count >= HEDGE_WINDOW )
+            {
+                statusLatency.reset();
+            }
+        }
+        
+        return hedgeDelay;
+    }
+    
+    
+    /**
+     * Pipelines the queries to the host. All requests are limited by the
+     * request timeout and the deadline of the calling thread.
+     * 
+     * @param operations    Operations
+     * @param queries       Queries
+     * @throws              IOException On a network failure or timeout
+     */
+    private void sendAll(Operation[] operations, List<String> queries) throws IOException
+    {
+        final ElsockListener[] current = listeners;
+        final Sequence sequence = new Sequence(operations, current);
+        
+        try
+        {
+            ((PipeliningTransport) transport).executeAll(address, queries, connectionTimeout,
+                    Deadline.current().min(requestTimeout), sequence);
+        }
+        catch( IOException ex )
+        {
+            if( current.length > 0 )
+            {
+                final long total = System.nanoTime() - sequence.start;
+                final Operation failed = operations[Math.min(sequence.answered, operations.length - 1)];
+                
+                for( ElsockListener l : current )
+                {
+                    l.requestFailed(address, failed, total, ex);
+                }
+            }
+            
+            throw ex;
+        }
+    }
+    
+    
+    /**
+     * Sends the query to the host and passes the result to
+     * <code>sink</code>. The request is limited by the request timeout and
+     * the deadline of the calling thread.
+     * 
+     * @param exchange      Exchange of the current thread
+     * @param operation     Operation
+     * @param query         Query
+     * @param sink          Sink of the result
+     * @return              Returns <tt>true</tt> if there was response data
+     *                      or <tt>false</tt> if the response was empty
+     * @throws              IOException On a network failure or timeout
+     */
+    private boolean send(Exchange exchange, Operation operation, CharSequence query,
+            StatusSink sink) throws IOException
+    {
+        final ElsockListener[] current = listeners;
+        exchange.begin(sink, current.length > 0);
+        
+        try
+        {
+            transport.execute(address, query, connectionTimeout,
+                    Deadline.current().min(requestTimeout), exchange);
+        }
+        catch( IOException ex )
+        {
+            if( current.length > 0 )
+            {
+                final long total = System.nanoTime() - exchange.start;
+                
+                for( ElsockListener l : current )
+                {
+                    l.requestFailed(address, operation, total, ex);
+                }
+            }
+            
+            throw ex;
+        }
+        
+        final boolean received = ( exchange.count != StatusParser.EMPTY );
+        
+        if( current.length > 0 )
         {
-            final String next = s.next().trim();
+            final long connect = exchange.connectNanos;
+            final long firstByte = exchange.firstByte - exchange.start;
+            final long parse = exchange.parsed - exchange.firstByte;
+            final long total = System.nanoTime() - exchange.start;
             
-            switch(next)
+            for( ElsockListener l : current )
             {
-                case "0":
-                    result.get(pos++).setStatus(Status.OFF);
-                    break;
-                case "1":
-                    result.get(pos++).setStatus(Status.ON);
-                    break;
-                default:
-                    break;
+                l.requestCompleted(address, operation, connect, firstByte, parse, total);
             }
         }
         
-        return result;
+        return received;
+    }
+    
+    
+    /**
+     * Returns the query for the given data; the query of immutable data is
+     * constructed only once.
+     * 
+     * @param query     Buffer of the query
+     * @param data      Data
+     * @return          Query
+     */
+    private static CharSequence query(StringBuilder query, ElsockData data)
+    {
+        if( data instanceof ImmutableElsockData )
+        {
+            return ((ImmutableElsockData) data).getQuery();
+        }
+        
+        return constructQuery(query, data);
     }
     
     
     /**
-     * Constructs the query url for the given data.
+     * Constructs the query for the given data into <code>query</code>.
      * 
+     * @param query     Buffer of the query; it's cleared first
      * @param data      Data
-     * @return          Query url
-     * @throws          MalformedURLException If a unknown protocol is used
+     * @return          Query
      */
-    private URL constructQuery(ElsockData data) throws MalformedURLException
+    static CharSequence constructQuery(StringBuilder query, ElsockData data)
     {
-        StringBuilder queryStr = new StringBuilder("/q?");
-        int n = data.size();
+        query.setLength(0);
+        query.append("/q?");
+        boolean first = true;
         
         for( ElsockElement element : data.getElements() )
         {
-            queryStr.append("L").append(element.getDevice().getId())
-                    .append("=").append(element.getStatus().getId());
+            if( first == false )
+            {
+                query.append('&');
+            }
+            
+            query.append('L').append(element.getDevice().getId())
+                    .append('=').append(element.getStatus().getId());
+            first = false;
+        }
+        
+        return query;
+    }
+    
+    
+    
+    /**
+     * Status request sent by a background thread; the response is recorded.
+     */
+    private final class HedgedRequest implements Callable<Recording>
+    {
+        private final Operation operation;
+        private final String query;
+        private final Deadline deadline;
+        
+        
+        HedgedRequest(Operation operation, String query, Deadline deadline)
+        {
+            this.operation = operation;
+            this.query = query;
+            this.deadline = deadline;
+        }
+        
+        
+        @Override
+        public Recording call() throws IOException
+        {
+            final Recording recording = new Recording();
+            final Exchange exchange = Exchange.acquire();
+            final Deadline previous = Deadline.enter(deadline);
+            final long start = System.nanoTime();
             
-            if( n-- <= 0 )
+            try
+            {
+                recording.received = attempt(exchange, operation, query, recording);
+                statusLatency.record(System.nanoTime() - start);
+                
+                return recording;
+            }
+            finally
             {
-                break;
+                Deadline.exit(previous);
+                exchange.release();
             }
         }
-
-        return new URL(protocol.getName(), address, queryStr.toString());
+    }
+    
+    
+    
+    /**
+     * Records the status information of a response to replay it later.
+     */
+    private static final class Recording implements StatusSink
+    {
+        private int[] positions;
+        private Status[] values;
+        private int size;
+        private boolean received;
+        
+        
+        Recording()
+        {
+            this.positions = new int[16];
+            this.values = new Status[16];
+            this.size = 0;
+            this.received = false;
+        }
+        
+        
+        @Override
+        public void status(int pos, Status status)
+        {
+            if( size == positions.length )
+            {
+                positions = Arrays.copyOf(positions, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            
+            positions[size] = pos;
+            values[size] = status;
+            size++;
+        }
+        
+        
+        /**
+         * Passes the recorded status information to <code>sink</code>.
+         * 
+         * @param sink      Sink
+         * @return          Returns <tt>true</tt> if there was response data
+         *                  or <tt>false</tt> if the response was empty
+         */
+        boolean replay(StatusSink sink)
+        {
+            for( int i = 0; i < size; i++ )
+            {
+                sink.status(positions[i], values[i]);
+            }
+            
+            return received;
+        }
+    }
+    
+    
+    
+    /**
+     * Executor of hedged requests, created on first use.
+     */
+    private static final class Hedging
+    {
+        private static final ExecutorService EXECUTOR = ( VirtualThreads.isSupported() == true
+                ? VirtualThreads.newExecutor("hedge")
+                : Executors.newCachedThreadPool(new DaemonThreadFactory("hedge")) );
+    }
+    
+    
+    
+    /**
+     * State of a request, reused by all requests of a thread. Timestamps are
+     * only taken if <code>timed</code> is set.
+     */
+    private static final class Exchange implements Transport.ResponseHandler
+    {
+        private final StatusParser parser;
+        private final StringBuilder query;
+        private boolean inUse;
+        private StatusSink sink;
+        private boolean timed;
+        private long start;
+        private long connectNanos;
+        private long firstByte;
+        private long parsed;
+        private int count;
+        
+        
+        Exchange()
+        {
+            this.parser = new StatusParser();
+            this.query = new StringBuilder(64);
+            this.inUse = false;
+        }
+        
+        
+        /**
+         * Returns the exchange of the current thread, or a new one if it's
+         * already in use (eg. a request of a sink or listener).
+         * 
+         * @return      Exchange
+         */
+        static Exchange acquire()
+        {
+            Exchange exchange = EXCHANGE.get();
+            
+            if( exchange.inUse == true )
+            {
+                exchange = new Exchange();
+            }
+            
+            exchange.inUse = true;
+            
+            return exchange;
+        }
+        
+        
+        void release()
+        {
+            sink = null;
+            inUse = false;
+        }
+        
+        
+        void begin(StatusSink sink, boolean timed)
+        {
+            this.sink = sink;
+            this.timed = timed;
+            this.start = ( timed == true ? System.nanoTime() : 0L );
+            this.connectNanos = -1L;
+            this.count = StatusParser.EMPTY;
+        }
+        
+        
+        @Override
+        public void handle(InputStream body) throws IOException
+        {
+            if( timed == true )
+            {
+                firstByte = System.nanoTime();
+                count = parser.parse(body, sink);
+                parsed = System.nanoTime();
+            }
+            else
+            {
+                count = parser.parse(body, sink);
+            }
+        }
+        
+        
+        @Override
+        public void connected(long nanos)
+        {
+            connectNanos = nanos;
+        }
+    }
+    
+    
+    
+    /**
+     * Handler of the responses of a pipelined sequence. Listeners are
+     * notified per response; all times are measured from the start of the
+     * sequence.
+     */
+    private final class Sequence implements Transport.ResponseHandler
+    {
+        private final Operation[] operations;
+        private final ElsockListener[] listeners;
+        private final StatusParser parser;
+        private final long start;
+        private long connectNanos;
+        private int answered;
+        
+        
+        Sequence(Operation[] operations, ElsockListener[] listeners)
+        {
+            this.operations = operations;
+            this.listeners = listeners;
+            this.parser = new StatusParser();
+            this.start = ( listeners.length > 0 ? System.nanoTime() : 0L );
+            this.connectNanos = -1L;
+            this.answered = 0;
+        }
+        
+        
+        @Override
+        public void handle(InputStream body) throws IOException
+        {
+            if( listeners.length == 0 )
+            {
+                parser.parse(body, IGNORE);
+                answered++;
+                return;
+            }
+            
+            final long firstByte = System.nanoTime();
+            parser.parse(body, IGNORE);
+            final long parsed = System.nanoTime();
+            
+            for( ElsockListener l : listeners )
+            {
+                l.requestCompleted(address, operations[answered], connectNanos,
+                        firstByte - start, parsed - firstByte, parsed - start);
+            }
+            
+            connectNanos = -1L;
+            answered++;
+        }
+        
+        
+        @Override
+        public void connected(long nanos)
+        {
+            connectNanos = nanos;
+        }
     }
 }
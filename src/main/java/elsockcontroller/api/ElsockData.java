@@ -34,18 +34,21 @@ import java.util.Objects;
  * <p>Objects of this class are generally used to send or receive data
  * to / from the controller.</p>
  * 
+ * <p>Objects of this class are mutable and not thread-safe; use
+ * {@link ImmutableElsockData} to share data between threads.</p>
+ * 
  * @version     0.1
  * @since       0.0.1
  * @author      offa
  */
 public class ElsockData
 {
-    private List<ElsockElement> elements;
+    private final List<ElsockElement> elements;
     
     
     public ElsockData()
     {
-        this.elements = new ArrayList<>();
+        this(new ArrayList<ElsockElement>());
     }
     
     public ElsockData(Device device, Status status)
@@ -69,6 +72,11 @@ public class ElsockData
         this(Arrays.asList(devices), initStatus);
     }
     
+    ElsockData(List<ElsockElement> elements)
+    {
+        this.elements = elements;
+    }
+    
     
     
     /**
@@ -92,7 +100,7 @@ public class ElsockData
     {
         elements.add(element);
     }
-
+    
     
     /**
      * Returns the list of elements.
@@ -201,7 +209,8 @@ public class ElsockData
     
     
     /**
-     * Tests whether this and <code>obj</code> are equal.
+     * Tests whether this and <code>obj</code> are equal. Mutable and
+     * immutable data with the same elements are equal.
      * 
      * @param obj       Other object
      * @return          Returns <tt>true</tt> if equal or <tt>false</tt> if not
@@ -209,19 +218,16 @@ public class ElsockData
     @Override
     public boolean equals(Object obj)
     {
-        if( obj == null )
-        {
-            return false;
-        }
-        if( getClass() != obj.getClass() )
+        if( obj instanceof ElsockData == false )
         {
             return false;
         }
+        
         final ElsockData other = (ElsockData) obj;
         
         return Objects.equals(this.elements, other.elements);
     }
-
+    
     
     /**
      * The class <code>QueryElement</code> represents a element of a data set.
@@ -231,14 +237,14 @@ public class ElsockData
     {
         private final Device device;
         private Status status;
-
+        
         
         public ElsockElement(Device device, Status status)
         {
             this.device = device;
             this.status = status;
         }
-
+        
         
         /**
          * Returns the device.
@@ -249,7 +255,7 @@ public class ElsockData
         {
             return device;
         }
-
+        
         
         /**
          * Returns the status.
@@ -260,18 +266,20 @@ public class ElsockData
         {
             return status;
         }
-
+        
         
         /**
          * Sets the status.
          * 
          * @param status        Status
+         * @exception           UnsupportedOperationException If the element
+         *                      is part of {@link ImmutableElsockData}
          */
         public void setStatus(Status status)
         {
             this.status = status;
         }
-
+        
         
         /**
          * Returns the string representation.
@@ -284,7 +292,7 @@ public class ElsockData
             return "ElsockElement{" + "device=" + device 
                     + ", status=" + status + '}';
         }
-
+        
         
         /**
          * Returns the hash code.
@@ -299,7 +307,7 @@ public class ElsockData
             hash = 23 * hash + Objects.hashCode(this.status);
             return hash;
         }
-
+        
         
         /**
          * Tests whether this and <code>obj</code> are equal.
@@ -311,12 +319,7 @@ public class ElsockData
         @Override
         public boolean equals(Object obj)
         {
-            if( obj == null )
-            {
-                return false;
-            }
-            
-            if( getClass() != obj.getClass() )
+            if( obj instanceof ElsockElement == false )
             {
                 return false;
             }
@@ -0,0 +1,483 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The class <code>ElsockFleet</code> manages the controllers of many hosts
+ * and executes operations on all of them in parallel.
+ *
+ * <p>At most {@link #getMaxConcurrency() max. concurrency} hosts are
+ * accessed at the same time. A host not answering within the
+ * {@link #getHostTimeout() host timeout} is reported with a
+ * {@link TimeoutException}; a failing host never affects the results of the
+ * others. The host timeout is also passed as {@link Deadline} to the
+ * controllers, so a hung host does not block a worker thread any longer.</p>
+ *
+ * <p>Controllers {@link #add(Protocol, String) created} by the fleet share
+ * one transport per protocol.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class ElsockFleet implements Closeable
+{
+    /** Default number of hosts accessed concurrently. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    /** Default host timeout (ms). */
+    public static final long DEFAULT_HOST_TIMEOUT = 10000;
+    private final Map<String, ElsockController> controllers;
+    private final Map<Protocol, Transport> transports;
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final int maxConcurrency;
+    private final long hostTimeout;
+    
+    
+    public ElsockFleet()
+    {
+        this(DEFAULT_MAX_CONCURRENCY, DEFAULT_HOST_TIMEOUT);
+    }
+    
+    /**
+     * Creates a new fleet.
+     * 
+     * @param maxConcurrency        Maximum number of hosts accessed
+     *                              concurrently
+     * @param hostTimeout           Timeout (ms) per host and operation or
+     *                              <code>0</code> to disable
+     * @exception                   IllegalArgumentException If
+     *                              <code>maxConcurrency</code> is not
+     *                              positive or <code>hostTimeout</code> is
+     *                              negative
+     */
+    public ElsockFleet(int maxConcurrency, long hostTimeout)
+    {
+        if( maxConcurrency < 1 )
+        {
+            throw new IllegalArgumentException("Concurrency must be positive!");
+        }
+        
+        if( hostTimeout < 0 )
+        {
+            throw new IllegalArgumentException("Negative timeout not allowed!");
+        }
+        
+        this.controllers = new LinkedHashMap<>();
+        this.transports = new EnumMap<>(Protocol.class);
+        this.executor = Executors.newFixedThreadPool(maxConcurrency,
+                new DaemonThreadFactory("fleet-worker"));
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("fleet-timer"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.maxConcurrency = maxConcurrency;
+        this.hostTimeout = hostTimeout;
+    }
+    
+    
+    
+    /**
+     * Adds the host at <code>address</code>. If the host is already part of
+     * the fleet, it's controller is returned.
+     * 
+     * @param protocol      Protocol
+     * @param address       Host address
+     * @return              Controller of the host
+     */
+    public synchronized ElsockController add(Protocol protocol, String address)
+    {
+        ElsockController controller = controllers.get(address);
+        
+        if( controller == null )
+        {
+            Transport transport = transports.get(protocol);
+            
+            if( transport == null )
+            {
+                transport = protocol.createTransport();
+                transports.put(protocol, transport);
+            }
+            
+            controller = new ElsockController(protocol, address, transport);
+            controllers.put(address, controller);
+        }
+        
+        return controller;
+    }
+    
+    
+    /**
+     * Adds the <code>controller</code>; an existing controller of the same
+     * host is replaced.
+     * 
+     * @param controller        Controller
+     */
+    public synchronized void add(ElsockController controller)
+    {
+        controllers.put(controller.getAddress(), controller);
+    }
+    
+    
+    /**
+     * Removes the host at <code>address</code>.
+     * 
+     * @param address       Host address
+     * @return              Removed controller or <tt>null</tt> if not found
+     */
+    public synchronized ElsockController remove(String address)
+    {
+        return controllers.remove(address);
+    }
+    
+    
+    /**
+     * Returns the controller of the host at <code>address</code>.
+     * 
+     * @param address       Host address
+     * @return              Controller or <tt>null</tt> if not found
+     */
+    public synchronized ElsockController get(String address)
+    {
+        return controllers.get(address);
+    }
+    
+    
+    /**
+     * Returns the controllers of all hosts.
+     * 
+     * @return      Controllers
+     */
+    public synchronized List<ElsockController> getControllers()
+    {
+        return new ArrayList<>(controllers.values());
+    }
+    
+    
+    /**
+     * Returns the number of hosts.
+     * 
+     * @return      Number of hosts
+     */
+    public synchronized int size()
+    {
+        return controllers.size();
+    }
+    
+    
+    /**
+     * Returns the status information of all hosts.
+     * 
+     * @return      Status information by host
+     * @throws      InterruptedIOException If interrupted while waiting
+     * @see         ElsockController#getStatus()
+     */
+    public FleetResult<ElsockData> getStatusAll() throws InterruptedIOException
+    {
+        return executeAll(new Operation<ElsockData>()
+        {
+            @Override
+            public ElsockData execute(ElsockController controller) throws IOException
+            {
+                return controller.getStatus();
+            }
+        });
+    }
+    
+    
+    /**
+     * Changes the status of the device to <code>status</code> on all hosts.
+     * 
+     * @param device        Device
+     * @param status        New status
+     * @return              Outcome by host
+     * @throws              InterruptedIOException If interrupted while
+     *                      waiting
+     * @see                 ElsockController#sendCommand(Device, Status)
+     */
+    public FleetResult<Void> sendCommandAll(final Device device, final Status status)
+            throws InterruptedIOException
+    {
+        return executeAll(new Operation<Void>()
+        {
+            @Override
+            public Void execute(ElsockController controller) throws IOException
+            {
+                controller.sendCommand(device, status);
+                return null;
+            }
+        });
+    }
+    
+    
+    /**
+     * Changes the status of all devices contained in <code>data</code> on
+     * all hosts.
+     * 
+     * @param data          Devices and their new status
+     * @return              Outcome by host
+     * @throws              InterruptedIOException If interrupted while
+     *                      waiting
+     * @see                 ElsockController#sendCommands(ElsockData)
+     */
+    public FleetResult<Void> sendCommandsAll(final ElsockData data)
+            throws InterruptedIOException
+    {
+        return executeAll(new Operation<Void>()
+        {
+            @Override
+            public Void execute(ElsockController controller) throws IOException
+            {
+                controller.sendCommands(data);
+                return null;
+            }
+        });
+    }
+    
+    
+    /**
+     * Returns the maximum number of hosts accessed concurrently.
+     * 
+     * @return      Maximum concurrency
+     */
+    public int getMaxConcurrency()
+    {
+        return maxConcurrency;
+    }
+    
+    
+    /**
+     * Returns the timeout per host and operation.
+     * 
+     * @return      Timeout (ms) or <code>0</code> if disabled
+     */
+    public long getHostTimeout()
+    {
+        return hostTimeout;
+    }
+    
+    
+    /**
+     * Stops the fleet and closes the transports shared by the controllers it
+     * created. Controllers {@link #add(ElsockController) added} by the caller
+     * are not closed.
+     * 
+     * @throws      IOException On a failure closing a transport
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        executor.shutdownNow();
+        timer.shutdownNow();
+        
+        for( Transport transport : transports.values() )
+        {
+            transport.close();
+        }
+        
+        transports.clear();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "ElsockFleet{" + "hosts=" + size()
+                + ", maxConcurrency=" + maxConcurrency
+                + ", hostTimeout=" + hostTimeout + '}';
+    }
+    
+    
+    /**
+     * Executes the operation on all hosts and waits for the outcome.
+     * 
+     * @param <T>           Type of the results
+     * @param operation     Operation
+     * @return              Outcome by host
+     * @throws              InterruptedIOException If interrupted while
+     *                      waiting
+     */
+    private <T> FleetResult<T> executeAll(Operation<T> operation)
+            throws InterruptedIOException
+    {
+        final List<ElsockController> hosts = getControllers();
+        final CountDownLatch remaining = new CountDownLatch(hosts.size());
+        final List<HostTask<T>> tasks = new ArrayList<>(hosts.size());
+        
+        for( ElsockController controller : hosts )
+        {
+            final HostTask<T> task = new HostTask<>(controller, operation, remaining);
+            tasks.add(task);
+            executor.execute(task);
+        }
+        
+        try
+        {
+            remaining.await();
+        }
+        catch( InterruptedException ex )
+        {
+            for( HostTask<T> task : tasks )
+            {
+                task.cancel(true);
+            }
+            
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for hosts");
+        }
+        
+        final Map<String, T> results = new LinkedHashMap<>();
+        final Map<String, Throwable> errors = new LinkedHashMap<>();
+        
+        for( HostTask<T> task : tasks )
+        {
+            final String address = task.controller.getAddress();
+            
+            try
+            {
+                results.put(address, task.get());
+            }
+            catch( ExecutionException ex )
+            {
+                errors.put(address, ex.getCause());
+            }
+            catch( InterruptedException ex )
+            {
+                // Not possible, all tasks are done
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        return new FleetResult<>(results, errors);
+    }
+    
+    
+    
+    /**
+     * Operation executed per host.
+     * 
+     * @param <T>   Type of the result
+     */
+    private static interface Operation<T>
+    {
+        T execute(ElsockController controller) throws IOException;
+    }
+    
+    
+    
+    /**
+     * Operation on a single host. The host timeout starts once the operation
+     * is started.
+     * 
+     * @param <T>   Type of the result
+     */
+    private class HostTask<T> extends FutureTask<T>
+    {
+        private final ElsockController controller;
+        private final CountDownLatch remaining;
+        private volatile Future<?> timeoutTask;
+        
+        
+        HostTask(final ElsockController controller, final Operation<T> operation,
+                CountDownLatch remaining)
+        {
+            super(new Callable<T>()
+            {
+                @Override
+                public T call() throws IOException
+                {
+                    return operation.execute(controller);
+                }
+            });
+            
+            this.controller = controller;
+            this.remaining = remaining;
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            Deadline deadline = Deadline.NONE;
+            
+            if( hostTimeout > 0 && isDone() == false )
+            {
+                deadline = Deadline.after(hostTimeout, TimeUnit.MILLISECONDS);
+                timeoutTask = timer.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        setException(new TimeoutException("Host timed out: "
+                                + controller.getAddress()));
+                    }
+                }, hostTimeout, TimeUnit.MILLISECONDS);
+            }
+            
+            final Deadline previous = Deadline.enter(deadline);
+            
+            try
+            {
+                super.run();
+            }
+            finally
+            {
+                Deadline.exit(previous);
+            }
+        }
+        
+        
+        @Override
+        protected void done()
+        {
+            final Future<?> task = timeoutTask;
+            
+            if( task != null )
+            {
+                task.cancel(false);
+            }
+            
+            remaining.countDown();
+        }
+    }
+}
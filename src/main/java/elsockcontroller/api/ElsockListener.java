@@ -0,0 +1,65 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+
+/**
+ * The interface <code>ElsockListener</code> is notified about every request
+ * of a {@link ElsockController controller}, eg. to collect
+ * {@link ElsockMetrics metrics}.
+ *
+ * <p>Listeners are called on the requesting thread and should return
+ * quickly.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface ElsockListener
+{
+    /**
+     * Called after a request completed successfully.
+     * 
+     * @param address           Host address
+     * @param operation         Operation
+     * @param connectNanos      Time to open a new connection (ns) or
+     *                          <code>-1</code> if a connection was reused
+     * @param firstByteNanos    Time from the start of the request until the
+     *                          response arrived (ns)
+     * @param parseNanos        Time to process the response (ns)
+     * @param totalNanos        Total time of the request (ns)
+     */
+    void requestCompleted(String address, Operation operation, long connectNanos,
+            long firstByteNanos, long parseNanos, long totalNanos);
+    
+    
+    /**
+     * Called after a request failed.
+     * 
+     * @param address           Host address
+     * @param operation         Operation
+     * @param totalNanos        Time until the failure (ns)
+     * @param cause             Cause of the failure
+     */
+    void requestFailed(String address, Operation operation, long totalNanos,
+            IOException cause);
+}
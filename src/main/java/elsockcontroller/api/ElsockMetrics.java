@@ -0,0 +1,453 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * The class <code>ElsockMetrics</code> collects request counters and
+ * {@link LatencyHistogram latency histograms} per host, operation and
+ * {@link Phase phase}.
+ *
+ * <p>The metrics are enabled by
+ * {@link ElsockController#addListener(ElsockListener) adding} them as
+ * listener of one or more controllers; they can be
+ * {@link #register(String) registered} as MBean.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class ElsockMetrics implements ElsockListener, ElsockMetricsMXBean
+{
+    /** Default JMX object name. */
+    public static final String DEFAULT_OBJECT_NAME = "elsockcontroller:type=ElsockMetrics";
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+    private final ConcurrentMap<Key, Stats> stats;
+    private volatile ObjectName objectName;
+    
+    
+    public ElsockMetrics()
+    {
+        this.stats = new ConcurrentHashMap<>();
+        this.objectName = null;
+    }
+    
+    
+    
+    @Override
+    public void requestCompleted(String address, Operation operation, long connectNanos,
+            long firstByteNanos, long parseNanos, long totalNanos)
+    {
+        final Stats s = stats(address, operation);
+        s.requests.incrementAndGet();
+        s.histogram(Phase.CONNECT).record(connectNanos);
+        s.histogram(Phase.FIRST_BYTE).record(firstByteNanos);
+        s.histogram(Phase.PARSE).record(parseNanos);
+        s.histogram(Phase.TOTAL).record(totalNanos);
+    }
+    
+    
+    @Override
+    public void requestFailed(String address, Operation operation, long totalNanos,
+            IOException cause)
+    {
+        final Stats s = stats(address, operation);
+        s.requests.incrementAndGet();
+        s.failures.incrementAndGet();
+        
+        if( cause instanceof SocketTimeoutException )
+        {
+            s.timeouts.incrementAndGet();
+        }
+    }
+    
+    
+    /**
+     * Returns the histogram of the host, operation and phase.
+     * 
+     * @param address       Host address
+     * @param operation     Operation
+     * @param phase         Phase
+     * @return              Histogram or <tt>null</tt> if nothing was
+     *                      recorded yet
+     */
+    public LatencyHistogram getHistogram(String address, Operation operation, Phase phase)
+    {
+        final Stats s = stats.get(new Key(address, operation));
+        
+        return ( s == null ? null : s.histograms.get(phase.ordinal()) );
+    }
+    
+    
+    /**
+     * Returns the number of requests of the host and operation.
+     * 
+     * @param address       Host address
+     * @param operation     Operation
+     * @return              Number of requests
+     */
+    public long getRequestCount(String address, Operation operation)
+    {
+        final Stats s = stats.get(new Key(address, operation));
+        
+        return ( s == null ? 0L : s.requests.get() );
+    }
+    
+    
+    /**
+     * Returns the number of failures of the host and operation.
+     * 
+     * @param address       Host address
+     * @param operation     Operation
+     * @return              Number of failures
+     */
+    public long getFailureCount(String address, Operation operation)
+    {
+        final Stats s = stats.get(new Key(address, operation));
+        
+        return ( s == null ? 0L : s.failures.get() );
+    }
+    
+    
+    @Override
+    public long getRequestCount()
+    {
+        long sum = 0L;
+        
+        for( Stats s : stats.values() )
+        {
+            sum += s.requests.get();
+        }
+        
+        return sum;
+    }
+    
+    
+    @Override
+    public long getFailureCount()
+    {
+        long sum = 0L;
+        
+        for( Stats s : stats.values() )
+        {
+            sum += s.failures.get();
+        }
+        
+        return sum;
+    }
+    
+    
+    @Override
+    public long getTimeoutCount()
+    {
+        long sum = 0L;
+        
+        for( Stats s : stats.values() )
+        {
+            sum += s.timeouts.get();
+        }
+        
+        return sum;
+    }
+    
+    
+    @Override
+    public Map<String, Long> getRequests()
+    {
+        final Map<String, Long> result = new TreeMap<>();
+        
+        for( Map.Entry<Key, Stats> entry : stats.entrySet() )
+        {
+            result.put(entry.getKey().toString(), entry.getValue().requests.get());
+        }
+        
+        return result;
+    }
+    
+    
+    @Override
+    public Map<String, Long> getFailures()
+    {
+        final Map<String, Long> result = new TreeMap<>();
+        
+        for( Map.Entry<Key, Stats> entry : stats.entrySet() )
+        {
+            result.put(entry.getKey().toString(), entry.getValue().failures.get());
+        }
+        
+        return result;
+    }
+    
+    
+    @Override
+    public Map<String, Long> getTimeouts()
+    {
+        final Map<String, Long> result = new TreeMap<>();
+        
+        for( Map.Entry<Key, Stats> entry : stats.entrySet() )
+        {
+            result.put(entry.getKey().toString(), entry.getValue().timeouts.get());
+        }
+        
+        return result;
+    }
+    
+    
+    @Override
+    public Map<String, Long> getLatencies()
+    {
+        final Map<String, Long> result = new TreeMap<>();
+        
+        for( Map.Entry<Key, Stats> entry : stats.entrySet() )
+        {
+            for( Phase phase : Phase.values() )
+            {
+                final LatencyHistogram histogram = entry.getValue().histograms.get(phase.ordinal());
+                
+                if( histogram == null )
+                {
+                    continue;
+                }
+                
+                final String prefix = entry.getKey() + "/" + phase + "/";
+                
+                for( int i = 0; i < PERCENTILES.length; i++ )
+                {
+                    result.put(prefix + PERCENTILE_NAMES[i],
+                            histogram.getPercentile(PERCENTILES[i]) / 1000L);
+                }
+                
+                result.put(prefix + "max", histogram.getMax() / 1000L);
+            }
+        }
+        
+        return result;
+    }
+    
+    
+    @Override
+    public void reset()
+    {
+        stats.clear();
+    }
+    
+    
+    /**
+     * Registers the metrics at the platform MBean server.
+     * 
+     * @param name      Object name, eg. {@link #DEFAULT_OBJECT_NAME}
+     * @exception       IllegalArgumentException If <code>name</code> is
+     *                  invalid or already registered
+     */
+    public synchronized void register(String name)
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        
+        try
+        {
+            final ObjectName on = new ObjectName(name);
+            server.registerMBean(this, on);
+            objectName = on;
+        }
+        catch( MalformedObjectNameException | InstanceAlreadyExistsException
+                | MBeanRegistrationException | NotCompliantMBeanException ex )
+        {
+            throw new IllegalArgumentException("Registration failed: " + name, ex);
+        }
+    }
+    
+    
+    /**
+     * Unregisters the metrics from the platform MBean server; nothing is done
+     * if they are not registered.
+     */
+    public synchronized void unregister()
+    {
+        if( objectName == null )
+        {
+            return;
+        }
+        
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch( InstanceNotFoundException | MBeanRegistrationException ex )
+        {
+            // Already unregistered
+        }
+        
+        objectName = null;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "ElsockMetrics{" + "requests=" + getRequestCount()
+                + ", failures=" + getFailureCount()
+                + ", timeouts=" + getTimeoutCount() + '}';
+    }
+    
+    
+    private Stats stats(String address, Operation operation)
+    {
+        final Key key = new Key(address, operation);
+        Stats s = stats.get(key);
+        
+        if( s == null )
+        {
+            final Stats created = new Stats();
+            s = stats.putIfAbsent(key, created);
+            
+            if( s == null )
+            {
+                s = created;
+            }
+        }
+        
+        return s;
+    }
+    
+    
+    
+    /**
+     * The enum <code>Phase</code> enumerates the measured phases of a
+     * request.
+     */
+    public static enum Phase
+    {
+        /** Opening a new connection. */
+        CONNECT,
+        /** Sending the query until the response arrived. */
+        FIRST_BYTE,
+        /** Processing the response. */
+        PARSE,
+        /** The whole request. */
+        TOTAL;
+    }
+    
+    
+    
+    /**
+     * Key of the statistics.
+     */
+    private static final class Key
+    {
+        private final String address;
+        private final Operation operation;
+        
+        
+        Key(String address, Operation operation)
+        {
+            this.address = address;
+            this.operation = operation;
+        }
+        
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * address.hashCode() + operation.hashCode();
+        }
+        
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if( obj instanceof Key == false )
+            {
+                return false;
+            }
+            
+            final Key other = (Key) obj;
+            
+            return address.equals(other.address) && operation == other.operation;
+        }
+        
+        
+        @Override
+        public String toString()
+        {
+            return address + "/" + operation;
+        }
+    }
+    
+    
+    
+    /**
+     * Statistics of a host and operation; histograms are created on first
+     * use.
+     */
+    private static final class Stats
+    {
+        private final AtomicLong requests;
+        private final AtomicLong failures;
+        private final AtomicLong timeouts;
+        private final AtomicReferenceArray<LatencyHistogram> histograms;
+        
+        
+        Stats()
+        {
+            this.requests = new AtomicLong();
+            this.failures = new AtomicLong();
+            this.timeouts = new AtomicLong();
+            this.histograms = new AtomicReferenceArray<>(Phase.values().length);
+        }
+        
+        
+        LatencyHistogram histogram(Phase phase)
+        {
+            final LatencyHistogram histogram = histograms.get(phase.ordinal());
+            
+            if( histogram != null )
+            {
+                return histogram;
+            }
+            
+            histograms.compareAndSet(phase.ordinal(), null, new LatencyHistogram());
+            
+            return histograms.get(phase.ordinal());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.Map;
+
+/**
+ * The interface <code>ElsockMetricsMXBean</code> is the JMX view of
+ * {@link ElsockMetrics}.
+ *
+ * <p>Statistics are keyed by <code>host/OPERATION</code>.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface ElsockMetricsMXBean
+{
+    /**
+     * Returns the total number of requests.
+     * 
+     * @return      Number of requests
+     */
+    long getRequestCount();
+    
+    
+    /**
+     * Returns the total number of failed requests.
+     * 
+     * @return      Number of failures
+     */
+    long getFailureCount();
+    
+    
+    /**
+     * Returns the total number of timed out requests.
+     * 
+     * @return      Number of timeouts
+     */
+    long getTimeoutCount();
+    
+    
+    /**
+     * Returns the number of requests per host and operation.
+     * 
+     * @return      Number of requests
+     */
+    Map<String, Long> getRequests();
+    
+    
+    /**
+     * Returns the number of failures per host and operation.
+     * 
+     * @return      Number of failures
+     */
+    Map<String, Long> getFailures();
+    
+    
+    /**
+     * Returns the number of timeouts per host and operation.
+     * 
+     * @return      Number of timeouts
+     */
+    Map<String, Long> getTimeouts();
+    
+    
+    /**
+     * Returns the latency percentiles (µs) per host, operation and phase,
+     * eg. <code>host/GET_STATUS/TOTAL/p99</code>.
+     * 
+     * @return      Latencies (µs)
+     */
+    Map<String, Long> getLatencies();
+    
+    
+    /**
+     * Resets all statistics.
+     */
+    void reset();
+}
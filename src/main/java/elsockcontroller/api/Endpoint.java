@@ -0,0 +1,211 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * The class <code>Endpoint</code> is the resolved form of a host address
+ * (<code>host</code>, <code>host:port</code> or <code>[ipv6]:port</code>).
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class Endpoint
+{
+    private static final int DEFAULT_PORT = 80;
+    private final String host;
+    private final int port;
+    
+    
+    Endpoint(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+    
+    
+    
+    /**
+     * Parses the <code>address</code>. Addresses without a port use the
+     * default http port.
+     * 
+     * @param address       Address
+     * @return              Endpoint
+     * @exception           IllegalArgumentException If the port is invalid
+     */
+    static Endpoint parse(String address)
+    {
+        String host = address;
+        int port = DEFAULT_PORT;
+        
+        if( address.startsWith("[") == true )
+        {
+            final int end = address.indexOf(']');
+            
+            if( end < 0 )
+            {
+                throw new IllegalArgumentException("Invalid address: " + address);
+            }
+            
+            host = address.substring(1, end);
+            
+            if( end + 1 < address.length() && address.charAt(end + 1) == ':' )
+            {
+                port = parsePort(address, address.substring(end + 2));
+            }
+        }
+        else if( address.indexOf(':') == address.lastIndexOf(':')
+                && address.indexOf(':') >= 0 )
+        {
+            final int sep = address.indexOf(':');
+            host = address.substring(0, sep);
+            port = parsePort(address, address.substring(sep + 1));
+        }
+        
+        return new Endpoint(host, port);
+    }
+    
+    
+    /**
+     * Returns the host.
+     * 
+     * @return      Host
+     */
+    String getHost()
+    {
+        return host;
+    }
+    
+    
+    /**
+     * Returns the port.
+     * 
+     * @return      Port
+     */
+    int getPort()
+    {
+        return port;
+    }
+    
+    
+    /**
+     * Returns the value of the <code>Host</code> request header.
+     * 
+     * @return      Host header
+     */
+    String getHostHeader()
+    {
+        final String name = ( host.indexOf(':') >= 0 ? "[" + host + "]" : host );
+        
+        return ( port == DEFAULT_PORT ? name : name + ":" + port );
+    }
+    
+    
+    /**
+     * Returns the socket address of the endpoint; the host gets resolved.
+     * 
+     * @return      Socket address
+     */
+    InetSocketAddress toSocketAddress()
+    {
+        return new InetSocketAddress(host, port);
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "Endpoint{" + "host=" + host + ", port=" + port + '}';
+    }
+    
+    
+    /**
+     * Returns the hash code.
+     * 
+     * @return      Hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        int hash = 7;
+        hash = 53 * hash + Objects.hashCode(this.host);
+        hash = 53 * hash + this.port;
+        return hash;
+    }
+    
+    
+    /**
+     * Tests whether this and <code>obj</code> are equal.
+     * 
+     * @param obj       Other object
+     * @return          Returns <tt>true</tt> if equal or <tt>false</tt> if not
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if( obj == null )
+        {
+            return false;
+        }
+        
+        if( getClass() != obj.getClass() )
+        {
+            return false;
+        }
+        
+        final Endpoint other = (Endpoint) obj;
+        
+        if( !Objects.equals(this.host, other.host) )
+        {
+            return false;
+        }
+        
+        return this.port == other.port;
+    }
+    
+    
+    private static int parsePort(String address, String port)
+    {
+        try
+        {
+            final int value = Integer.parseInt(port);
+            
+            if( value < 1 || value > 0xffff )
+            {
+                throw new IllegalArgumentException("Invalid port: " + address);
+            }
+            
+            return value;
+        }
+        catch( NumberFormatException ex )
+        {
+            throw new IllegalArgumentException("Invalid port: " + address, ex);
+        }
+    }
+}
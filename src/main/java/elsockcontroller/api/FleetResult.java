@@ -0,0 +1,121 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The class <code>FleetResult</code> holds the outcome of an operation
+ * executed on all hosts of an {@link ElsockFleet}. Each host address is
+ * either mapped to a result or to the error of it's operation.
+ *
+ * @param <T>   Type of the results
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class FleetResult<T>
+{
+    private final Map<String, T> results;
+    private final Map<String, Throwable> errors;
+    
+    
+    FleetResult(Map<String, T> results, Map<String, Throwable> errors)
+    {
+        this.results = Collections.unmodifiableMap(results);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+    
+    
+    
+    /**
+     * Returns the results of all successful hosts.
+     * 
+     * @return      Results by host address
+     */
+    public Map<String, T> getResults()
+    {
+        return results;
+    }
+    
+    
+    /**
+     * Returns the errors of all failed hosts.
+     * 
+     * @return      Errors by host address
+     */
+    public Map<String, Throwable> getErrors()
+    {
+        return errors;
+    }
+    
+    
+    /**
+     * Returns the result of the host at <code>address</code>.
+     * 
+     * @param address       Host address
+     * @return              Result or <tt>null</tt> if failed or not part of
+     *                      the fleet
+     */
+    public T get(String address)
+    {
+        return results.get(address);
+    }
+    
+    
+    /**
+     * Returns the error of the host at <code>address</code>.
+     * 
+     * @param address       Host address
+     * @return              Error or <tt>null</tt> if successful or not part
+     *                      of the fleet
+     */
+    public Throwable getError(String address)
+    {
+        return errors.get(address);
+    }
+    
+    
+    /**
+     * Returns whether the operation succeeded on all hosts.
+     * 
+     * @return      Returns <tt>true</tt> if there are no errors or
+     *              <tt>false</tt> otherwise
+     */
+    public boolean isComplete()
+    {
+        return errors.isEmpty();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "FleetResult{" + "results=" + results + ", errors=" + errors + '}';
+    }
+}
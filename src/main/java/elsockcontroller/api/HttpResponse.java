@@ -0,0 +1,437 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The class <code>HttpResponse</code> reads a HTTP/1.x response from a
+ * stream. The body is exposed as a stream that is limited to the message, so
+ * the connection can be reused afterwards if the server allows it.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class HttpResponse
+{
+    private static final int MAX_LINE_LENGTH = 8192;
+    private final int statusCode;
+    private final boolean keepAlive;
+    private final InputStream body;
+    
+    
+    private HttpResponse(int statusCode, boolean keepAlive, InputStream body)
+    {
+        this.statusCode = statusCode;
+        this.keepAlive = keepAlive;
+        this.body = body;
+    }
+    
+    
+    
+    /**
+     * Reads the status line and headers from <code>in</code>.
+     * 
+     * @param in        Stream
+     * @return          Response
+     * @throws          EOFException If the stream ends before the status line
+     * @throws          IOException On a read failure or malformed response
+     */
+    static HttpResponse read(InputStream in) throws IOException
+    {
+        final String statusLine = readLine(in);
+        
+        if( statusLine == null )
+        {
+            throw new EOFException("Connection closed by host");
+        }
+        
+        if( statusLine.startsWith("HTTP/1.") == false || statusLine.length() < 12 )
+        {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        
+        final int statusCode;
+        
+        try
+        {
+            statusCode = Integer.parseInt(statusLine.substring(9, 12));
+        }
+        catch( NumberFormatException ex )
+        {
+            throw new IOException("Malformed status line: " + statusLine, ex);
+        }
+        
+        boolean keepAlive = statusLine.startsWith("HTTP/1.1");
+        boolean chunked = false;
+        long contentLength = -1;
+        String line;
+        
+        while( ( line = readLine(in) ) != null && line.isEmpty() == false )
+        {
+            final int sep = line.indexOf(':');
+            
+            if( sep <= 0 )
+            {
+                continue;
+            }
+            
+            final String name = line.substring(0, sep).trim();
+            final String value = line.substring(sep + 1).trim();
+            
+            if( name.equalsIgnoreCase("Content-Length") == true )
+            {
+                try
+                {
+                    contentLength = Long.parseLong(value);
+                }
+                catch( NumberFormatException ex )
+                {
+                    throw new IOException("Malformed content length: " + value, ex);
+                }
+            }
+            else if( name.equalsIgnoreCase("Transfer-Encoding") == true )
+            {
+                chunked = value.toLowerCase().contains("chunked");
+            }
+            else if( name.equalsIgnoreCase("Connection") == true )
+            {
+                if( value.equalsIgnoreCase("close") == true )
+                {
+                    keepAlive = false;
+                }
+                else if( value.equalsIgnoreCase("keep-alive") == true )
+                {
+                    keepAlive = true;
+                }
+            }
+        }
+        
+        if( line == null )
+        {
+            throw new EOFException("Connection closed within headers");
+        }
+        
+        final InputStream body;
+        
+        if( chunked == true )
+        {
+            body = new ChunkedInputStream(in);
+        }
+        else if( contentLength >= 0 )
+        {
+            body = new FixedLengthInputStream(in, contentLength);
+        }
+        else
+        {
+            // Without a length, the body is delimited by closing the connection
+            body = new FixedLengthInputStream(in, Long.MAX_VALUE);
+            keepAlive = false;
+        }
+        
+        return new HttpResponse(statusCode, keepAlive, body);
+    }
+    
+    
+    /**
+     * Returns the status code.
+     * 
+     * @return      Status code
+     */
+    int getStatusCode()
+    {
+        return statusCode;
+    }
+    
+    
+    /**
+     * Returns whether the connection can be reused once the body is drained.
+     * 
+     * @return      Returns <tt>true</tt> if reusable or <tt>false</tt> if the
+     *              connection has to be closed
+     */
+    boolean isKeepAlive()
+    {
+        return keepAlive;
+    }
+    
+    
+    /**
+     * Returns the body. Closing the body has no effect on the connection.
+     * 
+     * @return      Body
+     */
+    InputStream getBody()
+    {
+        return body;
+    }
+    
+    
+    /**
+     * Skips the remaining body.
+     * 
+     * @throws      IOException On a read failure
+     */
+    void drain() throws IOException
+    {
+        // Usually the body is already consumed; reads are buffered by the
+        // transport, so no buffer is allocated here
+        while( body.read() >= 0 )
+        {
+            // Discard
+        }
+    }
+    
+    
+    /**
+     * Reads a <code>CRLF</code> (or <code>LF</code>) terminated line.
+     * 
+     * @param in        Stream
+     * @return          Line without terminator or <tt>null</tt> on end of
+     *                  stream
+     * @throws          IOException On a read failure or an overlong line
+     */
+    private static String readLine(InputStream in) throws IOException
+    {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        
+        while( ( c = in.read() ) >= 0 )
+        {
+            if( c == '\n' )
+            {
+                final int len = line.length();
+                
+                if( len > 0 && line.charAt(len - 1) == '\r' )
+                {
+                    line.setLength(len - 1);
+                }
+                
+                return line.toString();
+            }
+            
+            if( line.length() >= MAX_LINE_LENGTH )
+            {
+                throw new IOException("Line too long");
+            }
+            
+            line.append((char) c);
+        }
+        
+        return ( line.length() == 0 ? null : line.toString() );
+    }
+    
+    
+    
+    /**
+     * Stream limited to a number of bytes.
+     */
+    private static class FixedLengthInputStream extends InputStream
+    {
+        private final InputStream in;
+        private long remaining;
+        
+        
+        FixedLengthInputStream(InputStream in, long length)
+        {
+            this.in = in;
+            this.remaining = length;
+        }
+        
+        
+        @Override
+        public int read() throws IOException
+        {
+            if( remaining <= 0 )
+            {
+                return -1;
+            }
+            
+            final int c = in.read();
+            
+            if( c < 0 )
+            {
+                remaining = 0;
+            }
+            else
+            {
+                remaining--;
+            }
+            
+            return c;
+        }
+        
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if( remaining <= 0 )
+            {
+                return -1;
+            }
+            
+            final int n = in.read(b, off, (int) Math.min(len, remaining));
+            
+            if( n < 0 )
+            {
+                remaining = 0;
+            }
+            else
+            {
+                remaining -= n;
+            }
+            
+            return n;
+        }
+        
+        
+        @Override
+        public void close()
+        {
+            // The underlying connection is managed by the transport
+        }
+    }
+    
+    
+    
+    /**
+     * Stream decoding a chunked body.
+     */
+    private static class ChunkedInputStream extends InputStream
+    {
+        private final InputStream in;
+        private long chunkRemaining;
+        private boolean eof;
+        
+        
+        ChunkedInputStream(InputStream in)
+        {
+            this.in = in;
+            this.chunkRemaining = 0;
+            this.eof = false;
+        }
+        
+        
+        @Override
+        public int read() throws IOException
+        {
+            if( nextChunk() == false )
+            {
+                return -1;
+            }
+            
+            final int c = in.read();
+            
+            if( c < 0 )
+            {
+                throw new EOFException("Connection closed within chunk");
+            }
+            
+            chunkRemaining--;
+            
+            return c;
+        }
+        
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if( nextChunk() == false )
+            {
+                return -1;
+            }
+            
+            final int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            
+            if( n < 0 )
+            {
+                throw new EOFException("Connection closed within chunk");
+            }
+            
+            chunkRemaining -= n;
+            
+            return n;
+        }
+        
+        
+        @Override
+        public void close()
+        {
+            // The underlying connection is managed by the transport
+        }
+        
+        
+        private boolean nextChunk() throws IOException
+        {
+            if( eof == true )
+            {
+                return false;
+            }
+            
+            if( chunkRemaining > 0 )
+            {
+                return true;
+            }
+            
+            String line = readLine(in);
+            
+            if( line != null && line.isEmpty() == true )
+            {
+                // Terminator of the previous chunk
+                line = readLine(in);
+            }
+            
+            if( line == null )
+            {
+                throw new EOFException("Connection closed within chunked body");
+            }
+            
+            final int ext = line.indexOf(';');
+            
+            try
+            {
+                chunkRemaining = Long.parseLong(( ext < 0 ? line : line.substring(0, ext) ).trim(), 16);
+            }
+            catch( NumberFormatException ex )
+            {
+                throw new IOException("Malformed chunk size: " + line, ex);
+            }
+            
+            if( chunkRemaining == 0 )
+            {
+                // Skip trailers
+                while( ( line = readLine(in) ) != null && line.isEmpty() == false )
+                {
+                    // Discard
+                }
+                
+                eof = true;
+                
+                return false;
+            }
+            
+            return true;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The class <code>ImmutableElsockData</code> is an immutable
+ * {@link ElsockData}. It can be shared between threads, cached and
+ * published without copying.
+ *
+ * <p>Elements are shared: there is only one (immutable) element per device
+ * and status, and {@link #with(Device, Status) modified copies} share all
+ * unchanged elements with the original. Data is created by a
+ * {@link Builder} or {@link #copyOf(ElsockData) copied} from mutable
+ * data.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class ImmutableElsockData extends ElsockData
+{
+    /** Data without elements. */
+    public static final ImmutableElsockData EMPTY = new ImmutableElsockData(new ElsockElement[0]);
+    private static final ElsockElement[][] ELEMENTS;
+    private final ElsockElement[] elements;
+    private String query;
+    
+    static
+    {
+        ELEMENTS = new ElsockElement[Device.values().length][Status.values().length];
+        
+        for( Device dev : Device.values() )
+        {
+            for( Status status : Status.values() )
+            {
+                ELEMENTS[dev.ordinal()][status.ordinal()] = new SharedElement(dev, status);
+            }
+        }
+    }
+    
+    
+    private ImmutableElsockData(ElsockElement[] elements)
+    {
+        super(Collections.unmodifiableList(Arrays.asList(elements)));
+        this.elements = elements;
+        this.query = null;
+    }
+    
+    
+    
+    /**
+     * Returns an immutable copy of <code>data</code>; immutable data is
+     * returned as it is.
+     * 
+     * @param data      Data
+     * @return          Immutable data
+     */
+    public static ImmutableElsockData copyOf(ElsockData data)
+    {
+        if( data instanceof ImmutableElsockData )
+        {
+            return (ImmutableElsockData) data;
+        }
+        
+        final Builder builder = new Builder(data.size());
+        
+        for( ElsockElement element : data.getElements() )
+        {
+            builder.add(element.getDevice(), element.getStatus());
+        }
+        
+        return builder.build();
+    }
+    
+    
+    /**
+     * Returns the data of a single element.
+     * 
+     * @param device        Device
+     * @param status        Status
+     * @return              Data
+     */
+    public static ImmutableElsockData of(Device device, Status status)
+    {
+        return new ImmutableElsockData(new ElsockElement[] { element(device, status) });
+    }
+    
+    
+    /**
+     * Returns the data of all <code>devices</code> with the same status.
+     * 
+     * @param devices       Devices
+     * @param status        Status
+     * @return              Data
+     */
+    public static ImmutableElsockData of(List<Device> devices, Status status)
+    {
+        final ElsockElement[] result = new ElsockElement[devices.size()];
+        
+        for( int i = 0; i < result.length; i++ )
+        {
+            result[i] = element(devices.get(i), status);
+        }
+        
+        return new ImmutableElsockData(result);
+    }
+    
+    
+    /**
+     * Returns a new builder.
+     * 
+     * @return      Builder
+     */
+    public static Builder builder()
+    {
+        return new Builder(8);
+    }
+    
+    
+    /**
+     * Returns a builder initialized with the elements of this data.
+     * 
+     * @return      Builder
+     */
+    public Builder toBuilder()
+    {
+        return new Builder(elements);
+    }
+    
+    
+    /**
+     * Returns a copy with device <code>device</code> set to
+     * <code>status</code>; the element is appended if the device is not
+     * contained yet. All other elements are shared with this data.
+     * 
+     * @param device        Device
+     * @param status        Status
+     * @return              Data
+     */
+    public ImmutableElsockData with(Device device, Status status)
+    {
+        final ElsockElement replacement = element(device, status);
+        
+        for( int i = 0; i < elements.length; i++ )
+        {
+            if( elements[i].getDevice() == device )
+            {
+                if( elements[i] == replacement )
+                {
+                    return this;
+                }
+                
+                final ElsockElement[] result = elements.clone();
+                result[i] = replacement;
+                
+                return new ImmutableElsockData(result);
+            }
+        }
+        
+        final ElsockElement[] result = Arrays.copyOf(elements, elements.length + 1);
+        result[elements.length] = replacement;
+        
+        return new ImmutableElsockData(result);
+    }
+    
+    
+    /**
+     * Not supported, the data is immutable.
+     * 
+     * @param device        Device
+     * @param status        Status
+     * @exception           UnsupportedOperationException Always
+     */
+    @Override
+    public void insert(Device device, Status status)
+    {
+        throw new UnsupportedOperationException("Immutable data");
+    }
+    
+    
+    /**
+     * Not supported, the data is immutable.
+     * 
+     * @param element       Element
+     * @exception           UnsupportedOperationException Always
+     */
+    @Override
+    public void insert(ElsockElement element)
+    {
+        throw new UnsupportedOperationException("Immutable data");
+    }
+    
+    
+    /**
+     * Returns the query of the data, which is constructed on first use.
+     * 
+     * @return      Query
+     */
+    String getQuery()
+    {
+        String result = query;
+        
+        if( result == null )
+        {
+            // Racy but benign, the query is always the same
+            result = ElsockController.constructQuery(new StringBuilder(), this).toString();
+            query = result;
+        }
+        
+        return result;
+    }
+    
+    
+    /**
+     * Returns the shared element of <code>device</code> and
+     * <code>status</code>.
+     * 
+     * @param device        Device
+     * @param status        Status
+     * @return              Element
+     */
+    private static ElsockElement element(Device device, Status status)
+    {
+        return ELEMENTS[device.ordinal()][status.ordinal()];
+    }
+    
+    
+    
+    /**
+     * Element shared by all immutable data.
+     */
+    private static final class SharedElement extends ElsockElement
+    {
+        SharedElement(Device device, Status status)
+        {
+            super(device, status);
+        }
+        
+        
+        @Override
+        public void setStatus(Status status)
+        {
+            throw new UnsupportedOperationException("Immutable element");
+        }
+    }
+    
+    
+    
+    /**
+     * The class <code>Builder</code> collects elements and builds immutable
+     * data of them. A builder is not thread-safe, but may be reused after
+     * {@link #build() building}.
+     */
+    public static final class Builder
+    {
+        private ElsockElement[] elements;
+        private int size;
+        
+        
+        private Builder(int capacity)
+        {
+            this.elements = new ElsockElement[Math.max(capacity, 1)];
+            this.size = 0;
+        }
+        
+        private Builder(ElsockElement[] initial)
+        {
+            this.elements = Arrays.copyOf(initial, Math.max(initial.length, 1));
+            this.size = initial.length;
+        }
+        
+        
+        /**
+         * Appends an element.
+         * 
+         * @param device        Device
+         * @param status        Status
+         * @return              Builder
+         */
+        public Builder add(Device device, Status status)
+        {
+            if( size == elements.length )
+            {
+                elements = Arrays.copyOf(elements, size * 2);
+            }
+            
+            elements[size++] = element(device, status);
+            
+            return this;
+        }
+        
+        
+        /**
+         * Sets device <code>device</code> to <code>status</code>; the
+         * element is appended if the device is not contained yet.
+         * 
+         * @param device        Device
+         * @param status        Status
+         * @return              Builder
+         */
+        public Builder set(Device device, Status status)
+        {
+            for( int i = 0; i < size; i++ )
+            {
+                if( elements[i].getDevice() == device )
+                {
+                    elements[i] = element(device, status);
+                    return this;
+                }
+            }
+            
+            return add(device, status);
+        }
+        
+        
+        /**
+         * Removes all elements.
+         * 
+         * @return      Builder
+         */
+        public Builder clear()
+        {
+            Arrays.fill(elements, 0, size, null);
+            size = 0;
+            
+            return this;
+        }
+        
+        
+        /**
+         * Builds the data.
+         * 
+         * @return      Data
+         */
+        public ImmutableElsockData build()
+        {
+            if( size == 0 )
+            {
+                return EMPTY;
+            }
+            
+            return new ImmutableElsockData(Arrays.copyOf(elements, size));
+        }
+    }
+}
@@ -0,0 +1,844 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class <code>KeepAliveTransport</code> sends queries over persistent
+ * HTTP/1.1 connections. A small number of idle connections is kept per
+ * address and reused by subsequent queries; idle connections are closed
+ * after the {@link #getIdleTimeout() idle timeout}, checked once a second by
+ * a background thread shared by all transports.
+ *
+ * <p>If the host closes the connection after each response (HTTP/1.0 or
+ * <code>Connection: close</code>), the transport falls back to one
+ * connection per query.</p>
+ *
+ * <p>Several queries to the same host can be
+ * {@link #executeAll(String, List, int, Deadline, Transport.ResponseHandler)
+ * pipelined} on one connection.</p>
+ *
+ * <p>The transport blocks only in socket I/O and never while holding a
+ * monitor, so it can be used from virtual threads without pinning their
+ * carrier threads.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class KeepAliveTransport implements PipeliningTransport
+{
+    /**
+     * Default number of idle connections per address; boards have only a few
+     * sockets in total.
+     */
+    public static final int DEFAULT_MAX_IDLE = 1;
+    /** Default idle timeout (ms). */
+    public static final long DEFAULT_IDLE_TIMEOUT = 15000;
+    private static final long EVICT_INTERVAL = 1000;
+    private static final ScheduledThreadPoolExecutor SWEEPER;
+    private final Target.Cache targets;
+    private final Map<Endpoint, Deque<Connection>> pool;
+    private final Lock lock;
+    private final int maxIdle;
+    private final long idleTimeout;
+    private final Future<?> sweep;
+    private boolean closed;
+    
+    static
+    {
+        SWEEPER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("keepalive-sweep"));
+        SWEEPER.setRemoveOnCancelPolicy(true);
+    }
+    
+    
+    public KeepAliveTransport()
+    {
+        this(DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT);
+    }
+    
+    /**
+     * Creates a new transport.
+     * 
+     * @param maxIdle           Maximum number of idle connections per address
+     * @param idleTimeout       Time (ms) after which idle connections are
+     *                          closed
+     * @exception               IllegalArgumentException If a value is
+     *                          negative
+     */
+    public KeepAliveTransport(int maxIdle, long idleTimeout)
+    {
+        if( maxIdle < 0 || idleTimeout < 0 )
+        {
+            throw new IllegalArgumentException("Negative value not allowed!");
+        }
+        
+        this.targets = new Target.Cache();
+        this.pool = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.closed = false;
+        
+        final long interval = Math.max(1L, Math.min(idleTimeout, EVICT_INTERVAL));
+        final Sweep task = new Sweep(this);
+        this.sweep = SWEEPER.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+        task.future = sweep;
+    }
+    
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>An idempotent query, one without a {@link Status#TOGGLE TOGGLE},
+     * on a reused connection that fails before any response byte was
+     * received is sent once more on a new connection, as the host may have
+     * closed the idle connection in the meantime. Other queries may have
+     * been executed by the host, so the failure is thrown instead.</p>
+     */
+    @Override
+    public void execute(String address, CharSequence query, int timeout, Deadline deadline,
+            ResponseHandler handler) throws IOException
+    {
+        final Target target = targets.get(address);
+        final Endpoint endpoint = target.getEndpoint();
+        Connection conn = acquire(endpoint);
+        
+        if( conn != null )
+        {
+            try
+            {
+                execute(target, conn, query, deadline, handler);
+                return;
+            }
+            catch( StaleConnectionException ex )
+            {
+                // Retry on a new connection
+            }
+        }
+        
+        final long start = System.nanoTime();
+        conn = Connection.open(endpoint, deadline.toTimeout(timeout));
+        handler.connected(System.nanoTime() - start);
+        
+        execute(target, conn, query, deadline, handler);
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>All queries are written to one connection at once, so the host may
+     * read all of them before answering the first. If the host closes the
+     * connection after a complete response, it didn't process the following
+     * queries; they are sent once more one by one. If the connection fails
+     * or the host answers out of spec, the unanswered queries may have been
+     * executed already; they are only sent once more if all are idempotent,
+     * else the call fails. The host is not pipelined again in either
+     * case.</p>
+     */
+    @Override
+    public void executeAll(String address, List<? extends CharSequence> queries, int timeout,
+            Deadline deadline, ResponseHandler handler) throws IOException
+    {
+        final Target target = targets.get(address);
+        int answered = 0;
+        
+        if( target.isPipelining() == true && queries.size() > 1 )
+        {
+            final Endpoint endpoint = target.getEndpoint();
+            Connection conn = acquire(endpoint);
+            boolean sent = false;
+            
+            if( conn != null )
+            {
+                try
+                {
+                    answered = pipeline(target, conn, queries, deadline, handler);
+                    sent = true;
+                }
+                catch( StaleConnectionException ex )
+                {
+                    // Retry on a new connection
+                }
+            }
+            
+            if( sent == false )
+            {
+                final long start = System.nanoTime();
+                conn = Connection.open(endpoint, deadline.toTimeout(timeout));
+                handler.connected(System.nanoTime() - start);
+                
+                answered = pipeline(target, conn, queries, deadline, handler);
+            }
+        }
+        
+        for( int i = answered; i < queries.size(); i++ )
+        {
+            execute(address, queries.get(i), timeout, deadline, handler);
+        }
+    }
+    
+    
+    /**
+     * Returns the maximum number of idle connections per address.
+     * 
+     * @return      Maximum number of idle connections
+     */
+    public int getMaxIdle()
+    {
+        return maxIdle;
+    }
+    
+    
+    /**
+     * Returns the idle timeout.
+     * 
+     * @return      Idle timeout (ms)
+     */
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+    
+    
+    /**
+     * Returns the number of idle connections.
+     * 
+     * @return      Number of idle connections
+     */
+    public int getIdleCount()
+    {
+        lock.lock();
+        
+        try
+        {
+            int count = 0;
+            
+            for( Deque<Connection> idle : pool.values() )
+            {
+                count += idle.size();
+            }
+            
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Closes all idle connections. Connections in use get closed once their
+     * query completed.
+     */
+    @Override
+    public void close()
+    {
+        sweep.cancel(false);
+        lock.lock();
+        
+        try
+        {
+            closed = true;
+            
+            for( Deque<Connection> idle : pool.values() )
+            {
+                for( Connection conn : idle )
+                {
+                    conn.close();
+                }
+            }
+            
+            pool.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "KeepAliveTransport{" + "maxIdle=" + maxIdle
+                + ", idleTimeout=" + idleTimeout + '}';
+    }
+    
+    
+    /**
+     * Executes the request on the connection. The connection is released to
+     * the pool or closed afterwards.
+     * 
+     * @param target        Target
+     * @param conn          Connection
+     * @param query         Query
+     * @param deadline      Deadline of the query
+     * @param handler       Handler of the response body
+     * @throws              StaleConnectionException If a reused connection
+     *                      failed before any response data was received and
+     *                      the queries are idempotent
+     * @throws              IOException On a network failure or timeout
+     */
+    private void execute(Target target, Connection conn, CharSequence query,
+            Deadline deadline, ResponseHandler handler) throws IOException
+    {
+        final Endpoint endpoint = target.getEndpoint();
+        boolean reusable = false;
+        
+        try
+        {
+            conn.in.deadline = deadline;
+            
+            
+            final HttpResponse response;
+            
+            try
+            {
+                conn.write(target, query);
+                response = HttpResponse.read(conn.in);
+            }
+            catch( IOException ex )
+            {
+                if( conn.reused == true && conn.in.received() == false
+                        && ex instanceof SocketTimeoutException == false
+                        && RetryPolicy.isIdempotent(query) == true )
+                {
+                    throw new StaleConnectionException(ex);
+                }
+                
+                throw ex;
+            }
+            
+            if( response.getStatusCode() / 100 != 2 )
+            {
+                response.drain();
+                reusable = response.isKeepAlive();
+                
+                throw new IOException("Server returned HTTP response code: "
+                        + response.getStatusCode() + " from: " + endpoint.getHostHeader());
+            }
+            
+            handler.handle(response.getBody());
+            response.drain();
+            reusable = response.isKeepAlive();
+        }
+        finally
+        {
+            if( reusable == true )
+            {
+                release(endpoint, conn);
+            }
+            else
+            {
+                conn.close();
+            }
+        }
+    }
+    
+    
+    /**
+     * Pipelines the queries on the connection. The connection is released
+     * to the pool or closed afterwards.
+     * 
+     * @param target        Target
+     * @param conn          Connection
+     * @param queries       Queries
+     * @param deadline      Deadline of the queries
+     * @param handler       Handler of the response bodies
+     * @return              Number of answered queries; less than all if the
+     *                      host closed the connection after a complete
+     *                      response, or if it failed or answered out of spec
+     *                      and all unanswered queries are idempotent
+     * @throws              StaleConnectionException If a reused connection
+     *                      failed before any response data was received and
+     *                      the queries are idempotent
+     * @throws              IOException On a network failure, timeout or
+     *                      error response, or if the connection failed with
+     *                      unanswered queries the host may have executed
+     */
+    private int pipeline(Target target, Connection conn, List<? extends CharSequence> queries,
+            Deadline deadline, ResponseHandler handler) throws IOException
+    {
+        final Endpoint endpoint = target.getEndpoint();
+        boolean reusable = false;
+        int answered = 0;
+        
+        try
+        {
+            conn.in.deadline = deadline;
+            
+            try
+            {
+                conn.writeAll(target, queries);
+            }
+            catch( IOException ex )
+            {
+                if( conn.reused == true && RetryPolicy.isIdempotent(queries) == true )
+                {
+                    throw new StaleConnectionException(ex);
+                }
+                
+                throw ex;
+            }
+            
+            while( answered < queries.size() )
+            {
+                final HttpResponse response;
+                conn.in.clearReceived();
+                
+                try
+                {
+                    response = HttpResponse.read(conn.in);
+                }
+                catch( SocketTimeoutException ex )
+                {
+                    throw ex;
+                }
+                catch( IOException ex )
+                {
+                    if( answered == 0 && conn.reused == true && conn.in.received() == false
+                            && RetryPolicy.isIdempotent(queries) == true )
+                    {
+                        throw new StaleConnectionException(ex);
+                    }
+                    
+                    // Closed early or out of spec; the host may have read
+                    // and executed any unanswered query
+                    target.disablePipelining();
+                    
+                    if( RetryPolicy.isIdempotent(queries.subList(answered, queries.size())) == false )
+                    {
+                        throw new IOException("Connection failed with "
+                                + ( queries.size() - answered ) + " unanswered queries from: "
+                                + endpoint.getHostHeader(), ex);
+                    }
+                    
+                    return answered;
+                }
+                
+                if( response.getStatusCode() / 100 != 2 )
+                {
+                    throw new IOException("Server returned HTTP response code: "
+                            + response.getStatusCode() + " from: " + endpoint.getHostHeader());
+                }
+                
+                handler.handle(response.getBody());
+                response.drain();
+                answered++;
+                
+                if( response.isKeepAlive() == false )
+                {
+                    if( answered < queries.size() )
+                    {
+                        target.disablePipelining();
+                    }
+                    
+                    return answered;
+                }
+            }
+            
+            reusable = true;
+            
+            return answered;
+        }
+        finally
+        {
+            if( reusable == true )
+            {
+                release(endpoint, conn);
+            }
+            else
+            {
+                conn.close();
+            }
+        }
+    }
+    
+    
+    /**
+     * Takes an idle connection of the <code>endpoint</code> from the pool.
+     * 
+     * @param endpoint      Endpoint
+     * @return              Connection or <tt>null</tt> if there's none
+     */
+    private Connection acquire(Endpoint endpoint)
+    {
+        final Connection conn;
+        lock.lock();
+        
+        try
+        {
+            final Deque<Connection> idle = pool.get(endpoint);
+            
+            if( idle == null )
+            {
+                return null;
+            }
+            
+            evictExpired(System.nanoTime());
+            conn = idle.pollLast();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        if( conn != null )
+        {
+            conn.reused = true;
+            conn.in.clearReceived();
+        }
+        
+        return conn;
+    }
+    
+    
+    /**
+     * Returns the connection to the pool.
+     * 
+     * @param endpoint      Endpoint
+     * @param conn          Connection
+     */
+    private void release(Endpoint endpoint, Connection conn)
+    {
+        final long now = System.nanoTime();
+        lock.lock();
+        
+        try
+        {
+            evictExpired(now);
+            
+            Deque<Connection> idle = pool.get(endpoint);
+            
+            if( idle == null )
+            {
+                idle = new ArrayDeque<>();
+                pool.put(endpoint, idle);
+            }
+            
+            if( closed == false && idle.size() < maxIdle )
+            {
+                conn.lastUsed = now;
+                idle.addLast(conn);
+                return;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        conn.close();
+    }
+    
+    
+    /**
+     * Closes all connections idle for longer than the idle timeout; the lock
+     * must be held.
+     * 
+     * @param now       Current time (ns)
+     */
+    private void evictExpired(long now)
+    {
+        final long timeoutNanos = idleTimeout * 1000000L;
+        final Iterator<Deque<Connection>> itr = pool.values().iterator();
+        
+        while( itr.hasNext() == true )
+        {
+            final Deque<Connection> idle = itr.next();
+            
+            // Oldest connections are at the head
+            while( idle.isEmpty() == false
+                    && now - idle.peekFirst().lastUsed >= timeoutNanos )
+            {
+                idle.pollFirst().close();
+            }
+            
+            if( idle.isEmpty() == true )
+            {
+                itr.remove();
+            }
+        }
+    }
+    
+    
+    /**
+     * Periodic eviction of the idle connections of a transport; the
+     * transport is only weakly referenced, so an unclosed one can still be
+     * collected.
+     */
+    private static class Sweep implements Runnable
+    {
+        private final WeakReference<KeepAliveTransport> transport;
+        private volatile Future<?> future;
+        
+        
+        Sweep(KeepAliveTransport transport)
+        {
+            this.transport = new WeakReference<>(transport);
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            final KeepAliveTransport current = transport.get();
+            
+            if( current == null )
+            {
+                future.cancel(false);
+                return;
+            }
+            
+            current.lock.lock();
+            
+            try
+            {
+                current.evictExpired(System.nanoTime());
+            }
+            finally
+            {
+                current.lock.unlock();
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Persistent connection.
+     */
+    private static class Connection
+    {
+        private final Socket socket;
+        private final TrackingInputStream in;
+        private final OutputStream out;
+        private byte[] request;
+        private boolean reused;
+        private long lastUsed;
+        
+        
+        Connection(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.in = new TrackingInputStream(socket, new BufferedInputStream(socket.getInputStream()));
+            this.out = socket.getOutputStream();
+            this.request = new byte[128];
+            this.reused = false;
+        }
+        
+        
+        /**
+         * Encodes the request into the buffer of the connection and sends it.
+         * 
+         * @param target        Target
+         * @param query         Query (ASCII)
+         * @throws              IOException On a write failure
+         */
+        void write(Target target, CharSequence query) throws IOException
+        {
+            final int length = target.requestLength(query);
+            
+            if( request.length < length )
+            {
+                request = new byte[Math.max(length, request.length * 2)];
+            }
+            
+            target.encode(query, request, 0);
+            out.write(request, 0, length);
+            out.flush();
+        }
+        
+        
+        /**
+         * Encodes the requests into the buffer of the connection and sends
+         * them at once.
+         * 
+         * @param target        Target
+         * @param queries       Queries (ASCII)
+         * @throws              IOException On a write failure
+         */
+        void writeAll(Target target, List<? extends CharSequence> queries) throws IOException
+        {
+            int length = 0;
+            
+            for( CharSequence query : queries )
+            {
+                length += target.requestLength(query);
+            }
+            
+            if( request.length < length )
+            {
+                request = new byte[Math.max(length, request.length * 2)];
+            }
+            
+            int pos = 0;
+            
+            for( CharSequence query : queries )
+            {
+                pos = target.encode(query, request, pos);
+            }
+            
+            out.write(request, 0, length);
+            out.flush();
+        }
+        
+        
+        static Connection open(Endpoint endpoint, int timeout) throws IOException
+        {
+            final Socket socket = new Socket();
+            
+            try
+            {
+                socket.setTcpNoDelay(true);
+                socket.connect(endpoint.toSocketAddress(), timeout);
+                
+                return new Connection(socket);
+            }
+            catch( IOException ex )
+            {
+                socket.close();
+                throw ex;
+            }
+        }
+        
+        
+        void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch( IOException ex )
+            {
+                // Nothing left to do
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Stream recording whether any data was received. The socket timeout is
+     * limited to the time remaining until the deadline before each read.
+     */
+    private static class TrackingInputStream extends InputStream
+    {
+        private final Socket socket;
+        private final InputStream in;
+        private boolean received;
+        private Deadline deadline;
+        
+        
+        TrackingInputStream(Socket socket, InputStream in)
+        {
+            this.socket = socket;
+            this.in = in;
+            this.received = false;
+            this.deadline = Deadline.NONE;
+        }
+        
+        
+        @Override
+        public int read() throws IOException
+        {
+            updateTimeout();
+            
+            final int c = in.read();
+            received |= ( c >= 0 );
+            
+            return c;
+        }
+        
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            updateTimeout();
+            
+            final int n = in.read(b, off, len);
+            received |= ( n > 0 );
+            
+            return n;
+        }
+        
+        
+        void clearReceived()
+        {
+            received = false;
+        }
+        
+        
+        boolean received()
+        {
+            return received;
+        }
+        
+        
+        private void updateTimeout() throws IOException
+        {
+            socket.setSoTimeout(deadline.toTimeout(0));
+        }
+    }
+    
+    
+    
+    /**
+     * Failure of a reused connection before any response data was received.
+     */
+    private static class StaleConnectionException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        
+        
+        StaleConnectionException(IOException cause)
+        {
+            super(cause);
+        }
+    }
+}
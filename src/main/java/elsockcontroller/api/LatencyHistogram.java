@@ -0,0 +1,219 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The class <code>LatencyHistogram</code> records latencies in logarithmic
+ * buckets with linear sub-buckets (similar to a HDR histogram), so
+ * percentiles are reported with a relative error of about 6%.
+ *
+ * <p>Recording is lock-free and does not allocate. Values from
+ * <code>0</code> up to about 18 minutes are resolved; larger values are
+ * counted in the last bucket.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKETS;
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+    
+    
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+    
+    
+    
+    /**
+     * Records the value.
+     * 
+     * @param nanos     Latency (ns); negative values are ignored
+     */
+    public void record(long nanos)
+    {
+        if( nanos < 0 )
+        {
+            return;
+        }
+        
+        counts.incrementAndGet(index(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        
+        long current;
+        
+        while( nanos > ( current = max.get() ) && max.compareAndSet(current, nanos) == false )
+        {
+            // Retry
+        }
+    }
+    
+    
+    /**
+     * Returns the number of recorded values.
+     * 
+     * @return      Number of values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+    
+    
+    /**
+     * Returns the maximum recorded value.
+     * 
+     * @return      Maximum (ns)
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+    
+    
+    /**
+     * Returns the mean of all recorded values.
+     * 
+     * @return      Mean (ns) or <code>0</code> if there are no values
+     */
+    public double getMean()
+    {
+        final long n = count.get();
+        
+        return ( n == 0 ? 0.0 : (double) sum.get() / n );
+    }
+    
+    
+    /**
+     * Returns the value at the given percentile.
+     * 
+     * @param percentile        Percentile (<code>0.0 - 100.0</code>)
+     * @return                  Upper bound of the bucket containing the
+     *                          percentile (ns) or <code>0</code> if there
+     *                          are no values
+     */
+    public long getPercentile(double percentile)
+    {
+        final long n = count.get();
+        
+        if( n == 0 )
+        {
+            return 0;
+        }
+        
+        final long rank = Math.max(1, (long) Math.ceil(n * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += counts.get(i);
+            
+            if( seen >= rank )
+            {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        
+        return max.get();
+    }
+    
+    
+    /**
+     * Resets all values.
+     */
+    public void reset()
+    {
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            counts.set(i, 0);
+        }
+        
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram{" + "count=" + getCount()
+                + ", mean=" + (long) getMean()
+                + ", p50=" + getPercentile(50.0)
+                + ", p99=" + getPercentile(99.0)
+                + ", max=" + getMax() + '}';
+    }
+    
+    
+    private static int index(long value)
+    {
+        if( value < SUB_BUCKETS )
+        {
+            return (int) value;
+        }
+        
+        final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        
+        if( exponent == MAX_EXPONENT && value >= ( 2L << MAX_EXPONENT ) )
+        {
+            return BUCKETS - 1;
+        }
+        
+        final int sub = (int) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+        
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + sub;
+    }
+    
+    
+    private static long upperBound(int index)
+    {
+        if( index < SUB_BUCKETS )
+        {
+            return index;
+        }
+        
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int sub = index % SUB_BUCKETS;
+        
+        return ( ( (long) ( SUB_BUCKETS + sub + 1 ) ) << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+    }
+}
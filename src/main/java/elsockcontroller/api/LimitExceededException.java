@@ -0,0 +1,43 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+
+/**
+ * The exception <code>LimitExceededException</code> is thrown if a request
+ * is rejected by a {@link ConcurrencyLimiter}, because it's queue is full or
+ * the request waited too long.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class LimitExceededException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+    
+    
+    public LimitExceededException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,1418 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class <code>NioTransport</code> is a minimal HTTP/1.1 client on top of
+ * non-blocking socket channels.
+ *
+ * <p>All connections of the transport are served by a single selector
+ * thread, so one transport can talk to hundreds of hosts. Requests are
+ * encoded only once per address and query; responses are parsed straight
+ * from a direct buffer without creating strings. Idle connections are kept
+ * per address like by the {@link KeepAliveTransport}.</p>
+ *
+ * <p>The calling thread waits until the response is received and runs the
+ * {@link Transport.ResponseHandler handler}; the selector thread is started
+ * with the first query and stopped by {@link #close() close()}. Callers are
+ * parked without holding a monitor, so virtual threads don't pin their
+ * carrier threads.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class NioTransport implements Transport
+{
+    /**
+     * Default number of idle connections per address; boards have only a few
+     * sockets in total.
+     */
+    public static final int DEFAULT_MAX_IDLE = 1;
+    /** Default idle timeout (ms). */
+    public static final long DEFAULT_IDLE_TIMEOUT = 15000;
+    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_RESPONSE_SIZE = 65536;
+    private static final long EVICT_INTERVAL = 1000000000L;
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] CONNECTION = ascii("connection");
+    private static final byte[] CHUNKED = ascii("chunked");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+    private static final ThreadLocal<Request> REQUEST = new ThreadLocal<Request>()
+    {
+        @Override
+        protected Request initialValue()
+        {
+            return new Request();
+        }
+    };
+    private final Target.Cache targets;
+    private final Queue<Request> submitted;
+    private final Map<Endpoint, Deque<Connection>> idle;
+    private final List<Connection> active;
+    private final int maxIdle;
+    private final long idleTimeout;
+    private final Lock lock;
+    private volatile boolean closed;
+    private volatile Selector selector;
+    private long lastEviction;
+    
+    
+    public NioTransport()
+    {
+        this(DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT);
+    }
+    
+    /**
+     * Creates a new transport.
+     * 
+     * @param maxIdle           Maximum number of idle connections per address
+     * @param idleTimeout       Time (ms) after which idle connections are
+     *                          closed
+     * @exception               IllegalArgumentException If a value is
+     *                          negative
+     */
+    public NioTransport(int maxIdle, long idleTimeout)
+    {
+        if( maxIdle < 0 || idleTimeout < 0 )
+        {
+            throw new IllegalArgumentException("Negative value not allowed!");
+        }
+        
+        this.targets = new Target.Cache();
+        this.submitted = new ConcurrentLinkedQueue<>();
+        this.idle = new HashMap<>();
+        this.active = new ArrayList<>();
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.lock = new ReentrantLock();
+        this.closed = false;
+        this.selector = null;
+    }
+    
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>A query on a reused connection that fails before any response byte
+     * was received is sent once more on a new connection, if it contains no
+     * {@link Status#TOGGLE TOGGLE} or no byte of it was written. Other
+     * queries may have been executed by the host, so the failure is thrown
+     * instead.</p>
+     */
+    @Override
+    public void execute(String address, CharSequence query, int timeout, Deadline deadline,
+            ResponseHandler handler) throws IOException
+    {
+        final Target target = targets.get(address);
+        final Request request = Request.acquire();
+        
+        try
+        {
+            request.prepare(target, query, timeout, deadline);
+            submit(request);
+            request.await();
+            
+            if( request.failure != null )
+            {
+                throw request.failure;
+            }
+            
+            if( request.connectNanos >= 0 )
+            {
+                handler.connected(request.connectNanos);
+            }
+            
+            if( request.statusCode / 100 != 2 )
+            {
+                throw new IOException("Server returned HTTP response code: "
+                        + request.statusCode + " from: " + target.getEndpoint().getHostHeader());
+            }
+            
+            handler.handle(request.body());
+        }
+        finally
+        {
+            request.release();
+        }
+    }
+    
+    
+    /**
+     * Returns the maximum number of idle connections per address.
+     * 
+     * @return      Maximum number of idle connections
+     */
+    public int getMaxIdle()
+    {
+        return maxIdle;
+    }
+    
+    
+    /**
+     * Returns the idle timeout.
+     * 
+     * @return      Idle timeout (ms)
+     */
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+    
+    
+    /**
+     * Closes all connections and stops the selector thread. Pending queries
+     * fail with an {@link IOException}.
+     */
+    @Override
+    public void close()
+    {
+        lock.lock();
+        
+        try
+        {
+            closed = true;
+            
+            if( selector != null )
+            {
+                selector.wakeup();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "NioTransport{" + "maxIdle=" + maxIdle
+                + ", idleTimeout=" + idleTimeout + '}';
+    }
+    
+    
+    /**
+     * Passes the request to the selector thread, which is started if
+     * necessary.
+     * 
+     * @param request       Request
+     * @throws              IOException If the transport is closed or the
+     *                      selector can't be opened
+     */
+    private void submit(Request request) throws IOException
+    {
+        final Selector current = ( selector != null ? selector : start() );
+        
+        submitted.add(request);
+        current.wakeup();
+        
+        if( closed == true && submitted.remove(request) == true )
+        {
+            throw new IOException("Transport closed");
+        }
+    }
+    
+    
+    /**
+     * Opens the selector and starts the selector thread, unless already
+     * done.
+     * 
+     * @return              Selector
+     * @throws              IOException If the transport is closed or the
+     *                      selector can't be opened
+     */
+    private Selector start() throws IOException
+    {
+        lock.lock();
+        
+        try
+        {
+            if( closed == true )
+            {
+                throw new IOException("Transport closed");
+            }
+            
+            if( selector == null )
+            {
+                final Selector opened = Selector.open();
+                final Thread thread = new DaemonThreadFactory("nio").newThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loop();
+                    }
+                });
+                
+                selector = opened;
+                thread.start();
+            }
+            
+            return selector;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Main loop of the selector thread.
+     */
+    private void loop()
+    {
+        try
+        {
+            while( closed == false )
+            {
+                selector.select(nextTimeout());
+                
+                final long now = System.nanoTime();
+                startSubmitted(now);
+                
+                final Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+                
+                while( itr.hasNext() == true )
+                {
+                    final SelectionKey key = itr.next();
+                    itr.remove();
+                    
+                    if( key.isValid() == true )
+                    {
+                        handle((Connection) key.attachment(), key);
+                    }
+                }
+                
+                expire(System.nanoTime());
+            }
+        }
+        catch( IOException | ClosedSelectorException ex )
+        {
+            closed = true;
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+    
+    
+    /**
+     * Returns the time until the next deadline expires.
+     * 
+     * @return      Timeout (ms) or <code>0</code> to wait without limit
+     */
+    private long nextTimeout()
+    {
+        final long now = System.nanoTime();
+        long next = ( idle.isEmpty() == true ? Long.MAX_VALUE : EVICT_INTERVAL );
+        
+        for( Connection conn : active )
+        {
+            final Request request = conn.request;
+            
+            if( request.bounded == true )
+            {
+                next = Math.min(next, request.deadline - now);
+            }
+            
+            if( conn.connecting == true && request.connectTimeout > 0 )
+            {
+                next = Math.min(next, conn.connectStart + request.connectTimeout - now);
+            }
+        }
+        
+        if( next == Long.MAX_VALUE )
+        {
+            return 0L;
+        }
+        
+        return Math.max(1L, ( next + 999999L ) / 1000000L);
+    }
+    
+    
+    /**
+     * Starts all submitted requests on an idle or new connection.
+     * 
+     * @param now       Current time (ns)
+     */
+    private void startSubmitted(long now)
+    {
+        Request request;
+        
+        while( ( request = submitted.poll() ) != null )
+        {
+            final Connection conn = acquire(request.target.getEndpoint(), now);
+            
+            if( conn != null )
+            {
+                conn.reused = true;
+                start(conn, request);
+            }
+            else
+            {
+                open(request);
+            }
+        }
+    }
+    
+    
+    /**
+     * Opens a new connection for the request.
+     * 
+     * @param request       Request
+     */
+    private void open(Request request)
+    {
+        SocketChannel channel = null;
+        
+        try
+        {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            
+            final Connection conn = new Connection(channel, request.target.getEndpoint());
+            conn.connectStart = System.nanoTime();
+            conn.connecting = true;
+            conn.reused = false;
+            conn.request = request;
+            active.add(conn);
+            
+            if( channel.connect(request.socketAddress) == true )
+            {
+                conn.key = channel.register(selector, 0, conn);
+                connected(conn);
+            }
+            else
+            {
+                conn.key = channel.register(selector, SelectionKey.OP_CONNECT, conn);
+            }
+        }
+        catch( IOException ex )
+        {
+            closeQuietly(channel);
+            request.complete(ex);
+        }
+    }
+    
+    
+    /**
+     * Sends the request on the connection.
+     * 
+     * @param conn          Connection
+     * @param request       Request
+     */
+    private void start(Connection conn, Request request)
+    {
+        conn.request = request;
+        conn.received = false;
+        ( (Buffer) conn.in ).clear();
+        active.add(conn);
+        write(conn);
+    }
+    
+    
+    /**
+     * Handles the ready operations of a connection.
+     * 
+     * @param conn      Connection
+     * @param key       Key
+     */
+    private void handle(Connection conn, SelectionKey key)
+    {
+        if( conn.request == null )
+        {
+            // Idle connection closed by the host
+            closeIdle(conn);
+            return;
+        }
+        
+        if( key.isConnectable() == true )
+        {
+            try
+            {
+                conn.channel.finishConnect();
+                connected(conn);
+            }
+            catch( IOException ex )
+            {
+                failConnection(conn, ex);
+            }
+        }
+        else if( key.isWritable() == true )
+        {
+            write(conn);
+        }
+        else if( key.isReadable() == true )
+        {
+            read(conn);
+        }
+    }
+    
+    
+    private void connected(Connection conn)
+    {
+        conn.connecting = false;
+        conn.request.connectNanos = System.nanoTime() - conn.connectStart;
+        write(conn);
+    }
+    
+    
+    private void write(Connection conn)
+    {
+        try
+        {
+            conn.channel.write(conn.request.out);
+            
+            conn.key.interestOps(conn.request.out.hasRemaining() == true
+                    ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        catch( IOException ex )
+        {
+            failConnection(conn, ex);
+        }
+    }
+    
+    
+    private void read(Connection conn)
+    {
+        try
+        {
+            if( conn.in.hasRemaining() == false )
+            {
+                conn.grow();
+            }
+            
+            final int n = conn.channel.read(conn.in);
+            conn.received |= ( n > 0 );
+            
+            final int end = parse(conn, n < 0);
+            
+            if( end < 0 )
+            {
+                return;
+            }
+            
+            final Request request = conn.request;
+            conn.request = null;
+            active.remove(conn);
+            
+            if( request.keepAlive == true && end == conn.in.position() )
+            {
+                release(conn);
+            }
+            else
+            {
+                conn.close();
+            }
+            
+            request.complete(null);
+        }
+        catch( IOException ex )
+        {
+            failConnection(conn, ex);
+        }
+    }
+    
+    
+    /**
+     * Parses the response received so far.
+     * 
+     * @param conn      Connection
+     * @param eof       Whether the host closed the connection
+     * @return          End of the response or <code>-1</code> if it's
+     *                  incomplete
+     * @throws          IOException On a malformed or truncated response
+     */
+    private static int parse(Connection conn, boolean eof) throws IOException
+    {
+        final ByteBuffer in = conn.in;
+        final Request request = conn.request;
+        final int limit = in.position();
+        
+        // Status line
+        int lineEnd = lineEnd(in, 0, limit);
+        
+        if( lineEnd < 0 )
+        {
+            return incomplete(eof, limit == 0 ? "Connection closed by host"
+                    : "Connection closed within headers");
+        }
+        
+        if( lineEnd < 12 || startsWith(in, 0, "HTTP/1.") == false )
+        {
+            throw new IOException("Malformed status line");
+        }
+        
+        int statusCode = 0;
+        
+        for( int i = 9; i < 12; i++ )
+        {
+            final int digit = in.get(i) - '0';
+            
+            if( digit < 0 || digit > 9 )
+            {
+                throw new IOException("Malformed status line");
+            }
+            
+            statusCode = statusCode * 10 + digit;
+        }
+        
+        boolean keepAlive = ( in.get(7) == '1' );
+        boolean chunked = false;
+        long contentLength = -1;
+        int pos = next(in, lineEnd);
+        
+        // Headers
+        while( true )
+        {
+            lineEnd = lineEnd(in, pos, limit);
+            
+            if( lineEnd < 0 )
+            {
+                return incomplete(eof, "Connection closed within headers");
+            }
+            
+            if( lineEnd == pos )
+            {
+                pos = next(in, lineEnd);
+                break;
+            }
+            
+            final int sep = indexOf(in, pos, lineEnd, ':');
+            
+            if( sep > pos )
+            {
+                final int valueStart = skipSpaces(in, sep + 1, lineEnd);
+                
+                if( equalsIgnoreCase(in, pos, trimEnd(in, pos, sep), CONTENT_LENGTH) == true )
+                {
+                    contentLength = parseLength(in, valueStart, trimEnd(in, valueStart, lineEnd));
+                }
+                else if( equalsIgnoreCase(in, pos, trimEnd(in, pos, sep), TRANSFER_ENCODING) == true )
+                {
+                    chunked = containsIgnoreCase(in, valueStart, lineEnd, CHUNKED);
+                }
+                else if( equalsIgnoreCase(in, pos, trimEnd(in, pos, sep), CONNECTION) == true )
+                {
+                    final int valueEnd = trimEnd(in, valueStart, lineEnd);
+                    
+                    if( equalsIgnoreCase(in, valueStart, valueEnd, CLOSE) == true )
+                    {
+                        keepAlive = false;
+                    }
+                    else if( equalsIgnoreCase(in, valueStart, valueEnd, KEEP_ALIVE) == true )
+                    {
+                        keepAlive = true;
+                    }
+                }
+            }
+            
+            pos = next(in, lineEnd);
+        }
+        
+        // Body
+        request.bodyLength = 0;
+        
+        if( chunked == true )
+        {
+            while( true )
+            {
+                lineEnd = lineEnd(in, pos, limit);
+                
+                if( lineEnd < 0 )
+                {
+                    return incomplete(eof, "Connection closed within chunked body");
+                }
+                
+                final int sizeEnd = indexOf(in, pos, lineEnd, ';');
+                final long size = parseHex(in, pos, trimEnd(in, pos, ( sizeEnd < 0 ? lineEnd : sizeEnd )));
+                pos = next(in, lineEnd);
+                
+                if( size == 0 )
+                {
+                    // Trailer, terminated by an empty line
+                    while( true )
+                    {
+                        lineEnd = lineEnd(in, pos, limit);
+                        
+                        if( lineEnd < 0 )
+                        {
+                            return incomplete(eof, "Connection closed within chunked body");
+                        }
+                        
+                        final boolean empty = ( lineEnd == pos );
+                        pos = next(in, lineEnd);
+                        
+                        if( empty == true )
+                        {
+                            break;
+                        }
+                    }
+                    
+                    break;
+                }
+                
+                if( limit - pos < size )
+                {
+                    return incomplete(eof, "Connection closed within chunk");
+                }
+                
+                request.appendBody(in, pos, (int) size);
+                pos += (int) size;
+                
+                // Terminator of the chunk
+                lineEnd = lineEnd(in, pos, limit);
+                
+                if( lineEnd < 0 )
+                {
+                    return incomplete(eof, "Connection closed within chunk");
+                }
+                
+                pos = next(in, lineEnd);
+            }
+        }
+        else if( contentLength >= 0 )
+        {
+            if( limit - pos < contentLength )
+            {
+                return incomplete(eof, "Connection closed within body");
+            }
+            
+            request.appendBody(in, pos, (int) contentLength);
+            pos += (int) contentLength;
+        }
+        else
+        {
+            // Without a length, the body is delimited by closing the connection
+            if( eof == false )
+            {
+                return -1;
+            }
+            
+            request.appendBody(in, pos, limit - pos);
+            pos = limit;
+            keepAlive = false;
+        }
+        
+        request.statusCode = statusCode;
+        request.keepAlive = keepAlive;
+        
+        return pos;
+    }
+    
+    
+    /**
+     * Fails all requests that exceeded their deadline or connect timeout.
+     * Idle connections are evicted once per second.
+     * 
+     * @param now       Current time (ns)
+     */
+    private void expire(long now)
+    {
+        for( int i = active.size() - 1; i >= 0; i-- )
+        {
+            final Connection conn = active.get(i);
+            final Request request = conn.request;
+            
+            if( conn.connecting == true && request.connectTimeout > 0
+                    && now - conn.connectStart >= request.connectTimeout )
+            {
+                failConnection(conn, new SocketTimeoutException("Connect timed out"));
+            }
+            else if( request.bounded == true && now - request.deadline >= 0 )
+            {
+                failConnection(conn, new SocketTimeoutException("Read timed out"));
+            }
+        }
+        
+        if( now - lastEviction >= EVICT_INTERVAL )
+        {
+            lastEviction = now;
+            evictExpired(now);
+        }
+    }
+    
+    
+    /**
+     * Closes the connection and fails it's request. A request failing on a
+     * reused connection before any response data was received is retried
+     * once on a new connection, if it's idempotent or wasn't written at
+     * all.
+     * 
+     * @param conn      Connection
+     * @param ex        Cause
+     */
+    private void failConnection(Connection conn, IOException ex)
+    {
+        final Request request = conn.request;
+        conn.request = null;
+        active.remove(conn);
+        conn.close();
+        
+        if( request == null )
+        {
+            return;
+        }
+        
+        if( conn.reused == true && conn.received == false && request.retried == false
+                && ex instanceof SocketTimeoutException == false
+                && ( request.idempotent == true || request.out.position() == 0 ) )
+        {
+            request.retried = true;
+            ( (Buffer) request.out ).rewind();
+            open(request);
+        }
+        else
+        {
+            request.complete(ex);
+        }
+    }
+    
+    
+    /**
+     * Takes an idle connection of the <code>endpoint</code> from the pool.
+     * 
+     * @param endpoint      Endpoint
+     * @param now           Current time (ns)
+     * @return              Connection or <tt>null</tt> if there's none
+     */
+    private Connection acquire(Endpoint endpoint, long now)
+    {
+        final Deque<Connection> connections = idle.get(endpoint);
+        
+        if( connections == null )
+        {
+            return null;
+        }
+        
+        Connection conn;
+        
+        while( ( conn = connections.pollLast() ) != null )
+        {
+            if( now - conn.lastUsed < idleTimeout * 1000000L )
+            {
+                return conn;
+            }
+            
+            conn.close();
+        }
+        
+        return null;
+    }
+    
+    
+    private void release(Connection conn)
+    {
+        Deque<Connection> connections = idle.get(conn.endpoint);
+        
+        if( connections == null )
+        {
+            connections = new ArrayDeque<>();
+            idle.put(conn.endpoint, connections);
+        }
+        
+        if( connections.size() >= maxIdle )
+        {
+            conn.close();
+            return;
+        }
+        
+        // Read interest detects a close by the host
+        conn.key.interestOps(SelectionKey.OP_READ);
+        conn.lastUsed = System.nanoTime();
+        connections.addLast(conn);
+    }
+    
+    
+    private void closeIdle(Connection conn)
+    {
+        final Deque<Connection> connections = idle.get(conn.endpoint);
+        
+        if( connections != null )
+        {
+            connections.remove(conn);
+        }
+        
+        conn.close();
+    }
+    
+    
+    private void evictExpired(long now)
+    {
+        final long timeoutNanos = idleTimeout * 1000000L;
+        final Iterator<Deque<Connection>> itr = idle.values().iterator();
+        
+        while( itr.hasNext() == true )
+        {
+            final Deque<Connection> connections = itr.next();
+            
+            while( connections.isEmpty() == false
+                    && now - connections.peekFirst().lastUsed >= timeoutNanos )
+            {
+                connections.pollFirst().close();
+            }
+            
+            if( connections.isEmpty() == true )
+            {
+                itr.remove();
+            }
+        }
+    }
+    
+    
+    /**
+     * Closes all connections and fails all pending requests.
+     */
+    private void shutdown()
+    {
+        final IOException ex = new IOException("Transport closed");
+        
+        for( Connection conn : active )
+        {
+            conn.close();
+            conn.request.complete(ex);
+        }
+        
+        active.clear();
+        
+        for( Deque<Connection> connections : idle.values() )
+        {
+            for( Connection conn : connections )
+            {
+                conn.close();
+            }
+        }
+        
+        idle.clear();
+        
+        Request request;
+        
+        while( ( request = submitted.poll() ) != null )
+        {
+            request.complete(ex);
+        }
+        
+        try
+        {
+            selector.close();
+        }
+        catch( IOException ignored )
+        {
+            // Nothing left to do
+        }
+    }
+    
+    
+    private static int incomplete(boolean eof, String message) throws EOFException
+    {
+        if( eof == true )
+        {
+            throw new EOFException(message);
+        }
+        
+        return -1;
+    }
+    
+    
+    /**
+     * Returns the end of the line starting at <code>pos</code>, excluding a
+     * <code>CR</code>.
+     */
+    private static int lineEnd(ByteBuffer in, int pos, int limit)
+    {
+        final int lf = indexOf(in, pos, limit, '\n');
+        
+        if( lf < 0 )
+        {
+            return -1;
+        }
+        
+        return ( lf > pos && in.get(lf - 1) == '\r' ? lf - 1 : lf );
+    }
+    
+    
+    /**
+     * Returns the start of the line following the one ending at
+     * <code>lineEnd</code>.
+     */
+    private static int next(ByteBuffer in, int lineEnd)
+    {
+        return ( in.get(lineEnd) == '\r' ? lineEnd + 2 : lineEnd + 1 );
+    }
+    
+    
+    private static int indexOf(ByteBuffer in, int from, int to, char c)
+    {
+        for( int i = from; i < to; i++ )
+        {
+            if( in.get(i) == c )
+            {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    
+    private static int skipSpaces(ByteBuffer in, int from, int to)
+    {
+        while( from < to && ( in.get(from) == ' ' || in.get(from) == '\t' ) )
+        {
+            from++;
+        }
+        
+        return from;
+    }
+    
+    
+    private static int trimEnd(ByteBuffer in, int from, int to)
+    {
+        while( to > from && ( in.get(to - 1) == ' ' || in.get(to - 1) == '\t' ) )
+        {
+            to--;
+        }
+        
+        return to;
+    }
+    
+    
+    private static boolean startsWith(ByteBuffer in, int pos, String prefix)
+    {
+        for( int i = 0; i < prefix.length(); i++ )
+        {
+            if( in.get(pos + i) != prefix.charAt(i) )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    
+    private static boolean equalsIgnoreCase(ByteBuffer in, int from, int to, byte[] lower)
+    {
+        if( to - from != lower.length )
+        {
+            return false;
+        }
+        
+        for( int i = 0; i < lower.length; i++ )
+        {
+            if( toLower(in.get(from + i)) != lower[i] )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    
+    private static boolean containsIgnoreCase(ByteBuffer in, int from, int to, byte[] lower)
+    {
+        for( int i = from; i + lower.length <= to; i++ )
+        {
+            if( equalsIgnoreCase(in, i, i + lower.length, lower) == true )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    
+    private static byte toLower(byte b)
+    {
+        return ( b >= 'A' && b <= 'Z' ? (byte) ( b + ( 'a' - 'A' ) ) : b );
+    }
+    
+    
+    private static long parseLength(ByteBuffer in, int from, int to) throws IOException
+    {
+        if( from == to || to - from > 18 )
+        {
+            throw new IOException("Malformed content length");
+        }
+        
+        long value = 0;
+        
+        for( int i = from; i < to; i++ )
+        {
+            final int digit = in.get(i) - '0';
+            
+            if( digit < 0 || digit > 9 )
+            {
+                throw new IOException("Malformed content length");
+            }
+            
+            value = value * 10 + digit;
+        }
+        
+        return value;
+    }
+    
+    
+    private static long parseHex(ByteBuffer in, int from, int to) throws IOException
+    {
+        if( from == to || to - from > 15 )
+        {
+            throw new IOException("Malformed chunk size");
+        }
+        
+        long value = 0;
+        
+        for( int i = from; i < to; i++ )
+        {
+            final int digit = Character.digit(in.get(i), 16);
+            
+            if( digit < 0 )
+            {
+                throw new IOException("Malformed chunk size");
+            }
+            
+            value = value * 16 + digit;
+        }
+        
+        return value;
+    }
+    
+    
+    private static byte[] ascii(String str)
+    {
+        final byte[] bytes = new byte[str.length()];
+        
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            bytes[i] = (byte) str.charAt(i);
+        }
+        
+        return bytes;
+    }
+    
+    
+    private static void closeQuietly(SocketChannel channel)
+    {
+        if( channel == null )
+        {
+            return;
+        }
+        
+        try
+        {
+            channel.close();
+        }
+        catch( IOException ex )
+        {
+            // Nothing left to do
+        }
+    }
+    
+    
+    
+    /**
+     * Connection served by the selector thread.
+     */
+    private static class Connection
+    {
+        private final SocketChannel channel;
+        private final Endpoint endpoint;
+        private ByteBuffer in;
+        private SelectionKey key;
+        private Request request;
+        private boolean connecting;
+        private boolean reused;
+        private boolean received;
+        private long connectStart;
+        private long lastUsed;
+        
+        
+        Connection(SocketChannel channel, Endpoint endpoint)
+        {
+            this.channel = channel;
+            this.endpoint = endpoint;
+            this.in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        
+        
+        /**
+         * Doubles the size of the receive buffer.
+         * 
+         * @throws      IOException If the response exceeds the maximum size
+         */
+        void grow() throws IOException
+        {
+            if( in.capacity() >= MAX_RESPONSE_SIZE )
+            {
+                throw new IOException("Response too large");
+            }
+            
+            final ByteBuffer larger = ByteBuffer.allocateDirect(in.capacity() * 2);
+            ( (Buffer) in ).flip();
+            larger.put(in);
+            in = larger;
+        }
+        
+        
+        void close()
+        {
+            if( key != null )
+            {
+                key.cancel();
+            }
+            
+            closeQuietly(channel);
+        }
+    }
+    
+    
+    
+    /**
+     * Query of a calling thread; reused by all queries of the thread.
+     */
+    private static class Request
+    {
+        private final BodyStream stream;
+        private ByteBuffer out;
+        private byte[] encoded;
+        private byte[] body;
+        private boolean inUse;
+        private Target target;
+        private InetSocketAddress socketAddress;
+        private long connectTimeout;
+        private boolean bounded;
+        private long deadline;
+        private boolean retried;
+        private boolean idempotent;
+        private Thread waiter;
+        private volatile boolean done;
+        private IOException failure;
+        private long connectNanos;
+        private int statusCode;
+        private boolean keepAlive;
+        private int bodyLength;
+        
+        
+        Request()
+        {
+            this.stream = new BodyStream();
+            this.encoded = new byte[128];
+            this.out = ByteBuffer.wrap(encoded);
+            this.body = new byte[64];
+            this.inUse = false;
+        }
+        
+        
+        /**
+         * Returns the request of the current thread, or a new one if it's
+         * already in use.
+         * 
+         * @return      Request
+         */
+        static Request acquire()
+        {
+            Request request = REQUEST.get();
+            
+            if( request.inUse == true )
+            {
+                request = new Request();
+            }
+            
+            request.inUse = true;
+            
+            return request;
+        }
+        
+        
+        void prepare(Target target, CharSequence query, int timeout, Deadline deadline)
+                throws SocketTimeoutException
+        {
+            final int length = target.requestLength(query);
+            
+            if( encoded.length < length )
+            {
+                encoded = new byte[Math.max(length, encoded.length * 2)];
+                out = ByteBuffer.wrap(encoded);
+            }
+            
+            target.encode(query, encoded, 0);
+            ( (Buffer) out ).clear();
+            ( (Buffer) out ).limit(length);
+            
+            if( deadline.isExpired() == true )
+            {
+                throw new SocketTimeoutException("Deadline exceeded");
+            }
+            
+            this.target = target;
+            this.socketAddress = target.getSocketAddress();
+            this.connectTimeout = Math.max(timeout, 0) * 1000000L;
+            this.bounded = deadline.isBounded();
+            this.deadline = deadline.getNanoTime();
+            this.retried = false;
+            this.idempotent = RetryPolicy.isIdempotent(query);
+            this.waiter = Thread.currentThread();
+            this.failure = null;
+            this.connectNanos = -1L;
+            this.statusCode = 0;
+            this.keepAlive = false;
+            this.bodyLength = 0;
+            this.done = false;
+        }
+        
+        
+        void release()
+        {
+            target = null;
+            waiter = null;
+            failure = null;
+            inUse = false;
+        }
+        
+        
+        /**
+         * Waits until the request is completed by the selector thread.
+         */
+        void await()
+        {
+            boolean interrupted = false;
+            
+            while( done == false )
+            {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+            
+            if( interrupted == true )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        
+        /**
+         * Completes the request; called by the selector thread.
+         * 
+         * @param failure       Cause of the failure or <tt>null</tt>
+         */
+        void complete(IOException failure)
+        {
+            final Thread thread = waiter;
+            this.failure = failure;
+            done = true;
+            LockSupport.unpark(thread);
+        }
+        
+        
+        void appendBody(ByteBuffer in, int pos, int length)
+        {
+            if( body.length < bodyLength + length )
+            {
+                body = Arrays.copyOf(body, Math.max(bodyLength + length, body.length * 2));
+            }
+            
+            for( int i = 0; i < length; i++ )
+            {
+                body[bodyLength + i] = in.get(pos + i);
+            }
+            
+            bodyLength += length;
+        }
+        
+        
+        BodyStream body()
+        {
+            stream.reset(body, bodyLength);
+            
+            return stream;
+        }
+    }
+    
+    
+    
+    /**
+     * Stream over the received body, reused by all queries of a thread.
+     */
+    private static class BodyStream extends ByteArrayInputStream
+    {
+        BodyStream()
+        {
+            super(new byte[0]);
+        }
+        
+        
+        void reset(byte[] data, int length)
+        {
+            buf = data;
+            pos = 0;
+            mark = 0;
+            count = length;
+        }
+        
+        
+        @Override
+        public void close()
+        {
+            // Owned by the transport
+        }
+    }
+}
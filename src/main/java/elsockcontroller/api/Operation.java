@@ -0,0 +1,113 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import elsockcontroller.api.ElsockData.ElsockElement;
+
+/**
+ * The enum <code>Operation</code> enumerates the operations of a
+ * controller.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public enum Operation
+{
+    /** Changes the status of a device. */
+    SEND_COMMAND,
+    /** Changes the status of several devices. */
+    SEND_COMMANDS,
+    /** Toggles a device. */
+    SEND_TOGGLE,
+    /** Toggles all devices. */
+    SEND_TOGGLE_ALL,
+    /** Requests the status of all devices. */
+    GET_STATUS;
+    
+    
+    
+    /**
+     * Returns the operation executed for the given command data.
+     * 
+     * @param data      Data
+     * @return          Operation
+     */
+    public static Operation of(ElsockData data)
+    {
+        if( data.size() != 1 )
+        {
+            return SEND_COMMANDS;
+        }
+        
+        final ElsockElement element = data.get(0);
+        
+        return of(element.getDevice(), element.getStatus());
+    }
+    
+    
+    /**
+     * Returns the operation executed for a single command.
+     * 
+     * @param device    Device
+     * @param status    Status
+     * @return          Operation
+     */
+    public static Operation of(Device device, Status status)
+    {
+        switch(status)
+        {
+            case GET_STATUS:
+                return GET_STATUS;
+            case TOGGLE:
+                return ( device == Device.ALL ? SEND_TOGGLE_ALL : SEND_TOGGLE );
+            default:
+                return SEND_COMMAND;
+        }
+    }
+    
+    
+    /**
+     * Returns the operation executed for a command on outputs of a
+     * {@link DeviceModel}.
+     * 
+     * @param status    Status
+     * @param outputs   Number of outputs
+     * @return          Operation
+     */
+    static Operation of(Status status, int outputs)
+    {
+        if( outputs != 1 )
+        {
+            return SEND_COMMANDS;
+        }
+        
+        switch(status)
+        {
+            case GET_STATUS:
+                return GET_STATUS;
+            case TOGGLE:
+                return SEND_TOGGLE;
+            default:
+                return SEND_COMMAND;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The interface <code>PipeliningTransport</code> is a {@link Transport} able
+ * to send several queries on one connection without waiting for the
+ * responses (HTTP/1.1 pipelining).
+ *
+ * <p>Hosts closing the connection or answering out of spec are served one
+ * query at a time instead; the transport remembers such hosts and doesn't
+ * pipeline them again.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface PipeliningTransport extends Transport
+{
+    /**
+     * Sends all <code>queries</code> to the host at <code>address</code> and
+     * passes the response bodies to <code>handler</code>, in the order of
+     * the queries.
+     * 
+     * <p>A query is only sent again if the host didn't answer it before
+     * closing the connection. If a query fails, the following ones are not
+     * executed.</p>
+     * 
+     * @param address       Host address (<code>host</code> or
+     *                      <code>host:port</code>)
+     * @param queries       Queries
+     * @param timeout       Connection timeout (ms)
+     * @param deadline      Deadline of all queries
+     * @param handler       Handler of the response bodies
+     * @throws              IOException On a network failure or timeout
+     * @see                 Transport#execute(String, CharSequence, int,
+     *                      Deadline, Transport.ResponseHandler)
+     */
+    void executeAll(String address, List<? extends CharSequence> queries, int timeout,
+            Deadline deadline, ResponseHandler handler) throws IOException;
+}
@@ -30,17 +30,36 @@ package elsockcontroller.api;
 public enum Protocol
 {
     /** Http protocol. */
-    HTTP("http");
+    HTTP("http")
+    {
+        @Override
+        public Transport createTransport()
+        {
+            return new KeepAliveTransport();
+        }
+    },
+    /**
+     * Http protocol on non-blocking channels; all hosts are served by a
+     * single selector thread per transport.
+     */
+    HTTP_RAW("http")
+    {
+        @Override
+        public Transport createTransport()
+        {
+            return new NioTransport();
+        }
+    };
     
     
     private final String name;
-
+    
     
     private Protocol(String name)
     {
         this.name = name;
     }
-
+    
     
     
     /**
@@ -52,7 +71,15 @@ public enum Protocol
     {
         return name;
     }
-
+    
+    
+    /**
+     * Creates a new (default) transport for the protocol.
+     * 
+     * @return      Transport
+     */
+    public abstract Transport createTransport();
+    
     
     /**
      * Returns the string representation.
@@ -62,7 +89,7 @@ public enum Protocol
     @Override
     public String toString()
     {
-        return "Protocol{" + "name=" + name + '}';
+        return "Protocol{" + "type=" + name() + ", name=" + name + '}';
     }
 
 }
@@ -0,0 +1,232 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The class <code>RetryPolicy</code> describes how failed requests of a
+ * {@link ElsockController#setRetryPolicy(RetryPolicy) controller} are
+ * retried.
+ *
+ * <p>Only idempotent requests are retried: status requests and commands
+ * setting devices {@link Status#ON ON} or {@link Status#OFF OFF}. Requests
+ * containing a {@link Status#TOGGLE TOGGLE} are neither retried nor hedged;
+ * {@link KeepAliveTransport} and {@link NioTransport} don't send them again
+ * after a stale connection either, unless no byte of the request was
+ * written to it.</p>
+ *
+ * <p>The delay before the n-th retry is chosen at random between zero and
+ * <code>baseDelay * 2^(n-1)</code>, at most the max. delay (full jitter),
+ * so hosts recovering from a failure aren't hit by all callers at the same
+ * time. No retry is made if the {@link Deadline#current() deadline} of the
+ * calling thread expires before, or for failures that won't go away by
+ * retrying, like an {@link CircuitOpenException open circuit} or an
+ * interrupt.</p>
+ *
+ * <p>A policy is immutable and may be shared.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class RetryPolicy
+{
+    /** Default maximum number of attempts, including the first one. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /** Default delay (ms) before the first retry. */
+    public static final long DEFAULT_BASE_DELAY = 100;
+    /** Default maximum delay (ms) between two attempts. */
+    public static final long DEFAULT_MAX_DELAY = 2000;
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    
+    
+    public RetryPolicy()
+    {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+    
+    /**
+     * Creates a new policy.
+     * 
+     * @param maxAttempts       Maximum number of attempts, including the
+     *                          first one
+     * @param baseDelay         Delay (ms) before the first retry
+     * @param maxDelay          Maximum delay (ms) between two attempts
+     * @exception               IllegalArgumentException If
+     *                          <code>maxAttempts</code> is not positive, a
+     *                          delay is negative or <code>maxDelay</code> is
+     *                          less than <code>baseDelay</code>
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+    {
+        if( maxAttempts < 1 )
+        {
+            throw new IllegalArgumentException("Attempts must be positive!");
+        }
+        
+        if( baseDelay < 0 || maxDelay < baseDelay )
+        {
+            throw new IllegalArgumentException("Invalid delay!");
+        }
+        
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+    
+    
+    
+    /**
+     * Returns the maximum number of attempts, including the first one.
+     * 
+     * @return      Maximum attempts
+     */
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+    
+    
+    /**
+     * Returns the delay before the first retry.
+     * 
+     * @return      Delay (ms)
+     */
+    public long getBaseDelay()
+    {
+        return baseDelay;
+    }
+    
+    
+    /**
+     * Returns the maximum delay between two attempts.
+     * 
+     * @return      Delay (ms)
+     */
+    public long getMaxDelay()
+    {
+        return maxDelay;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "RetryPolicy{" + "maxAttempts=" + maxAttempts + ", baseDelay=" + baseDelay
+                + ", maxDelay=" + maxDelay + '}';
+    }
+    
+    
+    /**
+     * Returns a random delay before the retry following the given attempt.
+     * 
+     * @param attempt       Number of the failed attempt, starting at
+     *                      <code>1</code>
+     * @return              Delay (ms)
+     */
+    long getDelay(int attempt)
+    {
+        final long bound = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        
+        return ( bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0L );
+    }
+    
+    
+    /**
+     * Tests whether a request failed by <code>ex</code> may succeed if
+     * retried.
+     * 
+     * @param ex        Failure
+     * @return          Returns <tt>true</tt> if it may or <tt>false</tt>
+     *                  otherwise
+     */
+    static boolean isRetryable(IOException ex)
+    {
+        if( ex instanceof CircuitOpenException || ex instanceof LimitExceededException )
+        {
+            return false;
+        }
+        
+        if( ex instanceof InterruptedIOException && ( ex instanceof SocketTimeoutException ) == false )
+        {
+            return false;
+        }
+        
+        return Thread.currentThread().isInterrupted() == false;
+    }
+    
+    
+    /**
+     * Tests whether the query may be sent more than once; a query
+     * containing a toggle command may not.
+     * 
+     * @param query     Query
+     * @return          Returns <tt>true</tt> if idempotent or <tt>false</tt>
+     *                  otherwise
+     */
+    static boolean isIdempotent(CharSequence query)
+    {
+        final char toggle = Status.TOGGLE.getId();
+        
+        for( int i = 1; i < query.length(); i++ )
+        {
+            if( query.charAt(i) == toggle && query.charAt(i - 1) == '=' )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * Tests whether all queries may be sent more than once.
+     * 
+     * @param queries   Queries
+     * @return          Returns <tt>true</tt> if all are idempotent or
+     *                  <tt>false</tt> otherwise
+     */
+    static boolean isIdempotent(List<? extends CharSequence> queries)
+    {
+        for( CharSequence query : queries )
+        {
+            if( isIdempotent(query) == false )
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
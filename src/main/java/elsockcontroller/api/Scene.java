@@ -0,0 +1,138 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.Objects;
+
+/**
+ * The class <code>Scene</code> is a named set of commands, applied to a host
+ * with a single request. Scenes are immutable and can be shared by any number
+ * of {@link SceneScheduler schedules}.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class Scene
+{
+    private final String name;
+    private final ImmutableElsockData commands;
+    
+    
+    /**
+     * Creates a new scene.
+     * 
+     * @param name          Name
+     * @param commands      Devices and their new status (<code>ON</code>,
+     *                      <code>OFF</code> or <code>TOGGLE</code>)
+     * @exception           IllegalArgumentException If <code>commands</code>
+     *                      is empty or contains an unsupported status
+     */
+    public Scene(String name, ElsockData commands)
+    {
+        if( commands.getElements().isEmpty() == true )
+        {
+            throw new IllegalArgumentException("Scene without commands not allowed!");
+        }
+        
+        // Validates the status of all commands
+        new CommandMasks().addAll(commands);
+        
+        this.name = name;
+        this.commands = ImmutableElsockData.copyOf(commands);
+    }
+    
+    
+    
+    /**
+     * Returns the name.
+     * 
+     * @return      Name
+     */
+    public String getName()
+    {
+        return name;
+    }
+    
+    
+    /**
+     * Returns the commands.
+     * 
+     * @return      Devices and their new status
+     */
+    public ImmutableElsockData getCommands()
+    {
+        return commands;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "Scene{" + "name=" + name + ", commands=" + commands + '}';
+    }
+    
+    
+    /**
+     * Returns the hash code.
+     * 
+     * @return      Hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        int hash = 3;
+        hash = 59 * hash + Objects.hashCode(this.name);
+        hash = 59 * hash + this.commands.hashCode();
+        return hash;
+    }
+    
+    
+    /**
+     * Tests whether this and <code>obj</code> are equal.
+     * 
+     * @param obj       Other object
+     * @return          Returns <tt>true</tt> if equal or <tt>false</tt> if not
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if( obj == null )
+        {
+            return false;
+        }
+        
+        if( getClass() != obj.getClass() )
+        {
+            return false;
+        }
+        
+        final Scene other = (Scene) obj;
+        
+        return Objects.equals(this.name, other.name)
+                && Objects.equals(this.commands, other.commands);
+    }
+}
@@ -0,0 +1,713 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>SceneScheduler</code> applies {@link Scene scenes} to hosts
+ * at scheduled times.
+ *
+ * <p>Schedules are kept in a hierarchical {@link TimerWheel timer wheel}
+ * advanced by a single thread every {@link #getTick() tick}; the cost per
+ * tick doesn't depend on the number of schedules, so hundreds of thousands
+ * of them are fine. Times are rounded up to full ticks.</p>
+ *
+ * <p>All scenes triggered in the same tick for the same host
+ * {@link ElsockController#getAddress() address} are coalesced into a single
+ * request, applied in order of scheduling (the last status of a device
+ * wins); it's sent by the controller of the first of them. Requests are
+ * sent by the sender executor, so a slow host doesn't delay the ticks. The
+ * requests of a host are sent one after another, in order of their
+ * ticks.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class SceneScheduler implements Closeable
+{
+    /** Default tick (ms). */
+    public static final long DEFAULT_TICK = 100;
+    /** Default number of sender threads. */
+    public static final int DEFAULT_SENDERS = 4;
+    private final long tick;
+    private final long tickNanos;
+    private final long start;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService sender;
+    private final boolean ownSender;
+    private final Queue<Trigger> added;
+    private final Queue<Trigger> cancelled;
+    private final TimerWheel<Trigger> wheel;
+    private final List<Trigger> expired;
+    private final Map<String, Host> hosts;
+    private final AtomicInteger scheduled;
+    private final AtomicLong fired;
+    private final AtomicLong requests;
+    private volatile boolean closed;
+    
+    
+    public SceneScheduler()
+    {
+        this(DEFAULT_TICK, null);
+    }
+    
+    /**
+     * Creates a new scheduler.
+     * 
+     * @param tick          Tick (ms)
+     * @param sender        Executor sending the requests or <tt>null</tt> to
+     *                      use an own one; a passed executor is not shut down
+     * @exception           IllegalArgumentException If <code>tick</code> is
+     *                      not positive
+     */
+    public SceneScheduler(long tick, ExecutorService sender)
+    {
+        if( tick < 1 )
+        {
+            throw new IllegalArgumentException("Tick must be positive!");
+        }
+        
+        this.tick = tick;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        this.ownSender = ( sender == null );
+        this.sender = ( sender == null
+                ? Executors.newFixedThreadPool(DEFAULT_SENDERS, new DaemonThreadFactory("scene-sender"))
+                : sender );
+        this.added = new ConcurrentLinkedQueue<>();
+        this.cancelled = new ConcurrentLinkedQueue<>();
+        this.wheel = new TimerWheel<>(0L);
+        this.expired = new ArrayList<>();
+        this.hosts = new HashMap<>();
+        this.scheduled = new AtomicInteger();
+        this.fired = new AtomicLong();
+        this.requests = new AtomicLong();
+        this.closed = false;
+        this.start = System.nanoTime();
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("scenes"));
+        this.timer.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                advance();
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+    
+    
+    
+    /**
+     * Applies the scene once after <code>delay</code>.
+     * 
+     * @param controller        Controller of the host
+     * @param scene             Scene
+     * @param delay             Delay
+     * @param unit              Unit of <code>delay</code>
+     * @return                  Schedule
+     * @see                     #schedule(ElsockController, Scene, long, TimeUnit, Callback)
+     */
+    public ScheduledScene schedule(ElsockController controller, Scene scene,
+            long delay, TimeUnit unit)
+    {
+        return schedule(controller, scene, delay, unit, null);
+    }
+    
+    
+    /**
+     * Applies the scene once after <code>delay</code>.
+     * 
+     * @param controller        Controller of the host
+     * @param scene             Scene
+     * @param delay             Delay
+     * @param unit              Unit of <code>delay</code>
+     * @param callback          Callback receiving the outcome of the request
+     *                          or <tt>null</tt>
+     * @return                  Schedule
+     * @exception               IllegalArgumentException If
+     *                          <code>delay</code> is negative
+     * @exception               IllegalStateException If the scheduler is
+     *                          closed
+     */
+    public ScheduledScene schedule(ElsockController controller, Scene scene,
+            long delay, TimeUnit unit, Callback<Scene> callback)
+    {
+        if( delay < 0 )
+        {
+            throw new IllegalArgumentException("Negative delay not allowed!");
+        }
+        
+        return add(new Trigger(controller, scene, 0L, callback), unit.toNanos(delay));
+    }
+    
+    
+    /**
+     * Applies the scene after <code>initialDelay</code> and then every
+     * <code>period</code>.
+     * 
+     * @param controller        Controller of the host
+     * @param scene             Scene
+     * @param initialDelay      Delay of the first trigger
+     * @param period            Period
+     * @param unit              Unit of <code>initialDelay</code> and
+     *                          <code>period</code>
+     * @return                  Schedule
+     * @see                     #scheduleAtFixedRate(ElsockController, Scene, long, long, TimeUnit, Callback)
+     */
+    public ScheduledScene scheduleAtFixedRate(ElsockController controller, Scene scene,
+            long initialDelay, long period, TimeUnit unit)
+    {
+        return scheduleAtFixedRate(controller, scene, initialDelay, period, unit, null);
+    }
+    
+    
+    /**
+     * Applies the scene after <code>initialDelay</code> and then every
+     * <code>period</code>; the period is rounded up to full ticks.
+     * 
+     * @param controller        Controller of the host
+     * @param scene             Scene
+     * @param initialDelay      Delay of the first trigger
+     * @param period            Period
+     * @param unit              Unit of <code>initialDelay</code> and
+     *                          <code>period</code>
+     * @param callback          Callback receiving the outcome of each
+     *                          request or <tt>null</tt>
+     * @return                  Schedule
+     * @exception               IllegalArgumentException If
+     *                          <code>initialDelay</code> is negative or
+     *                          <code>period</code> not positive
+     * @exception               IllegalStateException If the scheduler is
+     *                          closed
+     */
+    public ScheduledScene scheduleAtFixedRate(ElsockController controller, Scene scene,
+            long initialDelay, long period, TimeUnit unit, Callback<Scene> callback)
+    {
+        if( initialDelay < 0 )
+        {
+            throw new IllegalArgumentException("Negative delay not allowed!");
+        }
+        
+        if( period < 1 )
+        {
+            throw new IllegalArgumentException("Period must be positive!");
+        }
+        
+        final long periodTicks = Math.max(1L, ticks(unit.toNanos(period)));
+        
+        return add(new Trigger(controller, scene, periodTicks, callback), unit.toNanos(initialDelay));
+    }
+    
+    
+    /**
+     * Returns the tick.
+     * 
+     * @return      Tick (ms)
+     */
+    public long getTick()
+    {
+        return tick;
+    }
+    
+    
+    /**
+     * Returns the number of schedules not done yet.
+     * 
+     * @return      Number of schedules
+     */
+    public int getScheduledCount()
+    {
+        return scheduled.get();
+    }
+    
+    
+    /**
+     * Returns the number of triggered scenes.
+     * 
+     * @return      Number of triggers
+     */
+    public long getFired()
+    {
+        return fired.get();
+    }
+    
+    
+    /**
+     * Returns the number of requests sent; coalesced scenes share a request.
+     * 
+     * @return      Number of requests
+     */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+    
+    
+    /**
+     * Stops the scheduler; pending schedules are dropped. The controllers are
+     * not closed.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        timer.shutdownNow();
+        
+        if( ownSender == true )
+        {
+            sender.shutdown();
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "SceneScheduler{" + "tick=" + tick + ", scheduled=" + scheduled
+                + ", fired=" + fired + ", requests=" + requests + '}';
+    }
+    
+    
+    /**
+     * Hands the trigger over to the timer thread.
+     * 
+     * @param trigger       Trigger
+     * @param delay         Delay (ns)
+     * @return              Trigger
+     */
+    private Trigger add(Trigger trigger, long delay)
+    {
+        if( closed == true )
+        {
+            throw new IllegalStateException("Scheduler closed!");
+        }
+        
+        trigger.due = ticks(System.nanoTime() - start + delay);
+        scheduled.incrementAndGet();
+        added.add(trigger);
+        
+        return trigger;
+    }
+    
+    
+    /**
+     * Advances the wheel to the current tick and sends the requests of all
+     * triggered scenes; called by the timer thread only. A failure of a
+     * single scene or delivery is passed to it's callbacks, so it doesn't
+     * stop the timer.
+     */
+    private void advance()
+    {
+        Trigger trigger;
+        
+        while( ( trigger = added.poll() ) != null )
+        {
+            if( trigger.isCancelled() == false )
+            {
+                wheel.schedule(trigger, trigger.due);
+            }
+        }
+        
+        while( ( trigger = cancelled.poll() ) != null )
+        {
+            wheel.cancel(trigger);
+        }
+        
+        wheel.advance(( System.nanoTime() - start ) / tickNanos, expired);
+        
+        if( expired.isEmpty() == true )
+        {
+            return;
+        }
+        
+        final Map<String, Delivery> deliveries = new LinkedHashMap<>();
+        
+        for( Trigger t : expired )
+        {
+            try
+            {
+                trigger(t, deliveries);
+            }
+            catch( RuntimeException ex )
+            {
+                report(t, ex);
+            }
+        }
+        
+        expired.clear();
+        
+        for( Map.Entry<String, Delivery> entry : deliveries.entrySet() )
+        {
+            try
+            {
+                Host host = hosts.get(entry.getKey());
+                
+                if( host == null )
+                {
+                    host = new Host();
+                    hosts.put(entry.getKey(), host);
+                }
+                
+                host.offer(entry.getValue());
+            }
+            catch( RuntimeException ex )
+            {
+                entry.getValue().failed(ex);
+            }
+        }
+    }
+    
+    
+    /**
+     * Adds the commands of a triggered scene to the delivery of it's host
+     * and schedules the next run of a periodic scene.
+     * 
+     * @param t             Trigger
+     * @param deliveries    Deliveries by host address
+     */
+    private void trigger(Trigger t, Map<String, Delivery> deliveries)
+    {
+        if( ( t.period > 0 ? t.isCancelled() : t.finish() == false ) )
+        {
+            return;
+        }
+        
+        if( t.period > 0 )
+        {
+            t.due += t.period;
+            wheel.schedule(t, t.due);
+        }
+        
+        final String address = t.controller.getAddress();
+        Delivery delivery = deliveries.get(address);
+        
+        if( delivery == null )
+        {
+            delivery = new Delivery(t.controller);
+            deliveries.put(address, delivery);
+        }
+        
+        delivery.commands.addAll(t.scene.getCommands());
+        delivery.triggers.add(t);
+        fired.incrementAndGet();
+    }
+    
+    
+    /**
+     * Passes the outcome to the callback of the scene. A failing
+     * callback doesn't affect the other scenes.
+     * 
+     * @param trigger   Trigger of the scene
+     * @param cause     Cause of the failure or <tt>null</tt> on success
+     */
+    private static void report(Trigger trigger, Throwable cause)
+    {
+        if( trigger.callback == null )
+        {
+            return;
+        }
+        
+        try
+        {
+            if( cause == null )
+            {
+                trigger.callback.completed(trigger.scene);
+            }
+            else
+            {
+                trigger.callback.failed(cause);
+            }
+        }
+        catch( RuntimeException ex )
+        {
+            // Thrown by user code; the scheduler continues
+        }
+    }
+    
+    
+    /**
+     * Converts the time to ticks, rounded up.
+     * 
+     * @param nanos     Time (ns)
+     * @return          Ticks
+     */
+    private long ticks(long nanos)
+    {
+        return ( nanos + tickNanos - 1 ) / tickNanos;
+    }
+    
+    
+    
+    /**
+     * Scheduled scene, entry of the timer wheel.
+     */
+    private class Trigger extends TimerWheel.Entry implements ScheduledScene
+    {
+        private final ElsockController controller;
+        private final Scene scene;
+        private final long period;
+        private final Callback<Scene> callback;
+        private volatile boolean cancel;
+        private volatile boolean done;
+        private long due;
+        
+        
+        Trigger(ElsockController controller, Scene scene, long period,
+                Callback<Scene> callback)
+        {
+            this.controller = controller;
+            this.scene = scene;
+            this.period = period;
+            this.callback = callback;
+            this.cancel = false;
+            this.done = false;
+        }
+        
+        
+        @Override
+        public Scene getScene()
+        {
+            return scene;
+        }
+        
+        
+        @Override
+        public ElsockController getController()
+        {
+            return controller;
+        }
+        
+        
+        @Override
+        public synchronized boolean cancel()
+        {
+            if( cancel == true || done == true )
+            {
+                return false;
+            }
+            
+            cancel = true;
+            scheduled.decrementAndGet();
+            cancelled.add(this);
+            
+            return true;
+        }
+        
+        
+        /**
+         * Marks a one-shot trigger done, unless cancelled.
+         * 
+         * @return      Returns <tt>true</tt> if done or <tt>false</tt> if
+         *              cancelled
+         */
+        synchronized boolean finish()
+        {
+            if( cancel == true )
+            {
+                return false;
+            }
+            
+            done = true;
+            scheduled.decrementAndGet();
+            
+            return true;
+        }
+        
+        
+        @Override
+        public boolean isCancelled()
+        {
+            return cancel;
+        }
+        
+        
+        @Override
+        public boolean isDone()
+        {
+            return done == true || cancel == true;
+        }
+    }
+    
+    
+    
+    /**
+     * Coalesced scenes of a host, sent with a single request.
+     */
+    private class Delivery implements Runnable
+    {
+        private final ElsockController controller;
+        private final CommandMasks commands;
+        private final List<Trigger> triggers;
+        
+        
+        Delivery(ElsockController controller)
+        {
+            this.controller = controller;
+            this.commands = new CommandMasks();
+            this.triggers = new ArrayList<>(1);
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            try
+            {
+                // Toggles may have cancelled each other out
+                if( commands.isEmpty() == false )
+                {
+                    controller.sendCommands(commands.toElsockData());
+                    requests.incrementAndGet();
+                }
+            }
+            catch( IOException | RuntimeException ex )
+            {
+                failed(ex);
+                return;
+            }
+            
+            for( Trigger trigger : triggers )
+            {
+                report(trigger, null);
+            }
+        }
+        
+        
+        /**
+         * Passes the failure to the callbacks of all scenes.
+         * 
+         * @param cause     Cause of the failure
+         */
+        void failed(Throwable cause)
+        {
+            for( Trigger trigger : triggers )
+            {
+                report(trigger, cause);
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Deliveries of a host, sent one after another by the sender executor.
+     */
+    private class Host implements Runnable
+    {
+        private final Queue<Delivery> queue;
+        private boolean running;
+        
+        
+        Host()
+        {
+            this.queue = new ArrayDeque<>();
+            this.running = false;
+        }
+        
+        
+        
+        /**
+         * Queues the delivery; it's sent once all earlier deliveries of the
+         * host are.
+         * 
+         * @param delivery  Delivery
+         */
+        void offer(Delivery delivery)
+        {
+            synchronized( this )
+            {
+                queue.add(delivery);
+                
+                if( running == true )
+                {
+                    return;
+                }
+                
+                running = true;
+            }
+            
+            try
+            {
+                sender.execute(this);
+            }
+            catch( RuntimeException ex )
+            {
+                final List<Delivery> rejected;
+                
+                synchronized( this )
+                {
+                    rejected = new ArrayList<>(queue);
+                    queue.clear();
+                    running = false;
+                }
+                
+                for( Delivery d : rejected )
+                {
+                    d.failed(ex);
+                }
+            }
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            while( true )
+            {
+                final Delivery delivery;
+                
+                synchronized( this )
+                {
+                    delivery = queue.poll();
+                    
+                    if( delivery == null )
+                    {
+                        running = false;
+                        return;
+                    }
+                }
+                
+                delivery.run();
+            }
+        }
+    }
+}
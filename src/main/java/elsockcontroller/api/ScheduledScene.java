@@ -0,0 +1,74 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+/**
+ * The interface <code>ScheduledScene</code> is a scene scheduled by a
+ * {@link SceneScheduler}.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface ScheduledScene
+{
+    /**
+     * Returns the scene.
+     * 
+     * @return      Scene
+     */
+    Scene getScene();
+    
+    
+    /**
+     * Returns the controller of the host the scene is applied to.
+     * 
+     * @return      Controller
+     */
+    ElsockController getController();
+    
+    
+    /**
+     * Cancels further triggers; a request already sent is not affected.
+     * 
+     * @return      Returns <tt>true</tt> if cancelled or <tt>false</tt> if
+     *              already cancelled or done
+     */
+    boolean cancel();
+    
+    
+    /**
+     * Returns whether the schedule was cancelled.
+     * 
+     * @return      Returns <tt>true</tt> if cancelled or <tt>false</tt>
+     *              otherwise
+     */
+    boolean isCancelled();
+    
+    
+    /**
+     * Returns whether the schedule is done; a one-shot schedule is done once
+     * triggered, a periodic one only if cancelled.
+     * 
+     * @return      Returns <tt>true</tt> if done or <tt>false</tt> otherwise
+     */
+    boolean isDone();
+}
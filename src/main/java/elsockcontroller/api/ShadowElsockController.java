@@ -0,0 +1,611 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import elsockcontroller.api.ElsockData.ElsockElement;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>ShadowElsockController</code> is a controller keeping a
+ * shadow of the device status of it's host, which can be
+ * {@link #getShadow() read} without a request.
+ *
+ * <p>Commands are applied to the shadow optimistically once they're sent;
+ * {@link Status#TOGGLE TOGGLE} inverts the known status. The host answers
+ * each command with the status of all devices, which then replaces the
+ * optimistic status. A failed command sets the affected devices unknown.</p>
+ *
+ * <p>Every {@link #getReconcileInterval() reconcile interval} without a
+ * confirmed status, the status is requested from the host to correct
+ * changes not made by this controller (drift).</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class ShadowElsockController extends ElsockController
+{
+    /** Default reconcile interval (ms). */
+    public static final long DEFAULT_RECONCILE_INTERVAL = 60000;
+    private final Object lock;
+    private final List<Pending> pending;
+    private final long reconcileInterval;
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicLong reconciliations;
+    private final AtomicLong drifts;
+    private volatile StatusSnapshot shadow;
+    private StatusSnapshot confirmed;
+    private long confirmedSeq;
+    private long nextSeq;
+    private volatile long confirmedAt;
+    
+    
+    public ShadowElsockController(Protocol protocol, String address)
+    {
+        this(protocol, address, protocol.createTransport(), DEFAULT_RECONCILE_INTERVAL);
+    }
+    
+    /**
+     * Creates a new controller.
+     * 
+     * @param protocol              Protocol
+     * @param address               Host address
+     * @param transport             Transport
+     * @param reconcileInterval     Time (ms) without a confirmed status
+     *                              after which the status is requested or
+     *                              <code>0</code> to disable
+     * @exception                   IllegalArgumentException If
+     *                              <code>reconcileInterval</code> is
+     *                              negative
+     */
+    public ShadowElsockController(Protocol protocol, String address,
+            Transport transport, long reconcileInterval)
+    {
+        super(protocol, address, transport);
+        
+        if( reconcileInterval < 0 )
+        {
+            throw new IllegalArgumentException("Negative interval not allowed!");
+        }
+        
+        this.lock = new Object();
+        this.pending = new ArrayList<>();
+        this.reconcileInterval = reconcileInterval;
+        this.reconciliations = new AtomicLong();
+        this.drifts = new AtomicLong();
+        this.shadow = StatusSnapshot.UNKNOWN;
+        this.confirmed = StatusSnapshot.UNKNOWN;
+        this.confirmedSeq = 0L;
+        this.nextSeq = 0L;
+        this.confirmedAt = System.nanoTime();
+        
+        if( reconcileInterval > 0 )
+        {
+            this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("shadow-reconcile"));
+            this.timer.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    reconcileIfStale();
+                }
+            }, reconcileInterval, reconcileInterval, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            this.timer = null;
+        }
+    }
+    
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The command is applied to the shadow until the response
+     * confirms the status.</p>
+     */
+    @Override
+    public boolean sendCommand(Device device, Status status, StatusSink sink) throws IOException
+    {
+        final Pending command = begin(new ElsockData(device, status));
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendCommand(device, status, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            fail(command);
+            throw ex;
+        }
+        
+        return complete(command, received, response);
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The commands are applied to the shadow until the response
+     * confirms the status.</p>
+     */
+    @Override
+    public boolean sendCommands(ElsockData data, StatusSink sink) throws IOException
+    {
+        final Pending command = begin(data);
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendCommands(data, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            fail(command);
+            throw ex;
+        }
+        
+        return complete(command, received, response);
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The command is applied to the shadow until the response
+     * confirms the status; outputs beyond the {@link Device devices} are not
+     * part of the shadow.</p>
+     */
+    @Override
+    public boolean sendOutput(int output, Status status, StatusSink sink) throws IOException
+    {
+        final Pending command = begin(DeviceModel.toElsockData(Collections.singletonList(output), status));
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendOutput(output, status, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            fail(command);
+            throw ex;
+        }
+        
+        return complete(command, received, response);
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The commands are applied to the shadow until the response
+     * confirms the status; outputs beyond the {@link Device devices} are not
+     * part of the shadow.</p>
+     */
+    @Override
+    public boolean sendGroup(String group, Status status, StatusSink sink) throws IOException
+    {
+        final DeviceModel.Group outputs = getDeviceModel().getGroup(group);
+        final Pending command = begin(outputs == null
+                ? new ElsockData()
+                : DeviceModel.toElsockData(outputs.getOutputs(), status));
+        final SnapshotSink response = new SnapshotSink(sink);
+        final boolean received;
+        
+        try
+        {
+            received = super.sendGroup(group, status, response);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            fail(command);
+            throw ex;
+        }
+        
+        return complete(command, received, response);
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The responses of a pipelined sequence are not evaluated; the
+     * commands are applied to the shadow instead.</p>
+     */
+    @Override
+    public void sendSequence(List<ElsockData> sequence) throws IOException
+    {
+        if( isPipelined(sequence.size()) == false )
+        {
+            super.sendSequence(sequence);
+            return;
+        }
+        
+        final List<Pending> commands = new ArrayList<>(sequence.size());
+        
+        for( ElsockData data : sequence )
+        {
+            commands.add(begin(data));
+        }
+        
+        try
+        {
+            super.sendSequence(sequence);
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            for( Pending command : commands )
+            {
+                fail(command);
+            }
+            
+            throw ex;
+        }
+        
+        for( Pending command : commands )
+        {
+            complete(command, false, null);
+        }
+    }
+    
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The received status replaces the shadow.</p>
+     */
+    @Override
+    public boolean getStatus(StatusSink sink) throws IOException
+    {
+        final long seq;
+        
+        synchronized( lock )
+        {
+            seq = ++nextSeq;
+        }
+        
+        final SnapshotSink response = new SnapshotSink(sink);
+        
+        if( super.getStatus(response) == false )
+        {
+            return false;
+        }
+        
+        final StatusSnapshot snapshot = response.getSnapshot();
+        
+        synchronized( lock )
+        {
+            if( pending.isEmpty() == true && snapshot.diff(shadow) != 0L )
+            {
+                drifts.incrementAndGet();
+            }
+            
+            confirm(snapshot, seq);
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * Returns the shadow of the device status: the last confirmed status
+     * with the pending commands it doesn't include applied. No request is
+     * sent.
+     * 
+     * @return      Status
+     */
+    public StatusSnapshot getShadow()
+    {
+        return shadow;
+    }
+    
+    
+    /**
+     * Returns the last status confirmed by the host.
+     * 
+     * @return      Status
+     */
+    public StatusSnapshot getConfirmed()
+    {
+        synchronized( lock )
+        {
+            return confirmed;
+        }
+    }
+    
+    
+    /**
+     * Returns the number of commands sent but not answered yet.
+     * 
+     * @return      Number of commands
+     */
+    public int getPendingCount()
+    {
+        synchronized( lock )
+        {
+            return pending.size();
+        }
+    }
+    
+    
+    /**
+     * Requests the status from the host to correct the shadow.
+     * 
+     * @throws      IOException On a network failure or timeout
+     */
+    public void reconcile() throws IOException
+    {
+        reconciliations.incrementAndGet();
+        getStatus(new StatusSnapshot.Builder());
+    }
+    
+    
+    /**
+     * Returns the time without a confirmed status after which the status is
+     * requested.
+     * 
+     * @return      Reconcile interval (ms) or <code>0</code> if disabled
+     */
+    public long getReconcileInterval()
+    {
+        return reconcileInterval;
+    }
+    
+    
+    /**
+     * Returns the number of reconciliations.
+     * 
+     * @return      Number of reconciliations
+     */
+    public long getReconciliations()
+    {
+        return reconciliations.get();
+    }
+    
+    
+    /**
+     * Returns the number of requested status that differed from the
+     * shadow.
+     * 
+     * @return      Number of drifts
+     */
+    public long getDrifts()
+    {
+        return drifts.get();
+    }
+    
+    
+    /**
+     * Stops the reconciliation and closes the controller.
+     * 
+     * @throws      IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if( timer != null )
+        {
+            timer.shutdownNow();
+        }
+        
+        super.close();
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "ShadowElsockController{" + "controller=" + super.toString()
+                + ", shadow=" + shadow + ", reconcileInterval=" + reconcileInterval
+                + ", reconciliations=" + reconciliations + ", drifts=" + drifts + '}';
+    }
+    
+    
+    /**
+     * Applies the commands to the shadow before they're sent.
+     * 
+     * @param data      Commands
+     * @return          Pending commands
+     */
+    private Pending begin(ElsockData data)
+    {
+        synchronized( lock )
+        {
+            final Pending command = new Pending(data, ++nextSeq);
+            pending.add(command);
+            shadow = apply(shadow, data);
+            
+            return command;
+        }
+    }
+    
+    
+    /**
+     * Confirms the status of the response, or the commands themselves if
+     * the response was empty.
+     * 
+     * @param command       Pending commands
+     * @param received      Whether status information was received
+     * @param response      Received status information
+     * @return              Returns <tt>received</tt>
+     */
+    private boolean complete(Pending command, boolean received, SnapshotSink response)
+    {
+        final StatusSnapshot snapshot = ( received == true ? response.getSnapshot() : null );
+        
+        synchronized( lock )
+        {
+            pending.remove(command);
+            
+            if( snapshot != null )
+            {
+                confirm(snapshot, command.seq);
+            }
+            else
+            {
+                // A later confirmed status includes the commands already
+                if( command.seq > confirmedSeq )
+                {
+                    confirmed = apply(confirmed, command.data);
+                }
+                
+                update();
+            }
+        }
+        
+        return received;
+    }
+    
+    
+    /**
+     * Sets the devices of failed commands unknown, since it's not known
+     * whether the host executed them.
+     * 
+     * @param command       Pending commands
+     */
+    private void fail(Pending command)
+    {
+        synchronized( lock )
+        {
+            pending.remove(command);
+            StatusSnapshot snapshot = confirmed;
+            
+            for( ElsockElement element : command.data.getElements() )
+            {
+                snapshot = snapshot.with(element.getDevice(), Status.UNKNOWN);
+            }
+            
+            confirmed = snapshot;
+            update();
+        }
+    }
+    
+    
+    /**
+     * Confirms the status, unless a later one was confirmed already; must
+     * be called with the lock held.
+     * 
+     * @param snapshot      Status of the host
+     * @param seq           Sequence number of the request
+     */
+    private void confirm(StatusSnapshot snapshot, long seq)
+    {
+        if( seq > confirmedSeq )
+        {
+            confirmed = snapshot;
+            confirmedSeq = seq;
+            confirmedAt = System.nanoTime();
+        }
+        
+        update();
+    }
+    
+    
+    /**
+     * Rebuilds the shadow of the confirmed status and the pending commands
+     * sent after it was requested; the confirmed status includes the
+     * earlier ones. Must be called with the lock held.
+     */
+    private void update()
+    {
+        StatusSnapshot snapshot = confirmed;
+        
+        for( Pending command : pending )
+        {
+            if( command.seq > confirmedSeq )
+            {
+                snapshot = apply(snapshot, command.data);
+            }
+        }
+        
+        shadow = snapshot;
+    }
+    
+    
+    /**
+     * Reconciles the shadow if no status was confirmed within the reconcile
+     * interval; failures are retried with the next interval.
+     */
+    private void reconcileIfStale()
+    {
+        if( System.nanoTime() - confirmedAt < TimeUnit.MILLISECONDS.toNanos(reconcileInterval) )
+        {
+            return;
+        }
+        
+        try
+        {
+            reconcile();
+        }
+        catch( IOException | RuntimeException ex )
+        {
+            // Retried with the next interval
+        }
+    }
+    
+    
+    private static StatusSnapshot apply(StatusSnapshot snapshot, ElsockData data)
+    {
+        StatusSnapshot result = snapshot;
+        
+        for( ElsockElement element : data.getElements() )
+        {
+            result = result.with(element.getDevice(), element.getStatus());
+        }
+        
+        return result;
+    }
+    
+    
+    
+    /**
+     * Commands sent but not answered yet.
+     */
+    private static final class Pending
+    {
+        private final ElsockData data;
+        private final long seq;
+        
+        
+        Pending(ElsockData data, long seq)
+        {
+            this.data = data;
+            this.seq = seq;
+        }
+    }
+}
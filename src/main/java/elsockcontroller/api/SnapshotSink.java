@@ -0,0 +1,62 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+/**
+ * The class <code>SnapshotSink</code> collects the status information of a
+ * response into a {@link StatusSnapshot} and passes it on to another sink.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class SnapshotSink implements StatusSink
+{
+    private final StatusSnapshot.Builder builder;
+    private final StatusSink sink;
+    
+    
+    SnapshotSink(StatusSink sink)
+    {
+        this.builder = new StatusSnapshot.Builder();
+        this.sink = sink;
+    }
+    
+    
+    
+    @Override
+    public void status(int pos, Status status)
+    {
+        builder.status(pos, status);
+        sink.status(pos, status);
+    }
+    
+    
+    /**
+     * Returns the collected status information.
+     * 
+     * @return      Status
+     */
+    StatusSnapshot getSnapshot()
+    {
+        return builder.build();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.List;
+
+/**
+ * The class <code>StatusChange</code> describes the devices of a host whose
+ * status changed between two polls of a {@link StatusWatcher}.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class StatusChange
+{
+    private final String address;
+    private final StatusSnapshot previous;
+    private final StatusSnapshot current;
+    private final long changedMask;
+    
+    
+    StatusChange(String address, StatusSnapshot previous, StatusSnapshot current)
+    {
+        this.address = address;
+        this.previous = previous;
+        this.current = current;
+        this.changedMask = current.diff(previous);
+    }
+    
+    
+    
+    /**
+     * Returns the host address.
+     * 
+     * @return      Address
+     */
+    public String getAddress()
+    {
+        return address;
+    }
+    
+    
+    /**
+     * Returns the status before the change.
+     * 
+     * @return      Previous status; {@link StatusSnapshot#UNKNOWN UNKNOWN}
+     *              for the first change of a watcher
+     */
+    public StatusSnapshot getPrevious()
+    {
+        return previous;
+    }
+    
+    
+    /**
+     * Returns the status after the change.
+     * 
+     * @return      Current status
+     */
+    public StatusSnapshot getCurrent()
+    {
+        return current;
+    }
+    
+    
+    /**
+     * Returns the mask of all changed devices.
+     * 
+     * @return      Mask
+     * @see         StatusSnapshot#mask(Device)
+     */
+    public long getChangedMask()
+    {
+        return changedMask;
+    }
+    
+    
+    /**
+     * Returns all changed devices.
+     * 
+     * @return      Devices
+     */
+    public List<Device> getChangedDevices()
+    {
+        return StatusSnapshot.devices(changedMask);
+    }
+    
+    
+    /**
+     * Returns whether the status of device <code>dev</code> changed.
+     * 
+     * @param dev       Device
+     * @return          Returns <tt>true</tt> if changed or <tt>false</tt>
+     *                  otherwise
+     */
+    public boolean isChanged(Device dev)
+    {
+        return ( changedMask & StatusSnapshot.mask(dev) ) != 0;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "StatusChange{" + "address=" + address + ", previous=" + previous
+                + ", current=" + current + '}';
+    }
+}
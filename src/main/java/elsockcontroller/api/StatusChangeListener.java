@@ -0,0 +1,54 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+
+/**
+ * The interface <code>StatusChangeListener</code> receives the status
+ * changes of a {@link StatusWatcher}.
+ *
+ * <p>Listeners are called on the polling thread of the watcher and should
+ * return quickly.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface StatusChangeListener
+{
+    /**
+     * Called if the status of at least one device changed. The first poll
+     * reports all devices as changed.
+     * 
+     * @param change        Change
+     */
+    void statusChanged(StatusChange change);
+    
+    
+    /**
+     * Called if a poll failed.
+     * 
+     * @param address       Host address
+     * @param cause         Cause of the failure
+     */
+    void pollFailed(String address, IOException cause);
+}
@@ -0,0 +1,957 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>StatusHistory</code> is a compact, memory-mapped store of
+ * the status of many hosts over time, eg. for energy reporting.
+ *
+ * <p>Only changes are stored: each run of unchanged status is encoded by the
+ * time passed since the previous run and the bits of the
+ * {@link StatusSnapshot status masks} that changed, all as variable length
+ * integers. Samples repeating the last status cost nothing, a change
+ * usually takes three to six bytes. A board switching once a minute fills
+ * about 3 MB per year, regardless of how often it's sampled.</p>
+ *
+ * <p>Runs are grouped in blocks; each block starts with a checkpoint of the
+ * full status and the accumulated on-time of every device. A range query
+ * like {@link #getOnTime(String, Device, long, long) getOnTime()} locates
+ * the blocks of both ends by binary search and decodes no more than one
+ * block per end, no matter how long the history is.</p>
+ *
+ * <p>Each host has it's own series of segment files in the directory. The
+ * series of a host is loaded on first access. The last recorded status of a
+ * host lasts until the next one; on {@link #close() close} all hosts are
+ * recorded as unknown. Records are written by the operating system and not
+ * forced to disk, except if a segment is full.</p>
+ *
+ * <p>The history can be registered as listener of a {@link StatusWatcher}
+ * to record each change it detects.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class StatusHistory implements StatusChangeListener, Closeable
+{
+    /** Default size (bytes) of a segment file. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    private static final int MIN_SEGMENT_SIZE = 1 << 12;
+    private static final int MAGIC = 0x454c5348;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER = 16;
+    private static final int BLOCK = 0x424c4b31;
+    private static final int BLOCK_RUNS = 256;
+    private static final int MAX_RUN = 30;
+    private static final int DEVICES = Device.getDevices().size();
+    private static final int BLOCK_HEADER = 32 + 8 * DEVICES;
+    private static final String SUFFIX = ".hist";
+    private final File directory;
+    private final int segmentSize;
+    private final Map<String, Series> series;
+    private final AtomicLong samples;
+    private final AtomicLong runs;
+    private final AtomicLong errors;
+    private volatile boolean closed;
+    
+    
+    public StatusHistory(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    /**
+     * Opens the history; the directory is created if it doesn't exist.
+     * 
+     * @param directory         Directory of the segment files
+     * @param segmentSize       Size (bytes) of new segment files
+     * @throws                  IOException If the directory can't be
+     *                          created
+     * @exception               IllegalArgumentException If
+     *                          <code>segmentSize</code> is less than 4 KB
+     */
+    public StatusHistory(File directory, int segmentSize) throws IOException
+    {
+        if( segmentSize < MIN_SEGMENT_SIZE )
+        {
+            throw new IllegalArgumentException("Segment size too small!");
+        }
+        
+        if( directory.isDirectory() == false && directory.mkdirs() == false )
+        {
+            throw new IOException("Not a directory: " + directory);
+        }
+        
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.series = new TreeMap<>();
+        this.samples = new AtomicLong();
+        this.runs = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.closed = false;
+        
+        final File[] files = directory.listFiles();
+        
+        if( files == null )
+        {
+            throw new IOException("Can't read directory: " + directory);
+        }
+        
+        for( File file : files )
+        {
+            final String name = file.getName();
+            final int end = name.lastIndexOf('.', name.length() - SUFFIX.length() - 1);
+            
+            if( name.endsWith(SUFFIX) == true && end > 0 )
+            {
+                final String host = URLDecoder.decode(name.substring(0, end), "UTF-8");
+                
+                if( series.containsKey(host) == false )
+                {
+                    series.put(host, new Series(host));
+                }
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Records the status of the host at <code>time</code>. Nothing is written
+     * if the status didn't change.
+     * 
+     * @param host          Host address
+     * @param time          Time (ms)
+     * @param status        Status
+     * @throws              IOException If the segment file can't be written
+     *                      or the history is closed
+     * @exception           IllegalArgumentException If <code>time</code> is
+     *                      before the last recorded one of the host
+     */
+    public void record(String host, long time, StatusSnapshot status) throws IOException
+    {
+        final Series s = series(host, true);
+        
+        synchronized( s )
+        {
+            ensureOpen();
+            s.load();
+            s.append(time, status.getOnMask(), status.getKnownMask());
+        }
+        
+        samples.incrementAndGet();
+    }
+    
+    
+    /**
+     * Records the status of the host at <code>time</code>, eg. as returned by
+     * {@link ElsockController#getStatus() getStatus()}. Devices not contained
+     * are recorded as unknown.
+     * 
+     * @param host          Host address
+     * @param time          Time (ms)
+     * @param data          Status
+     * @throws              IOException If the segment file can't be written
+     *                      or the history is closed
+     * @exception           IllegalArgumentException If <code>time</code> is
+     *                      before the last recorded one of the host
+     */
+    public void record(String host, long time, ElsockData data) throws IOException
+    {
+        record(host, time, StatusSnapshot.of(data));
+    }
+    
+    
+    /**
+     * Returns the recorded status of the host at <code>time</code>.
+     * 
+     * @param host          Host address
+     * @param time          Time (ms)
+     * @return              Status; unknown before the first record or if the
+     *                      host has no history
+     * @throws              IOException If the segment files can't be read
+     */
+    public StatusSnapshot getStatus(String host, long time) throws IOException
+    {
+        final Series s = series(host, false);
+        
+        if( s == null )
+        {
+            return StatusSnapshot.UNKNOWN;
+        }
+        
+        synchronized( s )
+        {
+            s.load();
+            return s.status(time);
+        }
+    }
+    
+    
+    /**
+     * Returns how long the device of the host was on between
+     * <code>from</code> and <code>to</code>.
+     * 
+     * @param host          Host address
+     * @param device        Device
+     * @param from          Start time (ms), inclusive
+     * @param to            End time (ms), exclusive
+     * @return              On-time (ms)
+     * @throws              IOException If the segment files can't be read
+     * @exception           IllegalArgumentException If <code>device</code>
+     *                      is a group or <code>to</code> is before
+     *                      <code>from</code>
+     */
+    public long getOnTime(String host, Device device, long from, long to) throws IOException
+    {
+        final int index = device.getIndex();
+        
+        if( index < 0 )
+        {
+            throw new IllegalArgumentException("Groups not supported!");
+        }
+        
+        if( to < from )
+        {
+            throw new IllegalArgumentException("Invalid time range!");
+        }
+        
+        final Series s = series(host, false);
+        
+        if( s == null )
+        {
+            return 0L;
+        }
+        
+        synchronized( s )
+        {
+            s.load();
+            return s.onTime(index, to) - s.onTime(index, from);
+        }
+    }
+    
+    
+    /**
+     * Returns the addresses of all hosts with a history.
+     * 
+     * @return      Host addresses, sorted
+     */
+    public synchronized List<String> getHosts()
+    {
+        return new ArrayList<>(series.keySet());
+    }
+    
+    
+    /**
+     * Returns the directory of the segment files.
+     * 
+     * @return      Directory
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+    
+    
+    /**
+     * Returns the number of samples recorded since the history was opened.
+     * 
+     * @return      Number of samples
+     */
+    public long getSamples()
+    {
+        return samples.get();
+    }
+    
+    
+    /**
+     * Returns the number of status changes written since the history was
+     * opened.
+     * 
+     * @return      Number of changes
+     */
+    public long getRuns()
+    {
+        return runs.get();
+    }
+    
+    
+    /**
+     * Returns the number of changes reported to the history as
+     * {@link StatusChangeListener listener} that couldn't be recorded.
+     * 
+     * @return      Number of errors
+     */
+    public long getErrors()
+    {
+        return errors.get();
+    }
+    
+    
+    /**
+     * Records the current status of the host.
+     * 
+     * @param change        Change
+     */
+    @Override
+    public void statusChanged(StatusChange change)
+    {
+        recordNow(change.getAddress(), change.getCurrent());
+    }
+    
+    
+    /**
+     * Records the host as unknown.
+     * 
+     * @param address       Host address
+     * @param cause         Cause of the failure
+     */
+    @Override
+    public void pollFailed(String address, IOException cause)
+    {
+        recordNow(address, StatusSnapshot.UNKNOWN);
+    }
+    
+    
+    /**
+     * Records all hosts as unknown and closes the history.
+     * 
+     * @throws      IOException If a segment file can't be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final List<Series> all;
+        
+        synchronized( this )
+        {
+            if( closed == true )
+            {
+                return;
+            }
+            
+            closed = true;
+            all = new ArrayList<>(series.values());
+        }
+        
+        final long now = System.currentTimeMillis();
+        
+        for( Series s : all )
+        {
+            synchronized( s )
+            {
+                s.close(now);
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "StatusHistory{" + "directory=" + directory + ", hosts=" + getHosts().size()
+                + ", samples=" + samples + ", runs=" + runs + '}';
+    }
+    
+    
+    private void recordNow(String host, StatusSnapshot status)
+    {
+        try
+        {
+            record(host, System.currentTimeMillis(), status);
+        }
+        catch( IOException | IllegalArgumentException ex )
+        {
+            errors.incrementAndGet();
+        }
+    }
+    
+    
+    private synchronized Series series(String host, boolean create)
+    {
+        Series s = series.get(host);
+        
+        if( s == null && create == true )
+        {
+            s = new Series(host);
+            series.put(host, s);
+        }
+        
+        return s;
+    }
+    
+    
+    private void ensureOpen() throws IOException
+    {
+        if( closed == true )
+        {
+            throw new IOException("History closed: " + directory);
+        }
+    }
+    
+    
+    private static int putVarint(ByteBuffer buffer, int position, long value)
+    {
+        int pos = position;
+        long v = value;
+        
+        while( ( v & ~0x7fL ) != 0 )
+        {
+            buffer.put(pos++, (byte) ( ( v & 0x7f ) | 0x80 ));
+            v >>>= 7;
+        }
+        
+        buffer.put(pos++, (byte) v);
+        
+        return pos;
+    }
+    
+    
+    private static void accumulate(long[] onTime, long mask, long delta)
+    {
+        for( int i = 0; i < onTime.length; i++ )
+        {
+            if( ( mask & ( 1L << i ) ) != 0 )
+            {
+                onTime[i] += delta;
+            }
+        }
+    }
+    
+    
+    private static int align(int offset)
+    {
+        return ( offset + 7 ) & ~7;
+    }
+    
+    
+    
+    /**
+     * Decodes the runs of a block, starting at it's checkpoint.
+     */
+    private static final class Decoder
+    {
+        private final ByteBuffer buffer;
+        private final int end;
+        private int position;
+        private long time;
+        private long on;
+        private long known;
+        
+        
+        Decoder(ByteBuffer buffer, int block)
+        {
+            this.buffer = buffer;
+            this.position = block + BLOCK_HEADER;
+            this.end = position + buffer.getInt(block + 4);
+            this.time = buffer.getLong(block + 8);
+            this.on = buffer.getLong(block + 16);
+            this.known = buffer.getLong(block + 24);
+        }
+        
+        
+        /**
+         * Moves to the next run unless it starts after <code>limit</code>.
+         * 
+         * @param limit     Limit (ms)
+         * @return          Returns <tt>true</tt> if moved or <tt>false</tt>
+         *                  at the end of the block or limit
+         */
+        boolean next(long limit)
+        {
+            if( position >= end )
+            {
+                return false;
+            }
+            
+            final int start = position;
+            final long delta = getVarint();
+            
+            if( time + delta > limit )
+            {
+                position = start;
+                return false;
+            }
+            
+            time += delta;
+            on ^= getVarint();
+            known ^= getVarint();
+            
+            return true;
+        }
+        
+        
+        private long getVarint()
+        {
+            long value = 0L;
+            int shift = 0;
+            byte b;
+            
+            do
+            {
+                b = buffer.get(position++);
+                value |= (long) ( b & 0x7f ) << shift;
+                shift += 7;
+            }
+            while( b < 0 );
+            
+            return value;
+        }
+    }
+    
+    
+    
+    /**
+     * The segments and block index of a single host. All methods must be
+     * called with the series locked.
+     */
+    private final class Series
+    {
+        private final String host;
+        private final List<MappedByteBuffer> segments;
+        private final long[] onTime;
+        private long[] times;
+        private int[] positions;
+        private int blocks;
+        private boolean loaded;
+        private int block;
+        private int blockRuns;
+        private int length;
+        private long time;
+        private long on;
+        private long known;
+        
+        
+        Series(String host)
+        {
+            this.host = host;
+            this.segments = new ArrayList<>();
+            this.onTime = new long[DEVICES];
+            this.times = new long[16];
+            this.positions = new int[32];
+            this.blocks = 0;
+            this.loaded = false;
+            this.block = -1;
+        }
+        
+        
+        /**
+         * Maps the segment files and builds the block index, unless already
+         * loaded.
+         * 
+         * @throws      IOException If a file can't be read or is not a
+         *              segment
+         */
+        void load() throws IOException
+        {
+            if( loaded == true )
+            {
+                return;
+            }
+            
+            for( File file = file(0); file.exists() == true; file = file(segments.size()) )
+            {
+                final MappedByteBuffer buffer = map(file, 0);
+                
+                if( buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION )
+                {
+                    throw new IOException("Not a status history: " + file);
+                }
+                
+                segments.add(buffer);
+                index(segments.size() - 1, buffer);
+            }
+            
+            if( blocks > 0 )
+            {
+                restore();
+            }
+            
+            loaded = true;
+        }
+        
+        
+        /**
+         * Appends a run if the status changed.
+         * 
+         * @param at        Time (ms)
+         * @param newOn     Mask of devices on
+         * @param newKnown  Mask of known devices
+         * @throws          IOException If a new segment can't be created
+         */
+        void append(long at, long newOn, long newKnown) throws IOException
+        {
+            if( blocks > 0 )
+            {
+                if( at < time )
+                {
+                    throw new IllegalArgumentException("Time before last record not allowed!");
+                }
+                
+                if( newOn == on && newKnown == known )
+                {
+                    return;
+                }
+            }
+            
+            final long delta = at - time;
+            final long changedOn = on ^ newOn;
+            final long changedKnown = known ^ newKnown;
+            
+            accumulate(onTime, on, delta);
+            time = at;
+            on = newOn;
+            known = newKnown;
+            runs.incrementAndGet();
+            
+            final MappedByteBuffer segment = current();
+            
+            if( block < 0 || blockRuns >= BLOCK_RUNS || end() + MAX_RUN > segment.capacity() )
+            {
+                startBlock();
+                return;
+            }
+            
+            int pos = putVarint(segment, end(), delta);
+            pos = putVarint(segment, pos, changedOn);
+            pos = putVarint(segment, pos, changedKnown);
+            
+            length = pos - block - BLOCK_HEADER;
+            blockRuns++;
+            segment.putInt(block + 4, length);
+        }
+        
+        
+        /**
+         * Returns the status at <code>at</code>.
+         * 
+         * @param at        Time (ms)
+         * @return          Status
+         */
+        StatusSnapshot status(long at)
+        {
+            final int b = find(at);
+            
+            if( b < 0 )
+            {
+                return StatusSnapshot.UNKNOWN;
+            }
+            
+            final Decoder decoder = decoder(b);
+            
+            while( decoder.next(at) == true )
+            {
+                // Skip to the run at the time
+            }
+            
+            return StatusSnapshot.of(decoder.on, decoder.known);
+        }
+        
+        
+        /**
+         * Returns the on-time of the device from the first record up to
+         * <code>at</code>.
+         * 
+         * @param index     Device index
+         * @param at        Time (ms)
+         * @return          On-time (ms)
+         */
+        long onTime(int index, long at)
+        {
+            final int b = find(at);
+            
+            if( b < 0 )
+            {
+                return 0L;
+            }
+            
+            final long bit = 1L << index;
+            final Decoder decoder = decoder(b);
+            long total = segments.get(positions[2 * b]).getLong(positions[2 * b + 1] + 32 + 8 * index);
+            long start = decoder.time;
+            boolean isOn = ( decoder.on & bit ) != 0;
+            
+            while( decoder.next(at) == true )
+            {
+                if( isOn == true )
+                {
+                    total += decoder.time - start;
+                }
+                
+                start = decoder.time;
+                isOn = ( decoder.on & bit ) != 0;
+            }
+            
+            return ( isOn == true ? total + at - start : total );
+        }
+        
+        
+        /**
+         * Records the host as unknown and forces the current segment to
+         * disk.
+         * 
+         * @param at        Time (ms)
+         * @throws          IOException If the segment can't be written
+         */
+        void close(long at) throws IOException
+        {
+            if( loaded == false || blocks == 0 )
+            {
+                return;
+            }
+            
+            append(Math.max(at, time), 0L, 0L);
+            current().force();
+        }
+        
+        
+        /**
+         * Adds the valid blocks of the segment to the index.
+         * 
+         * @param segment       Segment number
+         * @param buffer        Segment
+         */
+        private void index(int segment, MappedByteBuffer buffer)
+        {
+            int offset = SEGMENT_HEADER;
+            
+            while( offset + BLOCK_HEADER <= buffer.capacity() && buffer.getInt(offset) == BLOCK )
+            {
+                final int size = buffer.getInt(offset + 4);
+                final long start = buffer.getLong(offset + 8);
+                
+                if( size < 0 || offset + BLOCK_HEADER + size > buffer.capacity()
+                        || ( blocks > 0 && start < times[blocks - 1] ) )
+                {
+                    break;
+                }
+                
+                add(start, segment, offset);
+                offset = align(offset + BLOCK_HEADER + size);
+            }
+        }
+        
+        
+        /**
+         * Restores the current status and on-times from the last block.
+         */
+        private void restore()
+        {
+            final int b = blocks - 1;
+            final MappedByteBuffer segment = segments.get(positions[2 * b]);
+            final Decoder decoder = decoder(b);
+            
+            block = positions[2 * b + 1];
+            length = segment.getInt(block + 4);
+            blockRuns = 0;
+            
+            for( int i = 0; i < DEVICES; i++ )
+            {
+                onTime[i] = segment.getLong(block + 32 + 8 * i);
+            }
+            
+            long start = decoder.time;
+            long last = decoder.on;
+            
+            while( decoder.next(Long.MAX_VALUE) == true )
+            {
+                accumulate(onTime, last, decoder.time - start);
+                start = decoder.time;
+                last = decoder.on;
+                blockRuns++;
+            }
+            
+            time = decoder.time;
+            on = decoder.on;
+            known = decoder.known;
+            
+            // Drop segments following the last block, eg. created before a crash
+            while( segments.size() > positions[2 * b] + 1 )
+            {
+                segments.remove(segments.size() - 1);
+            }
+        }
+        
+        
+        /**
+         * Writes a new block with a checkpoint of the current status; a new
+         * segment is created if the current one is full.
+         * 
+         * @throws      IOException If the segment can't be created
+         */
+        private void startBlock() throws IOException
+        {
+            MappedByteBuffer segment = current();
+            int offset = ( block < 0 ? SEGMENT_HEADER : align(end()) );
+            
+            if( offset + BLOCK_HEADER + MAX_RUN > segment.capacity() )
+            {
+                segment.force();
+                segment = newSegment();
+                offset = SEGMENT_HEADER;
+            }
+            
+            segment.putInt(offset + 4, 0);
+            segment.putLong(offset + 8, time);
+            segment.putLong(offset + 16, on);
+            segment.putLong(offset + 24, known);
+            
+            for( int i = 0; i < DEVICES; i++ )
+            {
+                segment.putLong(offset + 32 + 8 * i, onTime[i]);
+            }
+            
+            segment.putInt(offset, BLOCK);
+            
+            block = offset;
+            blockRuns = 0;
+            length = 0;
+            add(time, segments.size() - 1, offset);
+        }
+        
+        
+        private MappedByteBuffer current() throws IOException
+        {
+            return ( segments.isEmpty() == true ? newSegment() : segments.get(segments.size() - 1) );
+        }
+        
+        
+        private MappedByteBuffer newSegment() throws IOException
+        {
+            final File file = file(segments.size());
+            
+            // Left over without any block, eg. by a crash
+            if( file.exists() == true && file.delete() == false )
+            {
+                throw new IOException("Can't replace segment: " + file);
+            }
+            
+            final MappedByteBuffer buffer = map(file, segmentSize);
+            
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, time);
+            segments.add(buffer);
+            block = -1;
+            
+            return buffer;
+        }
+        
+        
+        private MappedByteBuffer map(File file, int size) throws IOException
+        {
+            try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+            {
+                if( size > 0 )
+                {
+                    raf.setLength(size);
+                }
+                
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            }
+        }
+        
+        
+        private File file(int segment) throws IOException
+        {
+            return new File(directory, URLEncoder.encode(host, "UTF-8") + "." + segment + SUFFIX);
+        }
+        
+        
+        private void add(long start, int segment, int offset)
+        {
+            if( blocks == times.length )
+            {
+                times = Arrays.copyOf(times, blocks * 2);
+                positions = Arrays.copyOf(positions, blocks * 4);
+            }
+            
+            times[blocks] = start;
+            positions[2 * blocks] = segment;
+            positions[2 * blocks + 1] = offset;
+            blocks++;
+        }
+        
+        
+        /**
+         * Returns the last block starting at or before <code>at</code>.
+         * 
+         * @param at        Time (ms)
+         * @return          Block or <code>-1</code> if there's none
+         */
+        private int find(long at)
+        {
+            int low = 0;
+            int high = blocks - 1;
+            int found = -1;
+            
+            while( low <= high )
+            {
+                final int mid = ( low + high ) >>> 1;
+                
+                if( times[mid] <= at )
+                {
+                    found = mid;
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid - 1;
+                }
+            }
+            
+            return found;
+        }
+        
+        
+        private Decoder decoder(int b)
+        {
+            return new Decoder(segments.get(positions[2 * b]), positions[2 * b + 1]);
+        }
+        
+        
+        private int end()
+        {
+            return block + BLOCK_HEADER + length;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The class <code>StatusParser</code> parses status responses
+ * (eg. <code>0,1,0,...</code>) without allocating intermediate objects.
+ *
+ * <p>Values are separated by <code>,</code>; surrounding whitespace is
+ * ignored. Each <code>0</code> or <code>1</code> is passed to the
+ * {@link StatusSink sink} with the next position, other values are
+ * skipped.</p>
+ *
+ * <p>Objects of this class are not thread-safe, but can be reused for any
+ * number of responses.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class StatusParser
+{
+    /** Result of a response without data. */
+    public static final int EMPTY = -1;
+    private static final int BUFFER_SIZE = 64;
+    private final byte[] buffer;
+    private int pos;
+    private int tokenLength;
+    private byte tokenValue;
+    private boolean content;
+    
+    
+    public StatusParser()
+    {
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+    
+    
+    
+    /**
+     * Parses the response read from <code>in</code>.
+     * 
+     * @param in        Response
+     * @param sink      Sink of the status values
+     * @return          Number of status values or {@link #EMPTY EMPTY} if the
+     *                  response contains no data (whitespace only)
+     * @throws          IOException On a read failure
+     */
+    public int parse(InputStream in, StatusSink sink) throws IOException
+    {
+        reset();
+        int n;
+        
+        while( ( n = in.read(buffer, 0, buffer.length) ) >= 0 )
+        {
+            update(buffer, 0, n, sink);
+        }
+        
+        return finish(sink);
+    }
+    
+    
+    /**
+     * Parses the response stored in <code>data</code>.
+     * 
+     * @param data      Data
+     * @param off       Offset of the response
+     * @param len       Length of the response
+     * @param sink      Sink of the status values
+     * @return          Number of status values or {@link #EMPTY EMPTY} if the
+     *                  response contains no data (whitespace only)
+     */
+    public int parse(byte[] data, int off, int len, StatusSink sink)
+    {
+        reset();
+        update(data, off, len, sink);
+        
+        return finish(sink);
+    }
+    
+    
+    private void reset()
+    {
+        pos = 0;
+        tokenLength = 0;
+        tokenValue = 0;
+        content = false;
+    }
+    
+    
+    private void update(byte[] data, int off, int len, StatusSink sink)
+    {
+        final int end = off + len;
+        
+        for( int i = off; i < end; i++ )
+        {
+            final byte b = data[i];
+            
+            if( b == ',' )
+            {
+                content = true;
+                endToken(sink);
+            }
+            else if( ( b & 0xff ) > ' ' )
+            {
+                content = true;
+                tokenValue = b;
+                tokenLength++;
+            }
+        }
+    }
+    
+    
+    private int finish(StatusSink sink)
+    {
+        endToken(sink);
+        
+        return ( content == true ? pos : EMPTY );
+    }
+    
+    
+    private void endToken(StatusSink sink)
+    {
+        if( tokenLength == 1 )
+        {
+            if( tokenValue == '0' )
+            {
+                sink.status(pos++, Status.OFF);
+            }
+            else if( tokenValue == '1' )
+            {
+                sink.status(pos++, Status.ON);
+            }
+        }
+        
+        tokenLength = 0;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+/**
+ * The interface <code>StatusSink</code> receives the status values of a
+ * status response, as reported by the device.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface StatusSink
+{
+    /**
+     * Receives the status of the device at position <code>pos</code>. The
+     * position refers to the (real) devices as returned by
+     * {@link Device#getDevices() Device.getDevices()}, or to the outputs of a
+     * {@link DeviceModel}.
+     * 
+     * @param pos           Position of the device (<code>0 &le; pos</code>)
+     * @param status        Status ({@link Status#ON ON} or
+     *                      {@link Status#OFF OFF})
+     */
+    void status(int pos, Status status);
+}
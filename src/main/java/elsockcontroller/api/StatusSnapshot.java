@@ -0,0 +1,493 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import elsockcontroller.api.ElsockData.ElsockElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class <code>StatusSnapshot</code> is an immutable and compact
+ * representation of the status of all (real) devices.
+ *
+ * <p>The status is stored in two bitmasks; bit <code>n</code> refers to the
+ * device at position <code>n</code> of
+ * {@link Device#getDevices() Device.getDevices()}. A device is either
+ * {@link Status#ON ON}, {@link Status#OFF OFF} or - if it's bit in the
+ * {@link #getKnownMask() known mask} is not set -
+ * {@link Status#UNKNOWN UNKNOWN}.</p>
+ *
+ * <p>Snapshots can be {@link #diff(StatusSnapshot) compared} by a few bit
+ * operations and converted from / to {@link ElsockData}.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class StatusSnapshot
+{
+    /** Snapshot with all devices unknown. */
+    public static final StatusSnapshot UNKNOWN = new StatusSnapshot(0L, 0L);
+    private static final Device[] DEVICES;
+    private final long onMask;
+    private final long knownMask;
+    
+    static
+    {
+        final List<Device> devices = Device.getDevices();
+        DEVICES = devices.toArray(new Device[devices.size()]);
+        
+        if( DEVICES.length > Long.SIZE )
+        {
+            throw new AssertionError("Too many devices for a snapshot");
+        }
+    }
+    
+    
+    private StatusSnapshot(long onMask, long knownMask)
+    {
+        this.onMask = onMask & knownMask;
+        this.knownMask = knownMask;
+    }
+    
+    
+    
+    /**
+     * Returns the snapshot of the given masks.
+     * 
+     * @param onMask        Mask of devices with status <code>ON</code>
+     * @param knownMask     Mask of devices with known status
+     * @return              Snapshot
+     */
+    public static StatusSnapshot of(long onMask, long knownMask)
+    {
+        return new StatusSnapshot(onMask, knownMask & allMask());
+    }
+    
+    
+    /**
+     * Returns the snapshot of <code>data</code>. Devices not contained and
+     * elements other than <code>ON</code> or <code>OFF</code> are treated as
+     * unknown.
+     * 
+     * @param data      Data
+     * @return          Snapshot
+     */
+    public static StatusSnapshot of(ElsockData data)
+    {
+        long on = 0L;
+        long known = 0L;
+        
+        for( ElsockElement element : data.getElements() )
+        {
+            final int index = element.getDevice().getIndex();
+            
+            if( index < 0 )
+            {
+                continue;
+            }
+            
+            final long bit = 1L << index;
+            
+            switch(element.getStatus())
+            {
+                case ON:
+                    on |= bit;
+                    known |= bit;
+                    break;
+                case OFF:
+                    on &= ~bit;
+                    known |= bit;
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        return new StatusSnapshot(on, known);
+    }
+    
+    
+    /**
+     * Returns the status of device <code>dev</code>.
+     * 
+     * @param dev       Device
+     * @return          Status; groups are always <code>UNKNOWN</code>
+     */
+    public Status getStatus(Device dev)
+    {
+        final int index = dev.getIndex();
+        
+        if( index < 0 || ( knownMask & ( 1L << index ) ) == 0 )
+        {
+            return Status.UNKNOWN;
+        }
+        
+        return ( ( onMask & ( 1L << index ) ) != 0 ? Status.ON : Status.OFF );
+    }
+    
+    
+    /**
+     * Returns a snapshot with device <code>dev</code> set to
+     * <code>status</code>. Setting a group sets all devices of it;
+     * {@link Status#TOGGLE TOGGLE} inverts known devices.
+     * 
+     * @param dev           Device
+     * @param status        Status
+     * @return              Snapshot
+     */
+    public StatusSnapshot with(Device dev, Status status)
+    {
+        final long bits = mask(dev);
+        
+        switch(status)
+        {
+            case ON:
+                return new StatusSnapshot(onMask | bits, knownMask | bits);
+            case OFF:
+                return new StatusSnapshot(onMask & ~bits, knownMask | bits);
+            case TOGGLE:
+                return new StatusSnapshot(onMask ^ ( bits & knownMask ), knownMask);
+            case UNKNOWN:
+                return new StatusSnapshot(onMask, knownMask & ~bits);
+            default:
+                return this;
+        }
+    }
+    
+    
+    /**
+     * Returns the mask of all devices whose status differs from the one in
+     * <code>other</code>.
+     * 
+     * @param other     Other snapshot
+     * @return          Mask of changed devices
+     */
+    public long diff(StatusSnapshot other)
+    {
+        return ( onMask ^ other.onMask ) | ( knownMask ^ other.knownMask );
+    }
+    
+    
+    /**
+     * Returns the mask of devices with status <code>ON</code>.
+     * 
+     * @return      Mask
+     */
+    public long getOnMask()
+    {
+        return onMask;
+    }
+    
+    
+    /**
+     * Returns the mask of devices with a known status.
+     * 
+     * @return      Mask
+     */
+    public long getKnownMask()
+    {
+        return knownMask;
+    }
+    
+    
+    /**
+     * Returns whether the status of all devices is known.
+     * 
+     * @return      Returns <tt>true</tt> if all are known or <tt>false</tt>
+     *              otherwise
+     */
+    public boolean isComplete()
+    {
+        return knownMask == allMask();
+    }
+    
+    
+    /**
+     * Passes the status of all known devices to <code>sink</code>.
+     * 
+     * @param sink      Sink
+     */
+    public void copyTo(StatusSink sink)
+    {
+        for( int i = 0; i < DEVICES.length; i++ )
+        {
+            if( ( knownMask & ( 1L << i ) ) != 0 )
+            {
+                sink.status(i, ( ( onMask & ( 1L << i ) ) != 0 ? Status.ON : Status.OFF ));
+            }
+        }
+    }
+    
+    
+    /**
+     * Converts the snapshot to data containing all (real) devices.
+     * 
+     * @return      Data
+     */
+    public ElsockData toElsockData()
+    {
+        final ElsockData data = new ElsockData();
+        
+        for( int i = 0; i < DEVICES.length; i++ )
+        {
+            data.insert(DEVICES[i], getStatus(DEVICES[i]));
+        }
+        
+        return data;
+    }
+    
+    
+    /**
+     * Converts the snapshot to immutable data containing all (real) devices.
+     * 
+     * @return      Data
+     */
+    public ImmutableElsockData toImmutableElsockData()
+    {
+        final ImmutableElsockData.Builder builder = ImmutableElsockData.builder();
+        
+        for( int i = 0; i < DEVICES.length; i++ )
+        {
+            builder.add(DEVICES[i], getStatus(DEVICES[i]));
+        }
+        
+        return builder.build();
+    }
+    
+    
+    /**
+     * Returns the mask of device <code>dev</code>; groups include all
+     * devices.
+     * 
+     * @param dev       Device
+     * @return          Mask
+     */
+    public static long mask(Device dev)
+    {
+        final int index = dev.getIndex();
+        
+        return ( index < 0 ? allMask() : 1L << index );
+    }
+    
+    
+    /**
+     * Returns the devices of the <code>mask</code>.
+     * 
+     * @param mask      Mask
+     * @return          Devices
+     */
+    public static List<Device> devices(long mask)
+    {
+        final List<Device> devices = new ArrayList<>(Long.bitCount(mask));
+        
+        for( int i = 0; i < DEVICES.length; i++ )
+        {
+            if( ( mask & ( 1L << i ) ) != 0 )
+            {
+                devices.add(DEVICES[i]);
+            }
+        }
+        
+        return devices;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder str = new StringBuilder("StatusSnapshot{");
+        
+        for( int i = 0; i < DEVICES.length; i++ )
+        {
+            str.append(getStatus(DEVICES[i]).getId());
+        }
+        
+        return str.append('}').toString();
+    }
+    
+    
+    /**
+     * Returns the hash code.
+     * 
+     * @return      Hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        int hash = 7;
+        hash = 31 * hash + (int) ( this.onMask ^ ( this.onMask >>> 32 ) );
+        hash = 31 * hash + (int) ( this.knownMask ^ ( this.knownMask >>> 32 ) );
+        return hash;
+    }
+    
+    
+    /**
+     * Tests whether this and <code>obj</code> are equal.
+     * 
+     * @param obj       Other object
+     * @return          Returns <tt>true</tt> if equal or <tt>false</tt> if not
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if( obj == null )
+        {
+            return false;
+        }
+        
+        if( getClass() != obj.getClass() )
+        {
+            return false;
+        }
+        
+        final StatusSnapshot other = (StatusSnapshot) obj;
+        
+        return this.onMask == other.onMask && this.knownMask == other.knownMask;
+    }
+    
+    
+    private static long allMask()
+    {
+        return ( DEVICES.length == Long.SIZE ? -1L : ( 1L << DEVICES.length ) - 1 );
+    }
+    
+    
+    
+    /**
+     * The class <code>Builder</code> collects status information, eg. from a
+     * {@link ElsockController#getStatus(StatusSink) status response}, and
+     * builds a snapshot of it.
+     */
+    public static class Builder implements StatusSink
+    {
+        private long onMask;
+        private long knownMask;
+        
+        
+        public Builder()
+        {
+            this(UNKNOWN);
+        }
+        
+        public Builder(StatusSnapshot initial)
+        {
+            this.onMask = initial.onMask;
+            this.knownMask = initial.knownMask;
+        }
+        
+        
+        /**
+         * Sets the status of device <code>dev</code>.
+         * 
+         * @param dev           Device
+         * @param status        Status
+         * @return              Builder
+         */
+        public Builder set(Device dev, Status status)
+        {
+            final long bits = mask(dev);
+            
+            switch(status)
+            {
+                case ON:
+                    onMask |= bits;
+                    knownMask |= bits;
+                    break;
+                case OFF:
+                    onMask &= ~bits;
+                    knownMask |= bits;
+                    break;
+                case TOGGLE:
+                    onMask ^= ( bits & knownMask );
+                    break;
+                case UNKNOWN:
+                    knownMask &= ~bits;
+                    onMask &= knownMask;
+                    break;
+                default:
+                    break;
+            }
+            
+            return this;
+        }
+        
+        
+        /**
+         * Sets the status of the device at position <code>pos</code>;
+         * positions beyond the known devices are ignored.
+         * 
+         * @param pos           Position
+         * @param status        Status
+         */
+        @Override
+        public void status(int pos, Status status)
+        {
+            if( pos >= DEVICES.length )
+            {
+                return;
+            }
+            
+            final long bit = 1L << pos;
+            
+            if( status == Status.ON )
+            {
+                onMask |= bit;
+                knownMask |= bit;
+            }
+            else if( status == Status.OFF )
+            {
+                onMask &= ~bit;
+                knownMask |= bit;
+            }
+        }
+        
+        
+        /**
+         * Resets all devices to unknown.
+         * 
+         * @return      Builder
+         */
+        public Builder clear()
+        {
+            onMask = 0L;
+            knownMask = 0L;
+            
+            return this;
+        }
+        
+        
+        /**
+         * Builds the snapshot.
+         * 
+         * @return      Snapshot
+         */
+        public StatusSnapshot build()
+        {
+            return ( knownMask == 0L ? UNKNOWN : new StatusSnapshot(onMask, knownMask) );
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class <code>StatusWatcher</code> polls the status of a host in the
+ * background and notifies {@link #watch(StatusChangeListener) listeners}
+ * only about changed devices.
+ *
+ * <p>The poll interval adapts to the activity of the host: it's reset to
+ * the {@link #getMinInterval() minimum} after a change or a command sent
+ * through the watched controller and doubles with every poll without a
+ * change, up to the {@link #getMaxInterval() maximum}.</p>
+ *
+ * <p>Polling starts with the first listener and stops once all listeners
+ * are removed.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class StatusWatcher implements Closeable
+{
+    /** Default minimum poll interval (ms). */
+    public static final long DEFAULT_MIN_INTERVAL = 100;
+    /** Default maximum poll interval (ms). */
+    public static final long DEFAULT_MAX_INTERVAL = 5000;
+    private final ElsockController controller;
+    private final ScheduledExecutorService timer;
+    private final boolean ownTimer;
+    private final long minInterval;
+    private final long maxInterval;
+    private final List<StatusChangeListener> listeners;
+    private final StatusSnapshot.Builder builder;
+    private final ElsockListener commandListener;
+    private volatile StatusSnapshot snapshot;
+    private long interval;
+    private Future<?> next;
+    private boolean polling;
+    private boolean poked;
+    private boolean closed;
+    
+    
+    public StatusWatcher(ElsockController controller)
+    {
+        this(controller, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+    }
+    
+    public StatusWatcher(ElsockController controller, long minInterval, long maxInterval)
+    {
+        this(controller, minInterval, maxInterval,
+                new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("watcher")), true);
+    }
+    
+    /**
+     * Creates a new watcher polling on <code>timer</code>. The timer is not
+     * shut down by {@link #close() close()}; it can be shared by many
+     * watchers.
+     * 
+     * @param controller        Controller of the host
+     * @param minInterval       Minimum poll interval (ms)
+     * @param maxInterval       Maximum poll interval (ms)
+     * @param timer             Timer
+     * @exception               IllegalArgumentException If
+     *                          <code>minInterval</code> is not positive or
+     *                          greater than <code>maxInterval</code>
+     */
+    public StatusWatcher(ElsockController controller, long minInterval,
+            long maxInterval, ScheduledExecutorService timer)
+    {
+        this(controller, minInterval, maxInterval, timer, false);
+    }
+    
+    private StatusWatcher(ElsockController controller, long minInterval,
+            long maxInterval, ScheduledExecutorService timer, boolean ownTimer)
+    {
+        if( minInterval < 1 || maxInterval < minInterval )
+        {
+            if( ownTimer == true )
+            {
+                timer.shutdown();
+            }
+            
+            throw new IllegalArgumentException("Invalid interval!");
+        }
+        
+        this.controller = controller;
+        this.timer = timer;
+        this.ownTimer = ownTimer;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.builder = new StatusSnapshot.Builder();
+        this.snapshot = StatusSnapshot.UNKNOWN;
+        this.interval = minInterval;
+        this.next = null;
+        this.polling = false;
+        this.poked = false;
+        this.closed = false;
+        this.commandListener = new ElsockListener()
+        {
+            @Override
+            public void requestCompleted(String address, Operation operation,
+                    long connectNanos, long firstByteNanos, long parseNanos, long totalNanos)
+            {
+                if( operation != Operation.GET_STATUS )
+                {
+                    poke();
+                }
+            }
+            
+            
+            @Override
+            public void requestFailed(String address, Operation operation,
+                    long totalNanos, IOException cause)
+            {
+                // Failures are reported by the polls
+            }
+        };
+    }
+    
+    
+    
+    /**
+     * Adds the <code>listener</code>; polling is started if it's the first
+     * one.
+     * 
+     * @param listener      Listener
+     * @exception           IllegalStateException If the watcher is closed
+     */
+    public synchronized void watch(StatusChangeListener listener)
+    {
+        if( closed == true )
+        {
+            throw new IllegalStateException("Watcher closed!");
+        }
+        
+        listeners.add(listener);
+        
+        if( listeners.size() == 1 )
+        {
+            controller.addListener(commandListener);
+            snapshot = StatusSnapshot.UNKNOWN;
+            poke();
+        }
+    }
+    
+    
+    /**
+     * Removes the <code>listener</code>; polling is stopped if it was the
+     * last one.
+     * 
+     * @param listener      Listener
+     */
+    public synchronized void unwatch(StatusChangeListener listener)
+    {
+        if( listeners.remove(listener) == true && listeners.isEmpty() == true )
+        {
+            stop();
+        }
+    }
+    
+    
+    /**
+     * Polls as soon as possible and resets the interval to the minimum, eg.
+     * after the status was changed by another client.
+     */
+    public synchronized void poke()
+    {
+        if( listeners.isEmpty() == true )
+        {
+            return;
+        }
+        
+        interval = minInterval;
+        
+        if( polling == true )
+        {
+            // Polled again once the running poll completed
+            poked = true;
+            return;
+        }
+        
+        if( next != null )
+        {
+            next.cancel(false);
+        }
+        
+        schedule(0L);
+    }
+    
+    
+    /**
+     * Returns the last polled status.
+     * 
+     * @return      Status or {@link StatusSnapshot#UNKNOWN UNKNOWN} if not
+     *              polled yet
+     */
+    public StatusSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+    
+    
+    /**
+     * Returns the current poll interval.
+     * 
+     * @return      Interval (ms)
+     */
+    public synchronized long getInterval()
+    {
+        return interval;
+    }
+    
+    
+    /**
+     * Returns the minimum poll interval.
+     * 
+     * @return      Interval (ms)
+     */
+    public long getMinInterval()
+    {
+        return minInterval;
+    }
+    
+    
+    /**
+     * Returns the maximum poll interval.
+     * 
+     * @return      Interval (ms)
+     */
+    public long getMaxInterval()
+    {
+        return maxInterval;
+    }
+    
+    
+    /**
+     * Stops polling and removes all listeners. The controller is not closed.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        listeners.clear();
+        stop();
+        
+        if( ownTimer == true )
+        {
+            timer.shutdown();
+        }
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "StatusWatcher{" + "address=" + controller.getAddress()
+                + ", interval=" + getInterval() + ", snapshot=" + snapshot + '}';
+    }
+    
+    
+    private void stop()
+    {
+        controller.removeListener(commandListener);
+        
+        if( next != null )
+        {
+            next.cancel(false);
+            next = null;
+        }
+    }
+    
+    
+    private void schedule(long delay)
+    {
+        next = timer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                poll();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    
+    /**
+     * Polls the status, notifies the listeners and schedules the next poll.
+     * A poll is limited by the maximum interval.
+     */
+    private void poll()
+    {
+        synchronized( this )
+        {
+            if( listeners.isEmpty() == true )
+            {
+                return;
+            }
+            
+            polling = true;
+        }
+        
+        boolean changed = false;
+        final Deadline previous = Deadline.enter(Deadline.after(maxInterval, TimeUnit.MILLISECONDS));
+        
+        try
+        {
+            builder.clear();
+            
+            if( controller.getStatus(builder) == true )
+            {
+                final StatusSnapshot current = builder.build();
+                final StatusSnapshot last = snapshot;
+                
+                if( current.diff(last) != 0 )
+                {
+                    snapshot = current;
+                    changed = true;
+                    notifyChanged(new StatusChange(controller.getAddress(), last, current));
+                }
+            }
+        }
+        catch( IOException ex )
+        {
+            notifyFailed(ex);
+        }
+        finally
+        {
+            Deadline.exit(previous);
+            
+            synchronized( this )
+            {
+                polling = false;
+                
+                if( listeners.isEmpty() == false )
+                {
+                    if( poked == true )
+                    {
+                        poked = false;
+                        interval = minInterval;
+                        schedule(0L);
+                    }
+                    else
+                    {
+                        interval = ( changed == true ? minInterval : Math.min(maxInterval, interval * 2) );
+                        schedule(interval);
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    private void notifyChanged(StatusChange change)
+    {
+        for( StatusChangeListener listener : listeners )
+        {
+            try
+            {
+                listener.statusChanged(change);
+            }
+            catch( RuntimeException ex )
+            {
+                // A failing listener must not stop the polling
+            }
+        }
+    }
+    
+    
+    private void notifyFailed(IOException cause)
+    {
+        for( StatusChangeListener listener : listeners )
+        {
+            try
+            {
+                listener.pollFailed(controller.getAddress(), cause);
+            }
+            catch( RuntimeException ex )
+            {
+                // A failing listener must not stop the polling
+            }
+        }
+    }
+}
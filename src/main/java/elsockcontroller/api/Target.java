@@ -0,0 +1,225 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The class <code>Target</code> holds a parsed host address and the encoded
+ * request header following the query, so both are computed only once per
+ * address.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class Target
+{
+    /** Encoded request method preceding the query. */
+    static final byte[] REQUEST_METHOD = "GET ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int MAX_TARGETS = 4096;
+    private static final long RESOLVE_INTERVAL = 30000000000L;
+    private final Endpoint endpoint;
+    private final byte[] header;
+    private volatile InetSocketAddress socketAddress;
+    private volatile long resolvedAt;
+    private volatile boolean pipelining;
+    
+    
+    private Target(Endpoint endpoint)
+    {
+        this.endpoint = endpoint;
+        this.header = ( " HTTP/1.1\r\n"
+                + "Host: " + endpoint.getHostHeader() + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n" ).getBytes(StandardCharsets.ISO_8859_1);
+        this.socketAddress = null;
+        this.pipelining = true;
+    }
+    
+    
+    
+    /**
+     * Returns the endpoint.
+     * 
+     * @return      Endpoint
+     */
+    Endpoint getEndpoint()
+    {
+        return endpoint;
+    }
+    
+    
+    /**
+     * Returns the encoded request header following the query.
+     * 
+     * @return      Header; must not be modified
+     */
+    byte[] getHeader()
+    {
+        return header;
+    }
+    
+    
+    /**
+     * Returns the length of the request for the <code>query</code>.
+     * 
+     * @param query     Query
+     * @return          Length (bytes)
+     */
+    int requestLength(CharSequence query)
+    {
+        return REQUEST_METHOD.length + query.length() + header.length;
+    }
+    
+    
+    /**
+     * Encodes the request for the <code>query</code> into
+     * <code>buffer</code> at <code>offset</code>; the buffer must be large
+     * enough.
+     * 
+     * @param query     Query (ASCII)
+     * @param buffer    Buffer
+     * @param offset    Offset within the buffer
+     * @return          End of the request within the buffer
+     */
+    int encode(CharSequence query, byte[] buffer, int offset)
+    {
+        System.arraycopy(REQUEST_METHOD, 0, buffer, offset, REQUEST_METHOD.length);
+        int pos = offset + REQUEST_METHOD.length;
+        
+        for( int i = 0; i < query.length(); i++ )
+        {
+            buffer[pos++] = (byte) query.charAt(i);
+        }
+        
+        System.arraycopy(header, 0, buffer, pos, header.length);
+        
+        return pos + header.length;
+    }
+    
+    
+    /**
+     * Returns the resolved socket address; the host name is resolved again
+     * after 30 s.
+     * 
+     * @return      Socket address
+     */
+    InetSocketAddress getSocketAddress()
+    {
+        final long now = System.nanoTime();
+        InetSocketAddress address = socketAddress;
+        
+        if( address == null || address.isUnresolved() == true
+                || now - resolvedAt >= RESOLVE_INTERVAL )
+        {
+            address = endpoint.toSocketAddress();
+            resolvedAt = now;
+            socketAddress = address;
+        }
+        
+        return address;
+    }
+    
+    
+    /**
+     * Returns whether queries to the host may be pipelined.
+     * 
+     * @return      Returns <tt>true</tt> if pipelining is supported or
+     *              <tt>false</tt> if the host failed to handle it
+     */
+    boolean isPipelining()
+    {
+        return pipelining;
+    }
+    
+    
+    /**
+     * Marks the host as not supporting pipelining.
+     */
+    void disablePipelining()
+    {
+        pipelining = false;
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "Target{" + "endpoint=" + endpoint + '}';
+    }
+    
+    
+    
+    /**
+     * Cache of the targets of a transport. If full, the least recently used
+     * target is evicted, so the state of active hosts is kept.
+     */
+    static final class Cache
+    {
+        private final Map<String, Target> targets;
+        
+        
+        Cache()
+        {
+            this.targets = new LinkedHashMap<String, Target>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+                
+                
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Target> eldest)
+                {
+                    return size() > MAX_TARGETS;
+                }
+            };
+        }
+        
+        
+        /**
+         * Returns the target of the <code>address</code>; a new target is
+         * added if there's none.
+         * 
+         * @param address       Host address
+         * @return              Target
+         */
+        synchronized Target get(String address)
+        {
+            Target target = targets.get(address);
+            
+            if( target == null )
+            {
+                target = new Target(Endpoint.parse(address));
+                targets.put(address, target);
+            }
+            
+            return target;
+        }
+    }
+}
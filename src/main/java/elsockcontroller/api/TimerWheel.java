@@ -0,0 +1,281 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.Collection;
+
+/**
+ * The class <code>TimerWheel</code> is a hierarchical timer wheel: entries
+ * are kept in slots of four wheels with 256 ticks each, covering
+ * 2<sup>32</sup> ticks. Entries of the outer wheels are moved inwards
+ * (cascaded) once their slot is reached.
+ *
+ * <p>Scheduling and cancelling take constant time, and so does advancing
+ * by a tick, apart from the expired entries; this doesn't depend on the
+ * number of scheduled entries. Entries are linked intrusively, so no
+ * objects are allocated. The class is not thread-safe.</p>
+ *
+ * @param <E>   Type of the entries
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+final class TimerWheel<E extends TimerWheel.Entry>
+{
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = ( 1L << ( BITS * LEVELS ) ) - 1;
+    private final Entry[][] slots;
+    private long current;
+    private int size;
+    
+    
+    /**
+     * Creates a new wheel.
+     * 
+     * @param start     First tick
+     */
+    TimerWheel(long start)
+    {
+        this.slots = new Entry[LEVELS][SLOTS];
+        this.current = start;
+        this.size = 0;
+        
+        for( int level = 0; level < LEVELS; level++ )
+        {
+            for( int slot = 0; slot < SLOTS; slot++ )
+            {
+                final Entry head = new Entry();
+                head.prev = head;
+                head.next = head;
+                slots[level][slot] = head;
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Schedules the entry to expire at <code>tick</code>; a scheduled entry
+     * is rescheduled. Ticks already passed expire on the next advance.
+     * 
+     * @param entry     Entry
+     * @param tick      Tick of expiration
+     */
+    void schedule(E entry, long tick)
+    {
+        if( entry.next != null )
+        {
+            unlink(entry);
+        }
+        
+        entry.expiration = tick;
+        place(entry);
+        size++;
+    }
+    
+    
+    /**
+     * Removes the entry, if scheduled.
+     * 
+     * @param entry     Entry
+     * @return          Returns <tt>true</tt> if removed or <tt>false</tt> if
+     *                  not scheduled
+     */
+    boolean cancel(E entry)
+    {
+        if( entry.next == null )
+        {
+            return false;
+        }
+        
+        unlink(entry);
+        
+        return true;
+    }
+    
+    
+    /**
+     * Advances the wheel up to and including <code>tick</code>; expired
+     * entries are removed and added to <code>expired</code>, in order of
+     * their expiration.
+     * 
+     * @param tick          Tick
+     * @param expired       Collection of expired entries
+     */
+    @SuppressWarnings("unchecked")
+    void advance(long tick, Collection<? super E> expired)
+    {
+        while( current <= tick )
+        {
+            final int index = (int) ( current & MASK );
+            
+            if( index == 0 )
+            {
+                // Cascade the outer wheels, as long as they wrap too
+                for( int level = 1; level < LEVELS; level++ )
+                {
+                    final int outer = (int) ( ( current >>> ( BITS * level ) ) & MASK );
+                    cascade(slots[level][outer]);
+                    
+                    if( outer != 0 )
+                    {
+                        break;
+                    }
+                }
+            }
+            
+            final Entry head = slots[0][index];
+            
+            while( head.next != head )
+            {
+                final Entry entry = head.next;
+                unlink(entry);
+                expired.add((E) entry);
+            }
+            
+            current++;
+        }
+    }
+    
+    
+    /**
+     * Returns the next tick to be processed.
+     * 
+     * @return      Tick
+     */
+    long getCurrent()
+    {
+        return current;
+    }
+    
+    
+    /**
+     * Returns the number of scheduled entries.
+     * 
+     * @return      Number of entries
+     */
+    int size()
+    {
+        return size;
+    }
+    
+    
+    /**
+     * Adds the entry to the slot of it's expiration.
+     * 
+     * @param entry     Entry
+     */
+    private void place(Entry entry)
+    {
+        // Expired entries go to the current slot, far ones to the last wheel
+        final long delta = Math.min(Math.max(entry.expiration - current, 0L), MAX_DELTA);
+        final long tick = current + delta;
+        int level = 0;
+        
+        while( level < LEVELS - 1 && delta >= ( 1L << ( BITS * ( level + 1 ) ) ) )
+        {
+            level++;
+        }
+        
+        final Entry head = slots[level][(int) ( ( tick >>> ( BITS * level ) ) & MASK )];
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+    
+    
+    /**
+     * Moves all entries of the slot to the inner wheels.
+     * 
+     * @param head      Head of the slot
+     */
+    private void cascade(Entry head)
+    {
+        Entry entry = head.next;
+        head.prev = head;
+        head.next = head;
+        
+        while( entry != head )
+        {
+            final Entry next = entry.next;
+            place(entry);
+            entry = next;
+        }
+    }
+    
+    
+    private void unlink(Entry entry)
+    {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        size--;
+    }
+    
+    
+    
+    /**
+     * Entry of a timer wheel; an entry can be scheduled in one wheel at a
+     * time.
+     */
+    static class Entry
+    {
+        Entry prev;
+        Entry next;
+        long expiration;
+        
+        
+        Entry()
+        {
+            this.prev = null;
+            this.next = null;
+        }
+        
+        
+        /**
+         * Returns the tick of expiration.
+         * 
+         * @return      Tick
+         */
+        long getExpiration()
+        {
+            return expiration;
+        }
+        
+        
+        /**
+         * Returns whether the entry is scheduled.
+         * 
+         * @return      Returns <tt>true</tt> if scheduled or <tt>false</tt>
+         *              otherwise
+         */
+        boolean isScheduled()
+        {
+            return next != null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The interface <code>Transport</code> sends queries to an Elsock-device and
+ * hands the response body to a {@link ResponseHandler handler}.
+ *
+ * <p>A transport may be shared by several controllers; implementations
+ * have to be thread-safe.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public interface Transport extends Closeable
+{
+    /**
+     * Sends the <code>query</code> to the host at <code>address</code> and
+     * passes the response body to <code>handler</code>.
+     * 
+     * <p>The query and the body stream are only valid during the call; the
+     * body must not be closed by the handler.</p>
+     * 
+     * <p>Connecting, sending and receiving must be completed by the
+     * <code>deadline</code>; otherwise a
+     * {@link java.net.SocketTimeoutException SocketTimeoutException} is
+     * thrown.</p>
+     * 
+     * @param address       Host address (<code>host</code> or
+     *                      <code>host:port</code>)
+     * @param query         Query (eg. <code>/q?LA=s</code>)
+     * @param timeout       Connection timeout (ms)
+     * @param deadline      Deadline of the whole query
+     * @param handler       Handler of the response body
+     * @throws              IOException On a network failure or timeout
+     */
+    void execute(String address, CharSequence query, int timeout, Deadline deadline,
+            ResponseHandler handler) throws IOException;
+    
+    
+    
+    /**
+     * The interface <code>ResponseHandler</code> consumes the response body
+     * of a query.
+     */
+    public static interface ResponseHandler
+    {
+        /**
+         * Handles the response body.
+         * 
+         * @param body      Response body
+         * @throws          IOException On a read failure
+         */
+        void handle(InputStream body) throws IOException;
+        
+        
+        /**
+         * Called by the transport after a new connection was opened for the
+         * query; not called if an existing connection is reused.
+         * 
+         * @param nanos     Time needed to connect (ns)
+         */
+        void connected(long nanos);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * The class <code>UrlConnectionTransport</code> sends each query through a
+ * new {@link URLConnection}. Connection reuse is left to the JDK.
+ *
+ * <p>This transport can be used for hosts that are not compatible with
+ * {@link KeepAliveTransport}.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public class UrlConnectionTransport implements Transport
+{
+    private final Protocol protocol;
+    
+    
+    public UrlConnectionTransport(Protocol protocol)
+    {
+        this.protocol = protocol;
+    }
+    
+    
+    
+    @Override
+    public void execute(String address, CharSequence query, int timeout, Deadline deadline,
+            ResponseHandler handler) throws IOException
+    {
+        final Endpoint endpoint = Endpoint.parse(address);
+        final URL url = new URL(protocol.getName(), endpoint.getHost(),
+                endpoint.getPort(), query.toString());
+        final URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(deadline.toTimeout(timeout));
+        conn.setReadTimeout(deadline.toTimeout(0));
+        
+        final long start = System.nanoTime();
+        conn.connect();
+        handler.connected(System.nanoTime() - start);
+        
+        try( InputStream in = conn.getInputStream() )
+        {
+            handler.handle(in);
+            
+            // Drain the stream to allow the connection to be reused
+            final byte[] buffer = new byte[256];
+            
+            while( in.read(buffer) >= 0 )
+            {
+                // Discard
+            }
+        }
+    }
+    
+    
+    @Override
+    public void close()
+    {
+        // Nothing to release
+    }
+    
+    
+    /**
+     * Returns the string representation.
+     * 
+     * @return      String representation
+     */
+    @Override
+    public String toString()
+    {
+        return "UrlConnectionTransport{" + "protocol=" + protocol + '}';
+    }
+}
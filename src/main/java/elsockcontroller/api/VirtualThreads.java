@@ -0,0 +1,88 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The class <code>VirtualThreads</code> provides access to virtual threads
+ * (Java 21) while the library still runs on Java 7.
+ *
+ * <p>The library is a multi-release jar if built on Java 21 or later: on a
+ * Java 21 runtime a replacement of this class creates virtual threads,
+ * older runtimes use this class, which doesn't support them. Controllers
+ * and the {@link KeepAliveTransport} and {@link NioTransport} transports
+ * can be used from virtual threads without pinning their carrier
+ * threads.</p>
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class VirtualThreads
+{
+    private VirtualThreads()
+    {
+    }
+    
+    
+    
+    /**
+     * Returns whether virtual threads are supported by the runtime.
+     * 
+     * @return      Returns <tt>true</tt> if supported or <tt>false</tt>
+     *              otherwise
+     */
+    public static boolean isSupported()
+    {
+        return false;
+    }
+    
+    
+    /**
+     * Returns a factory of virtual threads named <code>elsock-name-N</code>.
+     * 
+     * @param name      Name of the threads
+     * @return          Thread factory
+     * @exception       UnsupportedOperationException If virtual threads are
+     *                  not supported
+     */
+    public static ThreadFactory newThreadFactory(String name)
+    {
+        throw new UnsupportedOperationException("Virtual threads require Java 21");
+    }
+    
+    
+    /**
+     * Returns an executor running each task on a new virtual thread, eg. for
+     * an {@link AsyncElsockController}.
+     * 
+     * @param name      Name of the threads
+     * @return          Executor
+     * @exception       UnsupportedOperationException If virtual threads are
+     *                  not supported
+     */
+    public static ExecutorService newExecutor(String name)
+    {
+        throw new UnsupportedOperationException("Virtual threads require Java 21");
+    }
+}
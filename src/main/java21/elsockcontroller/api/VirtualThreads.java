@@ -0,0 +1,76 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package elsockcontroller.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The class <code>VirtualThreads</code> provides access to virtual threads;
+ * this is the Java 21 version of the multi-release jar.
+ *
+ * @version     0.1
+ * @since       0.0.3
+ * @author      offa
+ */
+public final class VirtualThreads
+{
+    private VirtualThreads()
+    {
+    }
+    
+    
+    
+    /**
+     * Returns whether virtual threads are supported by the runtime.
+     * 
+     * @return      Always <tt>true</tt>
+     */
+    public static boolean isSupported()
+    {
+        return true;
+    }
+    
+    
+    /**
+     * Returns a factory of virtual threads named <code>elsock-name-N</code>.
+     * 
+     * @param name      Name of the threads
+     * @return          Thread factory
+     */
+    public static ThreadFactory newThreadFactory(String name)
+    {
+        return Thread.ofVirtual().name("elsock-" + name + "-", 1).factory();
+    }
+    
+    
+    /**
+     * Returns an executor running each task on a new virtual thread.
+     * 
+     * @param name      Name of the threads
+     * @return          Executor
+     */
+    public static ExecutorService newExecutor(String name)
+    {
+        return Executors.newThreadPerTaskExecutor(newThreadFactory(name));
+    }
+}
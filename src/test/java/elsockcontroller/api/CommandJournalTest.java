@@ -0,0 +1,366 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package elsockcontroller.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link CommandJournal}.
+ */
+public class CommandJournalTest
+{
+    private static final String HOST = "192.168.0.10";
+    private static final int HEADER_SIZE = 8;
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    
+    
+    @Test
+    public void replaysOutcomes() throws IOException
+    {
+        final File file = folder.newFile();
+        file.delete();
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            send(journal, Device.DEVICE_0, Status.ON);
+            send(journal, Device.DEVICE_1, Status.ON);
+            send(journal, Device.DEVICE_1, Status.TOGGLE);
+            
+            final int intent = journal.intent(HOST, new ElsockData(Device.DEVICE_2, Status.ON));
+            journal.record(HOST, intent, new ElsockData(Device.DEVICE_2, Status.ON), null, true);
+        }
+        
+        final StatusSnapshot state = replay(file).get(HOST);
+        
+        assertEquals(Status.ON, state.getStatus(Device.DEVICE_0));
+        assertEquals(Status.OFF, state.getStatus(Device.DEVICE_1));
+        assertEquals(Status.UNKNOWN, state.getStatus(Device.DEVICE_2));
+        assertEquals(Status.UNKNOWN, state.getStatus(Device.DEVICE_3));
+    }
+    
+    
+    @Test
+    public void replaysConfirmedStatus() throws IOException
+    {
+        final File file = folder.newFile();
+        file.delete();
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            final ElsockData data = new ElsockData(Device.DEVICE_1, Status.TOGGLE);
+            final int intent = journal.intent(HOST, data);
+            journal.record(HOST, intent, data, StatusSnapshot.of(0x3L, 0x3ffL), false);
+        }
+        
+        assertEquals(StatusSnapshot.of(0x3L, 0x3ffL), replay(file).get(HOST));
+    }
+    
+    
+    @Test
+    public void marksCommandsWithoutOutcomeUnknown() throws IOException
+    {
+        final File file = folder.newFile();
+        file.delete();
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            send(journal, Device.DEVICE_0, Status.ON);
+            send(journal, Device.DEVICE_1, Status.OFF);
+            journal.intent(HOST, new ElsockData(Device.DEVICE_0, Status.OFF));
+        }
+        
+        final StatusSnapshot state = replay(file).get(HOST);
+        
+        assertEquals(Status.UNKNOWN, state.getStatus(Device.DEVICE_0));
+        assertEquals(Status.OFF, state.getStatus(Device.DEVICE_1));
+    }
+    
+    
+    @Test
+    public void discardedCommandsKeepTheStatus() throws IOException
+    {
+        final File file = folder.newFile();
+        file.delete();
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            send(journal, Device.DEVICE_0, Status.ON);
+            final int intent = journal.intent(HOST, new ElsockData(Device.DEVICE_0, Status.OFF));
+            journal.discard(HOST, intent);
+        }
+        
+        assertEquals(Status.ON, replay(file).get(HOST).getStatus(Device.DEVICE_0));
+    }
+    
+    
+    @Test
+    public void ignoresCorruptedTailRecord() throws IOException
+    {
+        final File file = writeTwoCommands();
+        final List<Integer> records = records(file);
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            final int pos = records.get(records.size() - 1) + 4 + 2;
+            raf.seek(pos);
+            final int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0x01);
+        }
+        
+        assertOnlyFirstCommand(replay(file));
+    }
+    
+    
+    @Test
+    public void ignoresTornTailRecord() throws IOException
+    {
+        final File file = writeTwoCommands();
+        final List<Integer> records = records(file);
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            raf.setLength(records.get(records.size() - 1) + 10);
+        }
+        
+        assertOnlyFirstCommand(replay(file));
+    }
+    
+    
+    @Test
+    public void ignoresTailRecordWithoutChecksum() throws IOException
+    {
+        final File file = writeTwoCommands();
+        final List<Integer> records = records(file);
+        final int last = records.get(records.size() - 1);
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            raf.seek(last);
+            final int length = raf.readInt();
+            raf.seek(last + 4 + length);
+            raf.writeInt(0);
+        }
+        
+        assertOnlyFirstCommand(replay(file));
+    }
+    
+    
+    @Test
+    public void ignoresAllRecordsAfterACorruptedOne() throws IOException
+    {
+        final File file = writeTwoCommands();
+        final List<Integer> records = records(file);
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            // The intent of the second command; its outcome follows
+            final int pos = records.get(records.size() - 2) + 4 + 2;
+            raf.seek(pos);
+            final int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0x80);
+        }
+        
+        assertOnlyFirstCommand(replay(file));
+    }
+    
+    
+    @Test
+    public void appendsAfterRecoveredTail() throws IOException
+    {
+        final File file = writeTwoCommands();
+        final List<Integer> records = records(file);
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            raf.setLength(records.get(records.size() - 1) + 10);
+        }
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            send(journal, Device.DEVICE_2, Status.ON);
+        }
+        
+        final StatusSnapshot state = replay(file).get(HOST);
+        
+        assertEquals(Status.ON, state.getStatus(Device.DEVICE_0));
+        assertEquals(Status.UNKNOWN, state.getStatus(Device.DEVICE_1));
+        assertEquals(Status.ON, state.getStatus(Device.DEVICE_2));
+        assertEquals(records.size() + 1, records(file).size());
+    }
+    
+    
+    @Test
+    public void keepsHostsInOrder() throws IOException
+    {
+        final File file = folder.newFile();
+        file.delete();
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            send(journal, Device.DEVICE_0, Status.ON);
+            final ElsockData data = new ElsockData(Device.DEVICE_0, Status.OFF);
+            journal.record("192.168.0.11", journal.intent("192.168.0.11", data), data, null, false);
+        }
+        
+        final Map<String, StatusSnapshot> states = replay(file);
+        
+        assertEquals(2, states.size());
+        assertEquals(HOST, states.keySet().iterator().next());
+        assertEquals(Status.OFF, states.get("192.168.0.11").getStatus(Device.DEVICE_0));
+    }
+    
+    
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException
+    {
+        final File file = folder.newFile();
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            raf.writeBytes("0,1,0,1,0,1,0,1,0,1");
+        }
+        
+        new CommandJournal(file).close();
+    }
+    
+    
+    /**
+     * Records a command and its outcome without a response.
+     * 
+     * @param journal       Journal
+     * @param dev           Device
+     * @param status        Status
+     * @throws              IOException If recording failed
+     */
+    private static void send(CommandJournal journal, Device dev, Status status) throws IOException
+    {
+        final ElsockData data = new ElsockData(dev, status);
+        journal.record(HOST, journal.intent(HOST, data), data, null, false);
+    }
+    
+    
+    /**
+     * Writes a journal switching device 0 on, then device 1.
+     * 
+     * @return          Journal file
+     * @throws          IOException If writing failed
+     */
+    private File writeTwoCommands() throws IOException
+    {
+        final File file = folder.newFile();
+        file.delete();
+        
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            send(journal, Device.DEVICE_0, Status.ON);
+            send(journal, Device.DEVICE_1, Status.ON);
+        }
+        
+        final Map<String, StatusSnapshot> states = replay(file);
+        
+        assertEquals(Status.ON, states.get(HOST).getStatus(Device.DEVICE_1));
+        
+        return file;
+    }
+    
+    
+    /**
+     * Asserts the journal of {@link #writeTwoCommands() writeTwoCommands()}
+     * lost the second command.
+     * 
+     * @param states    Replayed status
+     */
+    private static void assertOnlyFirstCommand(Map<String, StatusSnapshot> states)
+    {
+        final StatusSnapshot state = states.get(HOST);
+        
+        assertEquals(Status.ON, state.getStatus(Device.DEVICE_0));
+        assertEquals(Status.UNKNOWN, state.getStatus(Device.DEVICE_1));
+    }
+    
+    
+    /**
+     * Opens the journal and replays it.
+     * 
+     * @param file      Journal file
+     * @return          Status by host
+     * @throws          IOException If the journal can't be opened
+     */
+    private static Map<String, StatusSnapshot> replay(File file) throws IOException
+    {
+        try( CommandJournal journal = new CommandJournal(file) )
+        {
+            return journal.replay();
+        }
+    }
+    
+    
+    /**
+     * Returns the start of each record: a length, the data and a checksum.
+     * 
+     * @param file      Journal file
+     * @return          Starts of the records
+     * @throws          IOException If the file can't be read
+     */
+    private static List<Integer> records(File file) throws IOException
+    {
+        final List<Integer> records = new ArrayList<>();
+        
+        try( RandomAccessFile raf = new RandomAccessFile(file, "r") )
+        {
+            long pos = HEADER_SIZE;
+            
+            while( pos + 4 <= raf.length() )
+            {
+                raf.seek(pos);
+                final int length = raf.readInt();
+                
+                if( length <= 0 )
+                {
+                    break;
+                }
+                
+                records.add((int) pos);
+                pos += 8 + length;
+            }
+        }
+        
+        assertFalse(records.isEmpty());
+        assertTrue(records.size() < 100);
+        
+        return records;
+    }
+}
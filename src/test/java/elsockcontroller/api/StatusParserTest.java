@@ -0,0 +1,227 @@
+/*
+ * ElsockControllerJava is a controller for elsock devices.
+ * Copyright (C) 2014  offa
+ *
+ * This file is part of ElsockControllerJava.
+ *
+ * ElsockControllerJava is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ElsockControllerJava is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ElsockControllerJava.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package elsockcontroller.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link StatusParser}.
+ */
+public class StatusParserTest
+{
+    private final StatusParser parser = new StatusParser();
+    
+    
+    @Test
+    public void parsesAllValues() throws IOException
+    {
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(4, parse("0,1,1,0", 1024, values));
+        assertEquals(Arrays.asList("0=OFF", "1=ON", "2=ON", "3=OFF"), values);
+    }
+    
+    
+    @Test
+    public void ignoresSurroundingWhitespace() throws IOException
+    {
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(3, parse(" 1 ,\t0 , 1\r\n", 1024, values));
+        assertEquals(Arrays.asList("0=ON", "1=OFF", "2=ON"), values);
+    }
+    
+    
+    @Test
+    public void returnsEmptyWithoutData() throws IOException
+    {
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(StatusParser.EMPTY, parse("", 1024, values));
+        assertEquals(StatusParser.EMPTY, parse(" \r\n\t ", 1024, values));
+        assertEquals(0, values.size());
+    }
+    
+    
+    @Test
+    public void sameResultForEverySplitOfTheReads() throws IOException
+    {
+        final String body = " 0, 1 ,10,1,\r\n0 ";
+        final List<String> expected = new ArrayList<>();
+        final int count = parse(body, body.length(), expected);
+        
+        for( int chunk = 1; chunk < body.length(); chunk++ )
+        {
+            final List<String> values = new ArrayList<>();
+            
+            assertEquals("Chunk size " + chunk, count, parse(body, chunk, values));
+            assertEquals("Chunk size " + chunk, expected, values);
+        }
+        
+        assertEquals(Arrays.asList("0=OFF", "1=ON", "2=ON", "3=OFF"), expected);
+    }
+    
+    
+    @Test
+    public void parsesBodiesLargerThanTheBuffer() throws IOException
+    {
+        final StringBuilder body = new StringBuilder();
+        final List<String> expected = new ArrayList<>();
+        
+        for( int i = 0; i < 500; i++ )
+        {
+            body.append(i > 0 ? "," : "").append(i % 3 == 0 ? '1' : '0');
+            expected.add(i + "=" + ( i % 3 == 0 ? "ON" : "OFF" ));
+        }
+        
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(500, parse(body.toString(), 7, values));
+        assertEquals(expected, values);
+    }
+    
+    
+    @Test
+    public void skipsMalformedValues() throws IOException
+    {
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(3, parse("1,2,x,10,1 1,,0,1", 1024, values));
+        assertEquals(Arrays.asList("0=ON", "1=OFF", "2=ON"), values);
+    }
+    
+    
+    @Test
+    public void returnsNoValuesForGarbage() throws IOException
+    {
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(0, parse("<html>Not found</html>", 1024, values));
+        assertEquals(0, parse(",,,", 1024, values));
+        assertEquals(0, parse("äö,ÿ", 3, values));
+        assertEquals(0, values.size());
+    }
+    
+    
+    @Test
+    public void isReusableAfterAMalformedBody() throws IOException
+    {
+        final List<String> values = new ArrayList<>();
+        
+        parse("1,1,10", 2, values);
+        values.clear();
+        
+        assertEquals(2, parse("0,1", 1024, values));
+        assertEquals(Arrays.asList("0=OFF", "1=ON"), values);
+    }
+    
+    
+    @Test
+    public void parsesRangeOfArray()
+    {
+        final byte[] data = "xx1,0yy".getBytes(StandardCharsets.US_ASCII);
+        final List<String> values = new ArrayList<>();
+        
+        assertEquals(2, parser.parse(data, 2, 3, new Recorder(values)));
+        assertEquals(Arrays.asList("0=ON", "1=OFF"), values);
+    }
+    
+    
+    /**
+     * Parses the body, read in chunks of at most <code>chunk</code> bytes.
+     * 
+     * @param body      Body
+     * @param chunk     Maximum bytes returned by a read
+     * @param values    Receives the values as <code>position=status</code>
+     * @return          Result of the parser
+     * @throws          IOException On a read failure
+     */
+    private int parse(String body, int chunk, List<String> values) throws IOException
+    {
+        return parser.parse(new ChunkedInputStream(body.getBytes(StandardCharsets.UTF_8), chunk),
+                new Recorder(values));
+    }
+    
+    
+    
+    /**
+     * Sink recording the values as <code>position=status</code>.
+     */
+    private static class Recorder implements StatusSink
+    {
+        private final List<String> values;
+        
+        
+        Recorder(List<String> values)
+        {
+            this.values = values;
+        }
+        
+        
+        @Override
+        public void status(int pos, Status status)
+        {
+            values.add(pos + "=" + status.name());
+        }
+    }
+    
+    
+    
+    /**
+     * Stream returning at most a fixed number of bytes per read, like a
+     * response arriving in several packets.
+     */
+    private static class ChunkedInputStream extends InputStream
+    {
+        private final ByteArrayInputStream in;
+        private final int chunk;
+        
+        
+        ChunkedInputStream(byte[] data, int chunk)
+        {
+            this.in = new ByteArrayInputStream(data);
+            this.chunk = chunk;
+        }
+        
+        
+        @Override
+        public int read()
+        {
+            return in.read();
+        }
+        
+        
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            return in.read(b, off, Math.min(len, chunk));
+        }
+    }
+}